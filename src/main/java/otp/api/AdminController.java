@@ -1,39 +1,111 @@
 package otp.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.sun.net.httpserver.HttpExchange;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import otp.archive.OtpArchive;
+import otp.config.AppConfig;
+import otp.dao.UserDao;
 import otp.dao.impl.OtpConfigDaoImpl;
 import otp.dao.impl.OtpDaoImpl;
-import otp.dao.impl.UserDaoImpl;
-import otp.model.User;
+import otp.dao.OtpDao;
+import otp.http.RouteTable;
+import otp.jfr.RecordingControl;
+import otp.model.OtpConfig;
 import otp.service.AdminService;
+import otp.service.OtpHistoryService;
 import otp.util.HttpUtils;
 import otp.util.JsonUtil;
+import otp.util.ResourceVersion;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.URI;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
 
 /**
  * Контроллер для административных операций (роль ADMIN).
  * <p>
  * Доступные маршруты:
  * <ul>
+ *   <li>GET    /admin/config     — текущие длина и время жизни OTP-кодов (с ETag)</li>
  *   <li>PATCH  /admin/config     — изменить длину и время жизни OTP-кодов</li>
- *   <li>GET    /admin/users      — получить список всех пользователей без админов</li>
+ *   <li>GET    /admin/users      — получить страницу пользователей без админов (с ETag)</li>
  *   <li>DELETE /admin/users/{id} — удалить пользователя и связанные OTP-коды</li>
+ *   <li>GET    /admin/otp/history — постраничная история OTP-кодов пользователя (user_id)</li>
+ *   <li>POST   /admin/jfr/start  — начать ограниченную запись JDK Flight Recorder</li>
+ *   <li>POST   /admin/jfr/stop   — остановить запись и сохранить её в файл</li>
  * </ul>
  * </p>
  */
 public class AdminController {
     private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
-    private final AdminService adminService = new AdminService(
-            new OtpConfigDaoImpl(),
-            new UserDaoImpl(),
-            new OtpDaoImpl()
-    );
+    private final AdminService adminService;
+    private final OtpHistoryService historyService;
+    private final int defaultPageSize = AppConfig.getInt("api.page.defaultLimit", 100);
+    private final int maxPageSize = AppConfig.getInt("api.page.maxLimit", 1000);
+
+    // Последние ответы опрашиваемых панелями ресурсов; перестраиваются при изменении версии или по TTL
+    private final ConditionalGet usersResponses = new ConditionalGet("users", ResourceVersion.USERS,
+            AppConfig.getInt("api.etag.maxEntries", 64), AppConfig.getLong("api.etag.ttlSeconds", 30));
+    private final ConditionalGet configResponses = new ConditionalGet("otp-config", ResourceVersion.OTP_CONFIG,
+            1, AppConfig.getLong("api.etag.ttlSeconds", 30));
+
+    // Запись JFR по требованию; длительность и размер ограничены сверху
+    private final RecordingControl recordings = new RecordingControl(
+            Path.of(AppConfig.get("jfr.dir", "recordings")),
+            AppConfig.getLong("jfr.maxDurationSeconds", 600),
+            AppConfig.getLong("jfr.maxSizeMb", 256));
+
+    /**
+     * @param userDao    общий для всех контроллеров DAO пользователей
+     * @param otpArchive общий архив старой истории кодов (null — архив отключён)
+     */
+    public AdminController(UserDao userDao, OtpArchive otpArchive) {
+        OtpDao otpDao = new OtpDaoImpl();
+        this.adminService = new AdminService(
+                new OtpConfigDaoImpl(),
+                userDao,
+                otpDao
+        );
+        this.historyService = new OtpHistoryService(otpDao, otpArchive);
+    }
+
+    /**
+     * Обрабатывает HTTP GET запрос текущей конфигурации OTP.
+     * <p>
+     * Ответ: {"length": 6, "ttlSeconds": 300} с заголовком ETag; повторный запрос
+     * с If-None-Match получает 304 без обращения к БД, пока конфигурация не менялась.
+     * </p>
+     * <ul>
+     *   <li>200 OK — возвращает конфигурацию</li>
+     *   <li>304 Not Modified — конфигурация не изменилась</li>
+     *   <li>500 Internal Server Error — конфигурация не найдена или другая ошибка</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void getOtpConfig(HttpExchange exchange) throws IOException {
+        try {
+            configResponses.send(exchange, "config", json -> {
+                OtpConfig config = adminService.getOtpConfig();
+                if (config == null) {
+                    throw new IllegalStateException("OTP config is not initialized");
+                }
+                json.writeStartObject();
+                json.writeNumberField("length", config.getLength());
+                json.writeNumberField("ttlSeconds", config.getTtlSeconds());
+                json.writeEndObject();
+            });
+        } catch (Exception e) {
+            logger.error("Get Configuration error", e);
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
 
     /**
      * Обрабатывает HTTP PATCH запрос на изменение конфигурации OTP.
@@ -52,27 +124,15 @@ public class AdminController {
      */
     public void updateOtpConfig(HttpExchange exchange) throws IOException {
 
-        // Тип запроса дожен быть PATCH
-        if (!exchange.getRequestMethod().equalsIgnoreCase("PATCH")) {
-            logger.error("Invalid method [{}], PATCH needed", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
-            return;
-        }
-
-        // Ожидаем увидеть в запросе JSON
-        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-        if (contentType == null || !contentType.contains("application/json")) {
-            logger.error("Invalid Content-Type [{}]", contentType);
-            HttpUtils.sendError(exchange, 415, "Content-Type must be application/json");
-            return;
-        }
-
         try {
             // Парсим запрос и если всё прошло хорошо, обновляем конфигурацию OTP
-            Dto.ConfigRequest req = JsonUtil.fromJson(exchange.getRequestBody(), Dto.ConfigRequest.class);
+            Dto.ConfigRequest req = DtoCodec.readConfigRequest(exchange.getRequestBody());
             logger.info("Update Configuration");
             adminService.updateOtpConfig(req.length, req.ttlSeconds);
             HttpUtils.sendResponseCode(exchange, 204);
+        } catch (DtoCodec.BadRequestException e) {
+            logger.error("Update Configuration error: {}", e.getMessage());
+            HttpUtils.sendError(exchange, e.getStatus(), e.getMessage());
         } catch (Exception e) {
             // В случае ошибки пятисотим
             logger.error("Update Configuration error", e);
@@ -81,9 +141,19 @@ public class AdminController {
     }
 
     /**
-     * Обрабатывает HTTP GET запрос для получения списка пользователей без прав администратора.
+     * Обрабатывает HTTP GET запрос для получения страницы пользователей без прав администратора.
+     * <p>
+     * Параметры: after_id — id последнего пользователя предыдущей страницы (по умолчанию 0),
+     * limit — размер страницы (по умолчанию api.page.defaultLimit, не больше api.page.maxLimit).
+     * Ответ: {"users": [{"id": "2", "username": "user", "role": "USER"}, ...], "nextAfterId": "2"};
+     * идентификаторы — строки, так как больше 2^53;
+     * nextAfterId равен null на последней странице. Ответ несёт ETag: пока список пользователей
+     * не менялся, страница отдаётся из памяти, а запрос с совпадающим If-None-Match получает 304.
+     * </p>
      * <ul>
-     *   <li>200 OK — возвращает JSON-массив пользователей</li>
+     *   <li>200 OK — возвращает страницу пользователей</li>
+     *   <li>304 Not Modified — страница не изменилась</li>
+     *   <li>400 Bad Request — некорректные after_id или limit</li>
      *   <li>405 Method Not Allowed — если метод не GET</li>
      *   <li>500 Internal Server Error — другие ошибки</li>
      * </ul>
@@ -93,31 +163,102 @@ public class AdminController {
      */
     public void listUsers(@NotNull HttpExchange exchange) throws IOException {
 
-        // Тип запроса должен быть GET
-        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
-            logger.error("Invalid method [{}], GET needed", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
+        // Разбираем параметры страницы
+        long afterId;
+        int limit;
+        try {
+            Map<String, String> params = HttpUtils.queryParams(exchange);
+            afterId = Long.parseLong(params.getOrDefault("after_id", "0"));
+            limit = HttpUtils.pageLimit(params, defaultPageSize, maxPageSize);
+        } catch (NumberFormatException e) {
+            logger.error("List users error: invalid page parameters", e);
+            HttpUtils.sendError(exchange, 400, "Invalid after_id or limit");
             return;
         }
+        if (afterId < 0) {
+            HttpUtils.sendError(exchange, 400, "Invalid after_id or limit");
+            return;
+        }
+
+        logger.info("List users after id {}, limit {}", afterId, limit);
+        long from = afterId;
+        int size = limit;
         try {
-            // Получаем список обычных пользователей, формируем из них JSON и отдаём
-            logger.info("List users");
-            List<User> users = adminService.getAllUsersWithoutAdmins();
-            String json = JsonUtil.toJson(users);
-            HttpUtils.sendJsonResponse(exchange, 200, json);
+            usersResponses.send(exchange, afterId + ":" + limit, json -> {
+                json.writeStartObject();
+                json.writeArrayFieldStart("users");
+                long[] last = {from};
+                int[] count = {0};
+                adminService.forEachUserPage(from, size, user -> {
+                    try {
+                        json.writeStartObject();
+                        json.writeStringField("id", Long.toString(user.getId()));
+                        json.writeStringField("username", user.getUsername());
+                        json.writeStringField("role", user.getRole().name());
+                        json.writeEndObject();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    last[0] = user.getId();
+                    count[0]++;
+                });
+                json.writeEndArray();
+
+                // Полная страница — возможно, есть следующая
+                if (count[0] == size) {
+                    json.writeStringField("nextAfterId", Long.toString(last[0]));
+                } else {
+                    json.writeNullField("nextAfterId");
+                }
+                json.writeEndObject();
+            });
         } catch (Exception e) {
-            // В случае ошибки пятисотим
             logger.error("List user error", e);
-            HttpUtils.sendError(exchange, 500, "Internal server error");
+            if (exchange.getResponseCode() != -1) {
+                // Ответ уже начат — обрываем его, а не дописываем усечённый список
+                exchange.close();
+            } else {
+                HttpUtils.sendError(exchange, 500, "Internal server error");
+            }
         }
     }
 
+    /**
+     * Обрабатывает HTTP GET запрос истории OTP-кодов указанного пользователя.
+     * <p>
+     * Параметры: user_id (обязательный), status, operation_id, cursor, limit;
+     * формат ответа описан в {@link OtpHistoryResponse}.
+     * </p>
+     * <ul>
+     *   <li>200 OK — возвращает страницу истории</li>
+     *   <li>400 Bad Request — нет user_id или некорректные параметры</li>
+     *   <li>405 Method Not Allowed — если метод не GET</li>
+     *   <li>500 Internal Server Error — другие ошибки</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void otpHistory(@NotNull HttpExchange exchange) throws IOException {
+
+        // Пользователь, чья история запрошена
+        Map<String, String> params = HttpUtils.queryParams(exchange);
+        Long userId;
+        try {
+            userId = Long.valueOf(params.get("user_id"));
+        } catch (NumberFormatException e) {
+            logger.error("OTP history error: invalid user_id [{}]", params.get("user_id"));
+            HttpUtils.sendError(exchange, 400, "Invalid user_id");
+            return;
+        }
+        OtpHistoryResponse.send(exchange, historyService, userId, params);
+    }
+
     /**
      * Обрабатывает HTTP DELETE запрос на удаление пользователя по ID.
      * <ul>
      *   <li>204 No Content — успешно удалено</li>
-     *   <li>400 Bad Request — если ID некорректен</li>
-     *   <li>404 Not Found — если пользователь не найден</li>
+     *   <li>404 Not Found — если пользователь не найден или ID не число</li>
      *   <li>405 Method Not Allowed — если метод не DELETE</li>
      *   <li>500 Internal Server Error — другие ошибки</li>
      * </ul>
@@ -127,25 +268,14 @@ public class AdminController {
      */
     public void deleteUser(@NotNull HttpExchange exchange) throws IOException {
 
-        // Тип запроса должен быть DELETE
-        if (!exchange.getRequestMethod().equalsIgnoreCase("DELETE")) {
-            logger.error("Invalid method [{}], DELETE needed", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
-            return;
-        }
         try {
 
-            // Получаем идентификатор пользователя (он должен идти последним параметром после /) и удаляем пользователя
-            URI uri = exchange.getRequestURI();
-            String[] segments = uri.getPath().split("/");
-            Long id = Long.valueOf(segments[segments.length - 1]);
+            // Идентификатор пользователя — параметр пути {id:long}, маршрут уже проверил его формат
+            long id = RouteTable.longParam(exchange, "id");
 
             logger.info("Delete user by ID: {}", id);
             adminService.deleteUserAndCodes(id);
             HttpUtils.sendResponseCode(exchange, 204);
-        } catch (NumberFormatException e) {
-            logger.error("Delete user error: invalid ID", e);
-            HttpUtils.sendError(exchange, 400, "Invalid user ID");
         } catch (IllegalArgumentException e) {
             logger.error("Delete user error", e);
             HttpUtils.sendError(exchange, 404, e.getMessage());
@@ -154,4 +284,84 @@ public class AdminController {
             HttpUtils.sendError(exchange, 500, "Internal server error");
         }
     }
+
+    /**
+     * Обрабатывает HTTP POST запрос на начало записи JDK Flight Recorder.
+     * <p>
+     * Параметры: duration — длительность в секундах (по умолчанию и не больше jfr.maxDurationSeconds),
+     * maxSizeMb — предельный размер (по умолчанию и не больше jfr.maxSizeMb),
+     * settings — набор настроек JDK: default (по умолчанию) или profile.
+     * Запись сама останавливается по истечении длительности и сохраняется в файл каталога jfr.dir.
+     * Ответ: {"file": "/path/otp-20240101-120000.jfr"}
+     * </p>
+     * <ul>
+     *   <li>201 Created — запись начата</li>
+     *   <li>400 Bad Request — некорректные параметры</li>
+     *   <li>409 Conflict — запись уже идёт</li>
+     *   <li>500 Internal Server Error — другие ошибки</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void startRecording(@NotNull HttpExchange exchange) throws IOException {
+
+        try {
+            Map<String, String> params = HttpUtils.queryParams(exchange);
+            long duration = Long.parseLong(params.getOrDefault("duration", String.valueOf(Long.MAX_VALUE)));
+            long sizeMb = Long.parseLong(params.getOrDefault("maxSizeMb", String.valueOf(Long.MAX_VALUE)));
+            String settings = params.getOrDefault("settings", "default");
+
+            logger.info("Start JFR recording: duration={}, maxSizeMb={}, settings={}", duration, sizeMb, settings);
+            sendFile(exchange, 201, recordings.start(duration, sizeMb, settings));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException тоже сюда
+            logger.error("Start JFR recording error: {}", e.getMessage());
+            HttpUtils.sendError(exchange, 400, "Invalid duration, maxSizeMb or settings");
+        } catch (IllegalStateException e) {
+            logger.error("Start JFR recording error: {}", e.getMessage());
+            HttpUtils.sendError(exchange, 409, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Start JFR recording error", e);
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
+
+    /**
+     * Обрабатывает HTTP POST запрос на остановку записи JDK Flight Recorder.
+     * <p>
+     * Останавливает запись, если она ещё идёт, и возвращает файл с ней: {"file": "..."}.
+     * </p>
+     * <ul>
+     *   <li>200 OK — запись сохранена</li>
+     *   <li>409 Conflict — записи нет</li>
+     *   <li>500 Internal Server Error — другие ошибки</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void stopRecording(@NotNull HttpExchange exchange) throws IOException {
+
+        try {
+            logger.info("Stop JFR recording");
+            sendFile(exchange, 200, recordings.stop());
+        } catch (IllegalStateException e) {
+            logger.error("Stop JFR recording error: {}", e.getMessage());
+            HttpUtils.sendError(exchange, 409, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Stop JFR recording error", e);
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
+
+    private static void sendFile(HttpExchange exchange, int status, Path file) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        try (JsonGenerator json = JsonUtil.createGenerator(body)) {
+            json.writeStartObject();
+            json.writeStringField("file", file.toString());
+            json.writeEndObject();
+        }
+        HttpUtils.sendJson(exchange, status, body.toByteArray(), body.size());
+    }
 }
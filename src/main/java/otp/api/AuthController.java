@@ -1,17 +1,17 @@
 package otp.api;
 
 import com.sun.net.httpserver.HttpExchange;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import otp.dao.impl.UserDaoImpl;
+import otp.config.AppConfig;
+import otp.dao.UserDao;
 import otp.model.UserRole;
 import otp.service.UserService;
+import otp.service.UsernameFilter;
 import otp.util.HttpUtils;
-import otp.util.JsonUtil;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Контроллер аутентификации и регистрации пользователей.
@@ -23,11 +23,23 @@ import java.util.Map;
  */
 public class AuthController {
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
-    private final UserService userService = new UserService(new UserDaoImpl());
+    private final UsernameFilter usernameFilter;
+    private final UserService userService;
+
+    /**
+     * @param userDao общий для всех контроллеров DAO пользователей
+     */
+    public AuthController(UserDao userDao) {
+        this.usernameFilter = createUsernameFilter(userDao);
+        this.userService = new UserService(userDao, usernameFilter);
+        if (usernameFilter != null) {
+            usernameFilter.start();
+        }
+    }
 
     /**
      * Обрабатывает HTTP POST запрос на регистрацию пользователя.
-     * Проверяет метод, Content-Type и формат JSON, затем вызывает UserService.register().
+     * Разбирает JSON (метод и Content-Type проверены таблицей маршрутов), затем вызывает UserService.register().
      * Возвращает:
      * <ul>
      *   <li>201 Created — при успешной регистрации</li>
@@ -35,19 +47,15 @@ public class AuthController {
      *   <li>409 Conflict — если имя занято или администратор уже существует</li>
      *   <li>415 Unsupported Media Type — если Content-Type некорректен</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
+     *   <li>503 Service Unavailable — очередь хеширования паролей переполнена</li>
      * </ul>
      *
      * @param exchange объект HttpExchange для текущего запроса
      * @throws IOException при ошибках чтения/записи
      */
     public void handleSignUp(HttpExchange exchange) throws IOException {
-        // Проверяем структуру запроса
-        if (!validateRequest(exchange)) {
-            return;
-        }
-
         try {
-            Dto.SignUpRequest req = JsonUtil.fromJson(exchange.getRequestBody(), Dto.SignUpRequest.class);
+            Dto.SignUpRequest req = DtoCodec.readSignUpRequest(exchange.getRequestBody());
             logger.info("SignUp user [{}] with role {}", req.username, req.role);
 
             // Проверка, не существует ли уже администратор
@@ -58,9 +66,15 @@ public class AuthController {
 
             userService.signUp(req.username, req.password, UserRole.valueOf(req.role));
             HttpUtils.sendResponseCode(exchange, 201);
+        } catch (DtoCodec.BadRequestException e) {
+            logger.error("SignUp failed: {}", e.getMessage());
+            HttpUtils.sendError(exchange, e.getStatus(), e.getMessage());
         } catch (IllegalArgumentException | IllegalStateException e) {
             logger.error("SignUp failed", e);
             HttpUtils.sendError(exchange, 409, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            logger.warn("SignUp rejected: password hashing queue is full");
+            HttpUtils.sendError(exchange, 503, "Service busy, retry later");
         } catch (Exception e) {
             logger.error("SignUp failed", e);
             HttpUtils.sendError(exchange, 500, "Internal server error");
@@ -69,7 +83,7 @@ public class AuthController {
 
     /**
      * Обрабатывает HTTP POST запрос на аутентификацию пользователя.
-     * Проверяет метод, Content-Type и формат JSON, затем вызывает UserService.login().
+     * Разбирает JSON (метод и Content-Type проверены таблицей маршрутов), затем вызывает UserService.login().
      * Возвращает:
      * <ul>
      *   <li>200 OK — возвращает JSON {"token":"..."}</li>
@@ -77,19 +91,15 @@ public class AuthController {
      *   <li>405 Method Not Allowed — если метод не POST</li>
      *   <li>415 Unsupported Media Type — если Content-Type некорректен</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
+     *   <li>503 Service Unavailable — очередь хеширования паролей переполнена</li>
      * </ul>
      *
      * @param exchange объект HttpExchange для текущего запроса
      * @throws IOException при ошибках чтения/записи
      */
     public void handleSignIn(HttpExchange exchange) throws IOException {
-        // Проверяем структуру запроса
-        if (!validateRequest(exchange)) {
-            return;
-        }
-
         try {
-            Dto.LoginRequest req = JsonUtil.fromJson(exchange.getRequestBody(), Dto.LoginRequest.class);
+            Dto.LoginRequest req = DtoCodec.readLoginRequest(exchange.getRequestBody());
             logger.info("SignIn user [{}]", req.username);
             String token = userService.login(req.username, req.password);
             if (token == null) {
@@ -97,11 +107,16 @@ public class AuthController {
                 HttpUtils.sendError(exchange, 401, "Unauthorized");
                 return;
             }
-            String json = JsonUtil.toJson(Map.of("token", token)); // Используем сгенерированный токен
-            HttpUtils.sendJsonResponse(exchange, 200, json);
+            DtoCodec.writeToken(exchange, 200, token);
+        } catch (DtoCodec.BadRequestException e) {
+            logger.error("SignIn failed: {}", e.getMessage());
+            HttpUtils.sendError(exchange, e.getStatus(), e.getMessage());
         } catch (IllegalArgumentException e) {
             logger.error("SignIn failed", e);
             HttpUtils.sendError(exchange, 401, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            logger.warn("SignIn rejected: password hashing queue is full");
+            HttpUtils.sendError(exchange, 503, "Service busy, retry later");
         } catch (Exception e) {
             logger.error("SignIn failed", e);
             HttpUtils.sendError(exchange, 500, "Internal server error");
@@ -109,28 +124,17 @@ public class AuthController {
     }
 
     /**
-     * Проверяет метод, Content-Type и формат JSON в HTTP запросе.
-     * Возвращает:
-     * <ul>
-     *   <li>True — запрос сформирован корректно</li>
-     *   <li>False — запрос сформирован ошибочно</li>
-     * </ul>
-     *
-     * @param exchange объект HttpExchange для текущего запроса
-     * @throws IOException при ошибках чтения/записи
+     * Создаёт фильтр логинов по настройкам users.bloom.* (null, если фильтр отключён).
      */
-    private boolean validateRequest(@NotNull HttpExchange exchange) throws IOException {
-        if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
-            logger.error("Invalid method [{}], POST needed", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
-            return false;
-        }
-        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-        if (contentType == null || !contentType.contains("application/json")) {
-            logger.error("Invalid Content-Type [{}]", contentType);
-            HttpUtils.sendError(exchange, 415, "Content-Type must be application/json");
-            return false;
+    private static UsernameFilter createUsernameFilter(UserDao userDao) {
+        if (!AppConfig.getBoolean("users.bloom.enabled", true)) {
+            return null;
         }
-        return true;
+        return new UsernameFilter(
+                userDao,
+                AppConfig.getLong("users.bloom.expected", 1_000_000),
+                AppConfig.getDouble("users.bloom.fpp", 0.01),
+                AppConfig.getLong("users.bloom.rebuildMinutes", 10)
+        );
     }
 }
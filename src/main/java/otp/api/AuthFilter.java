@@ -4,6 +4,7 @@ import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.Filter.Chain;
 import org.jetbrains.annotations.NotNull;
+import otp.jfr.AuthCheckEvent;
 import otp.model.User;
 import otp.model.UserRole;
 import otp.util.HttpUtils;
@@ -42,8 +43,11 @@ public class AuthFilter extends Filter {
 
     @Override
     public void doFilter(@NotNull HttpExchange exchange, Chain chain) throws IOException {
+        AuthCheckEvent event = new AuthCheckEvent();
+        event.begin();
         String authHeader = exchange.getRequestHeaders().getFirst("Authorization");
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            commit(event, "MISSING", null);
             HttpUtils.sendError(exchange, 401, "Missing or invalid Authorization header");
             return;
         }
@@ -52,17 +56,30 @@ public class AuthFilter extends Filter {
         // Получаем пользователя по токену
         User user = TokenManager.getUser(token);
         if (user == null) {
+            commit(event, "INVALID_TOKEN", null);
             HttpUtils.sendError(exchange, 401, "Invalid or expired token");
             return;
         }
 
         // Проверяем уровень доступа пользователя
         if (user.getRole().ordinal() > requiredRole.ordinal()) {
+            commit(event, "FORBIDDEN", user);
             HttpUtils.sendError(exchange, 403, "Forbidden");
             return;
         }
 
+        commit(event, "OK", user);
         exchange.setAttribute("user", user);
         chain.doFilter(exchange);
     }
+
+    /** Завершает событие JFR проверки; длительность — только сама проверка, без обработчика */
+    private void commit(AuthCheckEvent event, String outcome, User user) {
+        if (event.shouldCommit()) {
+            event.requiredRole = requiredRole.name();
+            event.outcome = outcome;
+            event.userId = user != null ? user.getId() : 0;
+            event.commit();
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package otp.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import otp.util.HttpUtils;
+import otp.util.JsonUtil;
+import otp.util.LruCache;
+import otp.util.ResourceVersion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Условные GET-ответы с ETag для редко меняющихся ресурсов.
+ * <p>
+ * Последнее сериализованное представление каждого ключа (например, страницы списка) хранится
+ * вместе с версией ресурса, при которой оно построено. Пока версия не изменилась и представление
+ * не старше ttlSeconds, запрос обслуживается из памяти: на If-None-Match с совпадающим ETag
+ * отвечаем 304, иначе отдаём сохранённые байты. ETag — хеш содержимого, поэтому у всех узлов он
+ * одинаков для одинаковых данных, а изменения с других узлов видны не позже истечения ttlSeconds.
+ * </p>
+ */
+final class ConditionalGet {
+
+    /** Записывает представление ресурса; может обращаться к БД */
+    @FunctionalInterface
+    interface Renderer {
+        void render(JsonGenerator json) throws IOException;
+    }
+
+    private final String name;
+    private final ResourceVersion version;
+    private final LruCache<String, Snapshot> snapshots;
+
+    /**
+     * @param name       имя ресурса, префикс ETag
+     * @param version    версия ресурса
+     * @param maxEntries сколько представлений (ключей) хранить
+     * @param ttlSeconds сколько секунд представление можно отдавать без перестроения
+     */
+    ConditionalGet(String name, ResourceVersion version, int maxEntries, long ttlSeconds) {
+        this.name = name;
+        this.version = version;
+        this.snapshots = new LruCache<>(maxEntries, ttlSeconds);
+    }
+
+    /**
+     * Отвечает 304 или 200 с представлением ключа; при необходимости строит его заново.
+     *
+     * @param key      ключ представления, например параметры страницы
+     * @param renderer построение представления
+     */
+    void send(HttpExchange exchange, String key, Renderer renderer) throws IOException {
+        Snapshot snapshot = snapshot(key, renderer);
+        exchange.getResponseHeaders().set("ETag", snapshot.etag);
+        // Клиент может хранить ответ, но обязан сверять его с сервером
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), snapshot.etag)) {
+            HttpUtils.sendResponseCode(exchange, 304);
+            return;
+        }
+        HttpUtils.sendJson(exchange, 200, snapshot.body, snapshot.body.length);
+    }
+
+    private Snapshot snapshot(String key, Renderer renderer) throws IOException {
+        // Версию читаем до построения: изменение во время построения отправит следующий запрос в БД
+        long current = version.get();
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && snapshot.version == current) {
+            return snapshot;
+        }
+        // Ошибка посреди построения (например, обрыв чтения из БД) не должна дать «закрытый» JSON:
+        // незавершённое представление не кешируется и не отправляется, клиент получает ошибку
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try (JsonGenerator json = JsonUtil.createGenerator(out)) {
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            renderer.render(json);
+        }
+        byte[] body = out.toByteArray();
+        snapshot = new Snapshot(current, body, etag(body));
+        snapshots.put(key, snapshot);
+        return snapshot;
+    }
+
+    private String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + name + "-" + HexFormat.of().formatHex(digest, 0, 12) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Проверяет If-None-Match: список ETag через запятую, допускаются слабые (W/) и "*".
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Сериализованное представление и версия ресурса, при которой оно построено */
+    private static final class Snapshot {
+        final long version;
+        final byte[] body;
+        final String etag;
+
+        Snapshot(long version, byte[] body, String etag) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+}
@@ -42,4 +42,46 @@ public class Dto {
         public String code;
     }
 
+    /**
+     * DTO результата обработки одного элемента POST /otp/new/batch.
+     */
+    static class BatchItemResult {
+        public int index;
+        public Long userId;
+        public String operationId;
+        public String status;
+        public String error;
+
+        BatchItemResult(int index, Long userId, String operationId, String status, String error) {
+            this.index = index;
+            this.userId = userId;
+            this.operationId = operationId;
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    /**
+     * DTO элемента JSON-массива POST /otp/check/batch.
+     */
+    static class CheckItem {
+        public String operationId;
+        public String code;
+    }
+
+    /**
+     * DTO результата проверки одного элемента POST /otp/check/batch.
+     */
+    static class CheckItemResult {
+        public int index;
+        public String operationId;
+        public String status;
+
+        CheckItemResult(int index, String operationId, String status) {
+            this.index = index;
+            this.operationId = operationId;
+            this.status = status;
+        }
+    }
+
 }
@@ -0,0 +1,396 @@
+package otp.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import otp.config.AppConfig;
+import otp.util.HttpUtils;
+import otp.util.JsonUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковые кодеки JSON для {@link Dto} без рефлексии.
+ * <p>
+ * Тело запроса читается из InputStream в буфер потока обработки с ограничением
+ * api.json.maxBodyBytes и разбирается потоковым парсером Jackson прямо в поля DTO.
+ * Правила те же, что были у привязки через ObjectMapper: неизвестное поле — ошибка,
+ * числовые поля принимают и число, и строку с числом, null в поле примитивного типа даёт 0.
+ * Ответы пишутся генератором в переиспользуемый буфер потока и отправляются
+ * с известной длиной одним вызовом.
+ * </p>
+ */
+final class DtoCodec {
+    private static final int MAX_BODY_BYTES = AppConfig.getInt("api.json.maxBodyBytes", 1_048_576);
+
+    /** Буферы крупнее этого размера после использования не удерживаются потоком */
+    private static final int MAX_RETAINED_BYTES = 64 * 1024;
+
+    private static final ThreadLocal<Buffer> REQUEST = ThreadLocal.withInitial(Buffer::new);
+    private static final ThreadLocal<Buffer> RESPONSE = ThreadLocal.withInitial(Buffer::new);
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private DtoCodec() {}
+
+    /**
+     * Некорректное тело запроса: status — 400 или 413.
+     */
+    static final class BadRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        BadRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+
+    static Dto.GenerateRequest readGenerateRequest(InputStream in) throws IOException {
+        return readObject(in, DtoCodec::generateRequest);
+    }
+
+    static Dto.GenerateRequest[] readGenerateRequests(InputStream in) throws IOException {
+        return readArray(in, DtoCodec::generateRequest).toArray(new Dto.GenerateRequest[0]);
+    }
+
+    static Dto.ValidateRequest readValidateRequest(InputStream in) throws IOException {
+        return readObject(in, p -> {
+            Dto.ValidateRequest r = new Dto.ValidateRequest();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                p.nextToken();
+                if (!field.equals("code")) {
+                    throw unknownField(p);
+                }
+                r.code = stringValue(p);
+            }
+            return r;
+        });
+    }
+
+    static Dto.CheckItem[] readCheckItems(InputStream in) throws IOException {
+        return readArray(in, p -> {
+            Dto.CheckItem r = new Dto.CheckItem();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                p.nextToken();
+                switch (field) {
+                    case "operationId" -> r.operationId = stringValue(p);
+                    case "code" -> r.code = stringValue(p);
+                    default -> throw unknownField(p);
+                }
+            }
+            return r;
+        }).toArray(new Dto.CheckItem[0]);
+    }
+
+    static Dto.LoginRequest readLoginRequest(InputStream in) throws IOException {
+        return readObject(in, p -> {
+            Dto.LoginRequest r = new Dto.LoginRequest();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                p.nextToken();
+                switch (field) {
+                    case "username" -> r.username = stringValue(p);
+                    case "password" -> r.password = stringValue(p);
+                    default -> throw unknownField(p);
+                }
+            }
+            return r;
+        });
+    }
+
+    static Dto.SignUpRequest readSignUpRequest(InputStream in) throws IOException {
+        return readObject(in, p -> {
+            Dto.SignUpRequest r = new Dto.SignUpRequest();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                p.nextToken();
+                switch (field) {
+                    case "username" -> r.username = stringValue(p);
+                    case "password" -> r.password = stringValue(p);
+                    case "role" -> r.role = stringValue(p);
+                    default -> throw unknownField(p);
+                }
+            }
+            return r;
+        });
+    }
+
+    static Dto.ConfigRequest readConfigRequest(InputStream in) throws IOException {
+        return readObject(in, p -> {
+            Dto.ConfigRequest r = new Dto.ConfigRequest();
+            for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+                p.nextToken();
+                switch (field) {
+                    case "length" -> r.length = intValue(p);
+                    case "ttlSeconds" -> r.ttlSeconds = intValue(p);
+                    default -> throw unknownField(p);
+                }
+            }
+            return r;
+        });
+    }
+
+    /**
+     * Отправляет результаты пакетной генерации: [{"index":0,"userId":"1","operationId":"op","status":"ACCEPTED","error":null}, ...].
+     * userId — строка: идентификаторы больше 2^53 и теряли бы точность у клиентов с числами double.
+     */
+    static void writeBatchItemResults(HttpExchange exchange, int status, List<Dto.BatchItemResult> results) throws IOException {
+        Buffer buffer = RESPONSE.get().reset();
+        try (JsonGenerator g = JsonUtil.createGenerator(buffer)) {
+            g.writeStartArray();
+            for (Dto.BatchItemResult r : results) {
+                g.writeStartObject();
+                g.writeNumberField("index", r.index);
+                g.writeStringField("userId", r.userId == null ? null : r.userId.toString());
+                g.writeStringField("operationId", r.operationId);
+                g.writeStringField("status", r.status);
+                g.writeStringField("error", r.error);
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+        }
+        send(exchange, status, buffer);
+    }
+
+    /**
+     * Отправляет результаты пакетной проверки: [{"index":0,"operationId":"op","status":"VALID"}, ...].
+     */
+    static void writeCheckItemResults(HttpExchange exchange, int status, List<Dto.CheckItemResult> results) throws IOException {
+        Buffer buffer = RESPONSE.get().reset();
+        try (JsonGenerator g = JsonUtil.createGenerator(buffer)) {
+            g.writeStartArray();
+            for (Dto.CheckItemResult r : results) {
+                g.writeStartObject();
+                g.writeNumberField("index", r.index);
+                g.writeStringField("operationId", r.operationId);
+                g.writeStringField("status", r.status);
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+        }
+        send(exchange, status, buffer);
+    }
+
+    /**
+     * Отправляет токен: {"token":"..."}.
+     */
+    static void writeToken(HttpExchange exchange, int status, String token) throws IOException {
+        Buffer buffer = RESPONSE.get().reset();
+        try (JsonGenerator g = JsonUtil.createGenerator(buffer)) {
+            g.writeStartObject();
+            g.writeStringField("token", token);
+            g.writeEndObject();
+        }
+        send(exchange, status, buffer);
+    }
+
+    /** Разбор полей объекта; парсер стоит на START_OBJECT */
+    @FunctionalInterface
+    private interface ObjectReader<T> {
+        T read(JsonParser p) throws IOException;
+    }
+
+    private static <T> T readObject(InputStream in, ObjectReader<T> reader) throws IOException {
+        Buffer body = readBody(in);
+        try (JsonParser p = JsonUtil.createParser(body.bytes, 0, body.count)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new BadRequestException(400, "Request body must be a JSON object");
+            }
+            T value = readFields(p, reader);
+            expectEnd(p);
+            return value;
+        } catch (JsonProcessingException e) {
+            throw new BadRequestException(400, "Malformed JSON");
+        } finally {
+            body.release(REQUEST);
+        }
+    }
+
+    private static <T> List<T> readArray(InputStream in, ObjectReader<T> reader) throws IOException {
+        Buffer body = readBody(in);
+        try (JsonParser p = JsonUtil.createParser(body.bytes, 0, body.count)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestException(400, "Request body must be a JSON array");
+            }
+            List<T> items = new ArrayList<>();
+            for (JsonToken t = p.nextToken(); t != JsonToken.END_ARRAY; t = p.nextToken()) {
+                if (t == JsonToken.VALUE_NULL) {
+                    items.add(null);
+                } else if (t == JsonToken.START_OBJECT) {
+                    items.add(readFields(p, reader));
+                } else {
+                    throw new BadRequestException(400, "Request body must be a JSON array of objects");
+                }
+            }
+            expectEnd(p);
+            return items;
+        } catch (JsonProcessingException e) {
+            throw new BadRequestException(400, "Malformed JSON");
+        } finally {
+            body.release(REQUEST);
+        }
+    }
+
+    private static <T> T readFields(JsonParser p, ObjectReader<T> reader) throws IOException {
+        T value = reader.read(p);
+        // nextFieldName возвращает null и на конце объекта, и на любом другом токене
+        if (p.currentToken() != JsonToken.END_OBJECT) {
+            throw new BadRequestException(400, "Malformed JSON object");
+        }
+        return value;
+    }
+
+    private static void expectEnd(JsonParser p) throws IOException {
+        if (p.nextToken() != null) {
+            throw new BadRequestException(400, "Unexpected data after JSON value");
+        }
+    }
+
+    private static Dto.GenerateRequest generateRequest(JsonParser p) throws IOException {
+        Dto.GenerateRequest r = new Dto.GenerateRequest();
+        for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+            p.nextToken();
+            switch (field) {
+                case "userId" -> r.userId = longValue(p);
+                case "operationId" -> r.operationId = stringValue(p);
+                case "channel" -> r.channel = stringValue(p);
+                default -> throw unknownField(p);
+            }
+        }
+        return r;
+    }
+
+    private static BadRequestException unknownField(JsonParser p) throws IOException {
+        return new BadRequestException(400, "Unknown field " + p.currentName());
+    }
+
+    private static String stringValue(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (t.isScalarValue()) {
+            return p.getText();
+        }
+        throw new BadRequestException(400, "Field " + p.currentName() + " must be a string");
+    }
+
+    private static Long longValue(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        try {
+            if (t == JsonToken.VALUE_NUMBER_INT) {
+                return p.getLongValue();
+            }
+            if (t == JsonToken.VALUE_STRING) {
+                return Long.parseLong(p.getText().trim());
+            }
+        } catch (NumberFormatException | JsonProcessingException e) {
+            // ниже — общий ответ о неверном типе
+        }
+        throw new BadRequestException(400, "Field " + p.currentName() + " must be an integer");
+    }
+
+    private static int intValue(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NULL) {
+            return 0;
+        }
+        try {
+            if (t == JsonToken.VALUE_NUMBER_INT) {
+                return p.getIntValue();
+            }
+            if (t == JsonToken.VALUE_STRING) {
+                return Integer.parseInt(p.getText().trim());
+            }
+        } catch (NumberFormatException | JsonProcessingException e) {
+            // ниже — общий ответ о неверном типе
+        }
+        throw new BadRequestException(400, "Field " + p.currentName() + " must be an integer");
+    }
+
+    /**
+     * Читает тело запроса в буфер потока, не больше MAX_BODY_BYTES.
+     */
+    private static Buffer readBody(InputStream in) throws IOException {
+        Buffer body = REQUEST.get().reset();
+        while (true) {
+            if (body.count == body.bytes.length) {
+                if (body.count > MAX_BODY_BYTES) {
+                    body.release(REQUEST);
+                    throw new BadRequestException(413, "Request body exceeds " + MAX_BODY_BYTES + " bytes");
+                }
+                body.grow(Math.min(body.bytes.length * 2, MAX_BODY_BYTES + 1));
+            }
+            int n = in.read(body.bytes, body.count, body.bytes.length - body.count);
+            if (n < 0) {
+                return body;
+            }
+            body.count += n;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, Buffer buffer) throws IOException {
+        try {
+            HttpUtils.sendJson(exchange, status, buffer.bytes, buffer.count);
+        } finally {
+            buffer.release(RESPONSE);
+        }
+    }
+
+    /**
+     * Растущий байтовый буфер, принадлежащий потоку обработки.
+     */
+    private static final class Buffer extends OutputStream {
+        private static final int INITIAL_SIZE = 4096;
+
+        byte[] bytes = new byte[INITIAL_SIZE];
+        int count;
+
+        Buffer reset() {
+            count = 0;
+            return this;
+        }
+
+        void grow(int size) {
+            byte[] grown = new byte[Math.max(size, count + 1)];
+            System.arraycopy(bytes, 0, grown, 0, count);
+            bytes = grown;
+        }
+
+        /** Слишком выросший буфер не удерживаем: следующий запрос потока получит новый */
+        void release(ThreadLocal<Buffer> owner) {
+            if (bytes.length > MAX_RETAINED_BYTES) {
+                owner.remove();
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == bytes.length) {
+                grow(bytes.length * 2);
+            }
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > bytes.length) {
+                grow(Math.max(bytes.length * 2, count + len));
+            }
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package otp.api;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
+import otp.dao.IdempotencyDao;
+import otp.model.IdempotencyRecord;
+import otp.model.User;
+import otp.util.HttpUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Фильтр повторных POST-запросов с заголовком Idempotency-Key.
+ * <p>
+ * Первый ответ на пару (пользователь, ключ) сохраняется в {@link IdempotencyDao}, повторы
+ * получают его без повторного выполнения запроса (с заголовком Idempotent-Replayed: true).
+ * Одновременные повторы на этом узле ждут результата уже выполняющегося запроса;
+ * ожидание запроса на другом узле выполняется опросом хранилища.
+ * Ответы 5xx и ответы больше maxBodyBytes не сохраняются: ключ освобождается для следующей попытки.
+ * Фильтр ставится после {@link AuthFilter}, так как ключ привязан к пользователю.
+ * </p>
+ * <ul>
+ *   <li>400 Bad Request — пустой или слишком длинный ключ</li>
+ *   <li>413 Payload Too Large — тело запроса больше api.json.maxBodyBytes</li>
+ *   <li>409 Conflict — запрос с этим ключом ещё выполняется</li>
+ *   <li>422 Unprocessable Entity — ключ уже использован для другого запроса</li>
+ * </ul>
+ */
+public class IdempotencyFilter extends Filter {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyFilter.class);
+
+    private static final String HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long POLL_MILLIS = 50;
+    private static final int MAX_REQUEST_BYTES = AppConfig.getInt("api.json.maxBodyBytes", 1_048_576);
+
+    private final IdempotencyDao idempotencyDao;
+    private final int maxBodyBytes;
+    private final long waitMillis;
+    private final ConcurrentHashMap<String, CompletableFuture<IdempotencyRecord>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param idempotencyDao хранилище сохранённых ответов
+     * @param maxBodyBytes   максимальный размер сохраняемого тела ответа
+     * @param waitMillis     сколько ждать завершения запроса с тем же ключом
+     */
+    public IdempotencyFilter(IdempotencyDao idempotencyDao, int maxBodyBytes, long waitMillis) {
+        this.idempotencyDao = idempotencyDao;
+        this.maxBodyBytes = maxBodyBytes;
+        this.waitMillis = waitMillis;
+    }
+
+    @Override
+    public String description() {
+        return "Фильтр повторных запросов по заголовку " + HEADER;
+    }
+
+    @Override
+    public void doFilter(@NotNull HttpExchange exchange, Chain chain) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst(HEADER);
+        User user = (User) exchange.getAttribute("user");
+        if (header == null || user == null || !exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+            chain.doFilter(exchange);
+            return;
+        }
+        if (header.isBlank() || header.length() > MAX_KEY_LENGTH) {
+            HttpUtils.sendError(exchange, 400, "Invalid " + HEADER);
+            return;
+        }
+        String key = user.getId() + ":" + header;
+
+        // Читаем тело для отпечатка (не больше лимита) и подставляем его обратно для обработчика
+        byte[] body = HttpUtils.readBody(exchange, MAX_REQUEST_BYTES);
+        if (body == null) {
+            HttpUtils.sendError(exchange, 413, "Request body exceeds " + MAX_REQUEST_BYTES + " bytes");
+            return;
+        }
+        exchange.setStreams(new ByteArrayInputStream(body), null);
+        String fingerprint = fingerprint(exchange, body);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while (true) {
+            CompletableFuture<IdempotencyRecord> mine = new CompletableFuture<>();
+            CompletableFuture<IdempotencyRecord> running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                // Тот же ключ уже обрабатывается этим узлом — ждём его результат
+                IdempotencyRecord done;
+                try {
+                    done = running.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    HttpUtils.sendError(exchange, 409, "Request with this key is in progress");
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for idempotent request", e);
+                } catch (ExecutionException e) {
+                    done = null;
+                }
+                if (done != null) {
+                    replay(exchange, done, fingerprint);
+                    return;
+                }
+                // Первый запрос не сохранил ответ — выполняем сами
+                continue;
+            }
+
+            IdempotencyRecord result = null;
+            try {
+                IdempotencyRecord existing = idempotencyDao.claim(key, fingerprint);
+                if (existing == null) {
+                    result = execute(exchange, chain, key, fingerprint);
+                    return;
+                }
+                if (!existing.getFingerprint().equals(fingerprint)) {
+                    HttpUtils.sendError(exchange, 422, HEADER + " was used for a different request");
+                    return;
+                }
+                if (!existing.isCompleted()) {
+                    // Ключ занят запросом на другом узле
+                    existing = poll(key, deadline);
+                }
+                if (existing == null || !existing.isCompleted()) {
+                    HttpUtils.sendError(exchange, 409, "Request with this key is in progress");
+                    return;
+                }
+                result = existing;
+                replay(exchange, existing, fingerprint);
+                return;
+            } finally {
+                inFlight.remove(key, mine);
+                mine.complete(result);
+            }
+        }
+    }
+
+    /**
+     * Выполняет запрос, перехватывая ответ, и сохраняет его или освобождает ключ.
+     *
+     * @return сохранённая запись или null, если ответ не сохранён
+     */
+    private IdempotencyRecord execute(HttpExchange exchange, Chain chain, String key, String fingerprint) throws IOException {
+        CapturingOutputStream capture = new CapturingOutputStream(exchange.getResponseBody(), maxBodyBytes);
+        exchange.setStreams(null, capture);
+        boolean handled = false;
+        try {
+            chain.doFilter(exchange);
+            handled = true;
+        } finally {
+            if (!handled) {
+                release(key);
+            }
+        }
+
+        int status = exchange.getResponseCode();
+        if (status <= 0 || status >= 500 || capture.isOverflowed()) {
+            release(key);
+            return null;
+        }
+        IdempotencyRecord record = new IdempotencyRecord(
+                fingerprint,
+                status,
+                exchange.getResponseHeaders().getFirst("Content-Type"),
+                capture.toByteArray()
+        );
+        try {
+            idempotencyDao.complete(key, record);
+        } catch (RuntimeException e) {
+            // Ответ клиенту уже отправлен; повтор просто выполнится заново
+            logger.warn("Idempotent response for key {} was not stored: {}", key, e.getMessage());
+            release(key);
+        }
+        return record;
+    }
+
+    /**
+     * Опрашивает хранилище, пока запрос на другом узле не сохранит ответ или не выйдет время.
+     */
+    private IdempotencyRecord poll(String key, long deadline) throws IOException {
+        while (System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for idempotent request", e);
+            }
+            IdempotencyRecord record = idempotencyDao.get(key);
+            if (record == null || record.isCompleted()) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Отдаёт сохранённый ответ, если повтор совпадает с исходным запросом.
+     */
+    private void replay(HttpExchange exchange, IdempotencyRecord record, String fingerprint) throws IOException {
+        if (!record.getFingerprint().equals(fingerprint)) {
+            HttpUtils.sendError(exchange, 422, HEADER + " was used for a different request");
+            return;
+        }
+        if (record.getContentType() != null) {
+            exchange.getResponseHeaders().set("Content-Type", record.getContentType());
+        }
+        exchange.getResponseHeaders().set("Idempotent-Replayed", "true");
+        byte[] body = record.getBody();
+        if (body.length == 0) {
+            exchange.sendResponseHeaders(record.getStatus(), -1);
+            return;
+        }
+        exchange.sendResponseHeaders(record.getStatus(), body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void release(String key) {
+        try {
+            idempotencyDao.release(key);
+        } catch (RuntimeException e) {
+            logger.warn("Idempotency key {} was not released: {}", key, e.getMessage());
+        }
+    }
+
+    // Отпечаток запроса: SHA-256 от метода, пути и тела
+    private static String fingerprint(HttpExchange exchange, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(exchange.getRequestMethod().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ' ');
+            digest.update(exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(body);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Поток ответа, который пишет в исходный поток и копирует тело, пока оно не превысит лимит */
+    private static final class CapturingOutputStream extends FilterOutputStream {
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private final int limit;
+        private boolean overflowed;
+
+        CapturingOutputStream(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (!overflowed && copy.size() < limit) {
+                copy.write(b);
+            } else {
+                overflowed = true;
+            }
+        }
+
+        @Override
+        public void write(byte @NotNull [] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (!overflowed && copy.size() + len <= limit) {
+                copy.write(b, off, len);
+            } else {
+                overflowed = true;
+            }
+        }
+
+        boolean isOverflowed() {
+            return overflowed;
+        }
+
+        byte[] toByteArray() {
+            return copy.toByteArray();
+        }
+    }
+}
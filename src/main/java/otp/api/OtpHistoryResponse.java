@@ -0,0 +1,103 @@
+package otp.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
+import otp.model.OtpStatus;
+import otp.service.OtpHistoryService;
+import otp.util.HttpUtils;
+import otp.util.JsonUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Потоковый ответ со страницей истории OTP-кодов, общий для пользовательского и административного маршрутов.
+ * <p>
+ * Параметры запроса: status, operation_id, cursor, limit.
+ * Ответ: {"items": [{"id": "1", "operationId": "op1", "status": "USED", "createdAt": "..."}, ...],
+ * "nextCursor": "..."}; nextCursor равен null на последней странице. Значения кодов не выдаются,
+ * id — строка, так как больше 2^53.
+ * </p>
+ */
+final class OtpHistoryResponse {
+    private static final Logger logger = LoggerFactory.getLogger(OtpHistoryResponse.class);
+
+    private static final int DEFAULT_LIMIT = AppConfig.getInt("api.page.defaultLimit", 100);
+    private static final int MAX_LIMIT = AppConfig.getInt("api.page.maxLimit", 1000);
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private OtpHistoryResponse() {}
+
+    /**
+     * Разбирает параметры страницы и пишет её в ответ потоком.
+     *
+     * @param exchange       HTTP-контекст текущего запроса
+     * @param historyService сервис истории кодов
+     * @param userId         пользователь, чья история запрошена
+     * @param params         параметры строки запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    static void send(HttpExchange exchange, OtpHistoryService historyService,
+                     Long userId, Map<String, String> params) throws IOException {
+        OtpStatus status;
+        int limit;
+        try {
+            String statusParam = params.get("status");
+            status = statusParam == null ? null : OtpStatus.valueOf(statusParam);
+            limit = HttpUtils.pageLimit(params, DEFAULT_LIMIT, MAX_LIMIT);
+        } catch (IllegalArgumentException e) {
+            logger.error("OTP history error: invalid parameters", e);
+            HttpUtils.sendError(exchange, 400, "Invalid status or limit");
+            return;
+        }
+        String operationId = params.get("operation_id");
+        String cursor = params.get("cursor");
+
+        logger.info("OTP history for user {}, status {}, limit {}", userId, status, limit);
+        try {
+            // Заголовки отправляем с первой строкой: ошибка в курсоре или в запросе ещё даст код 400/500
+            JsonGenerator[] json = new JsonGenerator[1];
+            String nextCursor = historyService.forEachPage(userId, status, operationId, cursor, limit, otp -> {
+                try {
+                    if (json[0] == null) {
+                        json[0] = start(exchange);
+                    }
+                    json[0].writeStartObject();
+                    json[0].writeStringField("id", Long.toString(otp.getId()));
+                    json[0].writeStringField("operationId", otp.getOperationId());
+                    json[0].writeStringField("status", otp.getStatus().name());
+                    json[0].writeStringField("createdAt", otp.getCreatedAt().toString());
+                    json[0].writeEndObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            try (JsonGenerator generator = json[0] != null ? json[0] : start(exchange)) {
+                generator.writeEndArray();
+                generator.writeStringField("nextCursor", nextCursor);
+                generator.writeEndObject();
+            }
+        } catch (Exception e) {
+            logger.error("OTP history error", e);
+            if (exchange.getResponseCode() != -1) {
+                // Ответ уже начат — остаётся только оборвать его
+                exchange.close();
+            } else if (e instanceof IllegalArgumentException) {
+                HttpUtils.sendError(exchange, 400, e.getMessage());
+            } else {
+                HttpUtils.sendError(exchange, 500, "Internal server error");
+            }
+        }
+    }
+
+    private static JsonGenerator start(HttpExchange exchange) throws IOException {
+        JsonGenerator json = JsonUtil.createGenerator(HttpUtils.startJsonStream(exchange, 200));
+        json.writeStartObject();
+        json.writeArrayFieldStart("items");
+        return json;
+    }
+}
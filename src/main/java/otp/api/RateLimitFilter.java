@@ -0,0 +1,152 @@
+package otp.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
+import otp.model.User;
+import otp.util.HttpUtils;
+import otp.util.JsonUtil;
+import otp.util.RateLimiter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Фильтр ограничения частоты запросов пользователя к маршруту.
+ * <p>
+ * Настройки читаются по имени маршрута: ratelimit.&lt;route&gt;.capacity, .refillPerMinute, .lockoutSeconds.
+ * Если заданы ratelimit.&lt;route&gt;.operation.*, дополнительно ограничиваются запросы
+ * по паре «пользователь, operationId» из тела запроса. Пакетный маршрут использует корзины
+ * одиночного ({@link #perItem()}) и списывает из них по разрешению на каждый элемент JSON-массива,
+ * поэтому пакет не обходит лимит одиночного маршрута.
+ * Проверка выполняется в памяти до обращения к БД и провайдерам отправки.
+ * Фильтр ставится после {@link AuthFilter}, так как лимиты привязаны к пользователю.
+ * </p>
+ * <ul>
+ *   <li>413 Payload Too Large — тело больше api.json.maxBodyBytes или элементов больше ёмкости корзины</li>
+ *   <li>429 Too Many Requests — лимит исчерпан или ключ заблокирован; Retry-After — через сколько секунд повторить</li>
+ * </ul>
+ */
+public class RateLimitFilter extends Filter {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+    private static final int MAX_BODY_BYTES = AppConfig.getInt("api.json.maxBodyBytes", 1_048_576);
+
+    private final String route;
+    private final RateLimiter userLimiter;
+    private final RateLimiter operationLimiter;
+    private final boolean perItem;
+
+    /**
+     * @param route имя маршрута в настройках (например, otp.check)
+     */
+    public RateLimitFilter(String route) {
+        this.route = route;
+        this.perItem = false;
+        this.userLimiter = createLimiter("ratelimit." + route);
+        this.operationLimiter = AppConfig.get("ratelimit." + route + ".operation.capacity", null) != null
+                ? createLimiter("ratelimit." + route + ".operation")
+                : null;
+        logger.info("Rate limit for {}: per user{}", route, operationLimiter != null ? ", per operation" : "");
+    }
+
+    private RateLimitFilter(RateLimitFilter shared) {
+        this.route = shared.route;
+        this.perItem = true;
+        this.userLimiter = shared.userLimiter;
+        this.operationLimiter = shared.operationLimiter;
+    }
+
+    /**
+     * @return фильтр с теми же корзинами, который списывает по разрешению на каждый элемент JSON-массива в теле
+     */
+    public RateLimitFilter perItem() {
+        return new RateLimitFilter(this);
+    }
+
+    @Override
+    public String description() {
+        return "Фильтр ограничения частоты запросов к " + route;
+    }
+
+    @Override
+    public void doFilter(@NotNull HttpExchange exchange, Chain chain) throws IOException {
+        User user = (User) exchange.getAttribute("user");
+        if (user == null) {
+            chain.doFilter(exchange);
+            return;
+        }
+
+        // Тело читаем, только если лимит зависит от его содержимого
+        int permits = 1;
+        String operationId = null;
+        if (perItem || operationLimiter != null) {
+            byte[] body = HttpUtils.readBody(exchange, MAX_BODY_BYTES);
+            if (body == null) {
+                HttpUtils.sendError(exchange, 413, "Request body exceeds " + MAX_BODY_BYTES + " bytes");
+                return;
+            }
+            exchange.setStreams(new ByteArrayInputStream(body), null);
+            JsonNode json = parse(body);
+            if (json != null && perItem && json.isArray()) {
+                permits = Math.max(1, json.size());
+            }
+            if (json != null && json.hasNonNull("operationId")) {
+                operationId = json.get("operationId").asText();
+            }
+        }
+
+        // Такой пакет не пройдёт никогда, а попытка списания заблокировала бы пользователя
+        if (permits > userLimiter.capacity()) {
+            logger.warn("Batch of {} items on {} exceeds rate limit capacity {} for userId={}",
+                    permits, route, userLimiter.capacity(), user.getId());
+            HttpUtils.sendError(exchange, 413, "Batch size exceeds " + userLimiter.capacity());
+            return;
+        }
+
+        long retryMillis = userLimiter.tryAcquire(user.getId(), permits);
+        if (retryMillis == 0 && operationId != null) {
+            long operationKey = RateLimiter.key(user.getId(), hash(operationId));
+            retryMillis = operationLimiter.tryAcquire(operationKey, permits);
+        }
+        if (retryMillis > 0) {
+            logger.warn("Rate limit exceeded on {} for userId={}, retry after {} ms", route, user.getId(), retryMillis);
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf((retryMillis + 999) / 1000));
+            HttpUtils.sendError(exchange, 429, "Too many requests");
+            return;
+        }
+        chain.doFilter(exchange);
+    }
+
+    private static RateLimiter createLimiter(String prefix) {
+        return new RateLimiter(
+                AppConfig.getInt(prefix + ".capacity", 10),
+                AppConfig.getDouble(prefix + ".refillPerMinute", 10),
+                AppConfig.getLong(prefix + ".lockoutSeconds", 0),
+                AppConfig.getInt("ratelimit.stripes", 64)
+        );
+    }
+
+    // Некорректный JSON не повод отказывать здесь — его отклонит обработчик
+    private static JsonNode parse(byte[] body) {
+        try {
+            return JsonUtil.readTree(body);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 64-битный хеш FNV-1a строки операции
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
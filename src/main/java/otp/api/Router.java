@@ -1,15 +1,42 @@
 package otp.api;
 
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
-import com.sun.net.httpserver.HttpContext;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import otp.archive.OtpArchive;
+import otp.config.AppConfig;
+import otp.dao.IdempotencyDao;
+import otp.dao.UserDao;
+import otp.dao.impl.CachedUserDao;
+import otp.dao.impl.IdempotencyDaoImpl;
+import otp.dao.impl.InMemoryIdempotencyDao;
+import otp.dao.impl.LockDaoImpl;
+import otp.dao.impl.OtpDaoImpl;
+import otp.dao.impl.UserDaoImpl;
+import otp.http.HttpEngine;
+import otp.http.RouteTable;
+import otp.model.User;
 import otp.model.UserRole;
+import otp.service.OtpArchiver;
+import otp.util.AdaptiveConcurrencyLimiter;
+import otp.trace.Span;
+import otp.trace.Tracer;
+import otp.util.Deadline;
+import otp.util.HttpUtils;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Dispatcher отвечает за регистрацию HTTP-контекстов (маршрутов) и их привязку к методам контроллеров.
@@ -20,73 +47,379 @@ import java.io.IOException;
  *   <li>POST   /signin             → AuthController.handleLogin()     (публичный)</li>
  *   <li>POST   /otp/generate       → UserController.generateOtp()     (роль USER)</li>
  *   <li>POST   /otp/validate       → UserController.validateOtp()     (роль USER)</li>
+ *   <li>POST   /otp/new/batch      → UserController.newOtpBatch()     (роль USER)</li>
+ *   <li>POST   /otp/check/batch    → UserController.checkOtpBatch()   (роль USER)</li>
+ *   <li>GET    /otp/history        → UserController.history()         (роль USER)</li>
  *   <li>PATCH  /admin/config       → AdminController.updateOtpConfig() (роль ADMIN)</li>
  *   <li>GET    /admin/users        → AdminController.listUsers()       (роль ADMIN)</li>
- *   <li>DELETE /admin/users/{id}   → AdminController.deleteUser()      (роль ADMIN)</li>
+ *   <li>DELETE /admin/users/{id:long} → AdminController.deleteUser()    (роль ADMIN)</li>
+ *   <li>GET    /admin/otp/history  → AdminController.otpHistory()      (роль ADMIN)</li>
+ *   <li>POST   /admin/jfr/start    → AdminController.startRecording()  (роль ADMIN)</li>
+ *   <li>POST   /admin/jfr/stop     → AdminController.stopRecording()   (роль ADMIN)</li>
  * </ul>
+ * Все запросы проходят через адаптивный ограничитель одновременных запросов: при перегрузке
+ * первыми отклоняются /admin/*, последними — /otp/check.
+ * Маршруты с ролью USER ограничены по частоте запросов (см. {@link RateLimitFilter}),
+ * POST-маршруты с ролью USER поддерживают заголовок Idempotency-Key (см. {@link IdempotencyFilter}).
  * </p>
  */
 public class Router {
     private static final Logger logger = LoggerFactory.getLogger(Router.class);
 
-    private final AuthController authController = new AuthController();
-    private final UserController userController = new UserController();
-    private final AdminController adminController = new AdminController();
+    // Журнал доступа: одна строка key=value на запрос, выводится отдельным appender'ом
+    private static final Logger accessLog = LoggerFactory.getLogger("access");
+
+    // Один экземпляр DAO пользователей на все контроллеры, чтобы кеш видел все изменения
+    private final UserDao userDao = createUserDao();
+
+    // Архив старой истории кодов, общий для пользовательского и административного маршрутов (null, если отключён)
+    private final OtpArchive otpArchive = createOtpArchive();
+
+    private final AuthController authController = new AuthController(userDao);
+    private final UserController userController = new UserController(userDao, otpArchive);
+    private final AdminController adminController = new AdminController(userDao, otpArchive);
+
+    private static final String JSON = "application/json";
+
+    private static final String DEADLINE_HEADER = "X-Request-Timeout-Ms";
+
+    // Бюджеты времени по маршрутам (читаются из настроек при первом запросе)
+    private final Map<String, Long> routeDeadlines = new ConcurrentHashMap<>();
+    private final long maxDeadlineMillis = AppConfig.getLong("deadline.maxMillis", 30_000);
+
+    // Общий для всех маршрутов ограничитель одновременных запросов (null, если отключён)
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter = createConcurrencyLimiter();
+
+    // Фильтры частоты по маршрутам: общие для всех экземпляров сервера и движков, чтобы счётчики не делились между ними
+    private final Map<String, RateLimitFilter> rateLimitFilters = new ConcurrentHashMap<>();
+
+    // Общий для всех POST-маршрутов фильтр повторов (null, если отключён)
+    private final IdempotencyFilter idempotencyFilter = createIdempotencyFilter();
+
+    // Первый фильтр каждого маршрута: срок, трасса, журнал доступа и ограничитель охватывают всю цепочку
+    private final RequestLogger requestLogger = new RequestLogger();
 
     /**
      * Регистрация всех маршрутов и подключение фильтров аутентификации.
+     * Маршруты собираются в одну таблицу ({@link RouteTable}), которая обслуживает все пути движка.
      *
-     * @param server экземпляр HttpServer
+     * @param engine HTTP-движок
      */
-    public void registerRoutes(@NotNull HttpServer server) {
+    public void registerRoutes(@NotNull HttpEngine engine) {
+        RouteTable.Builder routes = RouteTable.builder();
 
         // Маршруты без ограничений
-        server.createContext("/signup", new RequestLogger(authController::handleSignUp)::handle);
-        server.createContext("/signin",    new RequestLogger(authController::handleSignIn)::handle);
+        List<Filter> publicFilters = List.of(requestLogger);
+        routes.route("POST", "/signup", JSON, authController::handleSignUp, publicFilters);
+        routes.route("POST", "/signin", JSON, authController::handleSignIn, publicFilters);
 
         // Маршруты для пользователей (Auth фильтр с проверкой роли USER):
         // Создание OTP кода
-        HttpContext newCtx = server.createContext("/otp/new",  new RequestLogger(userController::newOtp)::handle);
-        // Добавляем проверку JWT
-        newCtx.getFilters().add(new AuthFilter(UserRole.USER));
-
+        routes.route("POST", "/otp/new", JSON, userController::newOtp,
+                userFilters("otp.new", false, true));
+        // Пакетное создание OTP кодов
+        routes.route("POST", "/otp/new/batch", JSON, userController::newOtpBatch,
+                userFilters("otp.new.batch", false, true));
         // Проверка OTP кода
-        HttpContext checkCtx = server.createContext("/otp/check",  new RequestLogger(userController::checkOtp)::handle);
-        // Добавляем проверку JWT
-        checkCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        routes.route("POST", "/otp/check", JSON, userController::checkOtp,
+                userFilters("otp.check", false, true));
+        // Пакетная проверка OTP кодов
+        routes.route("POST", "/otp/check/batch", JSON, userController::checkOtpBatch,
+                userFilters("otp.check", true, true));
+        // История OTP кодов пользователя
+        routes.route("GET", "/otp/history", null, userController::history,
+                userFilters("otp.history", false, false));
 
         // Маршруты для администраторов (Auth фильтр с проверкой роли ADMIN):
+        List<Filter> adminFilters = List.of(requestLogger, new AuthFilter(UserRole.ADMIN));
         // Конфигурирование OTP
-        HttpContext configCtx = server.createContext("/admin/config",  new RequestLogger(adminController::updateOtpConfig)::handle);
+        routes.route("GET", "/admin/config", null, adminController::getOtpConfig, adminFilters);
+        routes.route("PATCH", "/admin/config", JSON, adminController::updateOtpConfig, adminFilters);
+        // История OTP кодов любого пользователя
+        routes.route("GET", "/admin/otp/history", null, adminController::otpHistory, adminFilters);
+        // Просмотр и удаление пользователей
+        routes.route("GET", "/admin/users", null, adminController::listUsers, adminFilters);
+        routes.route("DELETE", "/admin/users/{id:long}", null, adminController::deleteUser, adminFilters);
+        // Запись JDK Flight Recorder по требованию
+        routes.route("POST", "/admin/jfr/start", null, adminController::startRecording, adminFilters);
+        routes.route("POST", "/admin/jfr/stop", null, adminController::stopRecording, adminFilters);
+
+        engine.createContext("/", routes.build(), List.of());
+    }
+
+    /**
+     * Фильтры пользовательского маршрута: проверка JWT с ролью USER, ограничение частоты и повторы.
+     */
+    private List<Filter> userFilters(String route, boolean perItemRateLimit, boolean idempotent) {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(requestLogger);
         // Добавляем проверку JWT
-        configCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
-
-        // Операции с пользователями (создание/кдаление) в зависимости от метода
-        HttpContext usersCtx = server.createContext("/admin/users", new RequestLogger(exchange -> {
-            String method = exchange.getRequestMethod();
-            if (method.equalsIgnoreCase("GET")) {
-                adminController.listUsers(exchange);
-            } else if (method.equalsIgnoreCase("DELETE")) {
-                adminController.deleteUser(exchange);
-            } else {
-                exchange.sendResponseHeaders(405, -1);
+        filters.add(new AuthFilter(UserRole.USER));
+        addRateLimit(filters, route, perItemRateLimit);
+        if (idempotent) {
+            addIdempotency(filters);
+        }
+        return filters;
+    }
+
+    /**
+     * Создаёт адаптивный ограничитель по настройкам server.limit.*.
+     */
+    private static AdaptiveConcurrencyLimiter createConcurrencyLimiter() {
+        if (!AppConfig.getBoolean("server.limit.enabled", true)) {
+            return null;
+        }
+        return new AdaptiveConcurrencyLimiter(
+                AppConfig.getInt("server.limit.initial", 20),
+                AppConfig.getInt("server.limit.min", 4),
+                AppConfig.getInt("server.limit.max", AppConfig.getInt("server.threads", 64)),
+                AppConfig.getDouble("server.limit.tolerance", 1.5),
+                AppConfig.getDouble("server.limit.smoothing", 0.2)
+        );
+    }
+
+    /**
+     * Приоритет маршрута: проверка кода отклоняется последней, администрирование — первым.
+     */
+    private static AdaptiveConcurrencyLimiter.Priority priorityOf(String route) {
+        if (route.startsWith("/otp/check")) {
+            return AdaptiveConcurrencyLimiter.Priority.CRITICAL;
+        }
+        if (route.startsWith("/admin")) {
+            return AdaptiveConcurrencyLimiter.Priority.LOW;
+        }
+        return AdaptiveConcurrencyLimiter.Priority.NORMAL;
+    }
+
+    /**
+     * Добавляет ограничение частоты запросов к фильтрам маршрута, если оно включено. Ставится после AuthFilter
+     * и до остальных фильтров, чтобы лишние запросы отклонялись до любого ввода-вывода.
+     * Маршруты с одним именем делят корзины; perItem списывает из них по разрешению на элемент пакета.
+     */
+    private void addRateLimit(List<Filter> filters, String route, boolean perItem) {
+        if (AppConfig.getBoolean("ratelimit.enabled", true)) {
+            RateLimitFilter filter = rateLimitFilters.computeIfAbsent(route, RateLimitFilter::new);
+            filters.add(perItem ? filter.perItem() : filter);
+        }
+    }
+
+    /**
+     * Добавляет фильтр повторов к фильтрам маршрута, если он включён. Ставится после AuthFilter.
+     */
+    private void addIdempotency(List<Filter> filters) {
+        if (idempotencyFilter != null) {
+            filters.add(idempotencyFilter);
+        }
+    }
+
+    /**
+     * Создаёт фильтр повторов по настройкам idempotency.*.
+     * idempotency.store=memory хранит ответы в памяти узла, jdbc — в таблице idempotency_keys для нескольких узлов.
+     */
+    private static IdempotencyFilter createIdempotencyFilter() {
+        if (!AppConfig.getBoolean("idempotency.enabled", true)) {
+            return null;
+        }
+        long ttlSeconds = AppConfig.getLong("idempotency.ttlSeconds", 86_400);
+        String store = AppConfig.get("idempotency.store", "memory");
+        IdempotencyDao dao;
+        if (store.equalsIgnoreCase("jdbc")) {
+            // Незавершённая запись упавшего узла держит ключ чуть дольше предельного времени запроса
+            long claimTimeoutMillis = AppConfig.getLong("idempotency.claimTimeoutMillis",
+                    AppConfig.getLong("deadline.maxMillis", 30_000) + 5_000);
+            IdempotencyDaoImpl jdbcDao = new IdempotencyDaoImpl(ttlSeconds, claimTimeoutMillis);
+            ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "idempotency-purge");
+                t.setDaemon(true);
+                return t;
+            });
+            purger.scheduleWithFixedDelay(() -> {
+                try {
+                    jdbcDao.purgeExpired();
+                } catch (RuntimeException e) {
+                    logger.error("Idempotency purge failed", e);
+                }
+            }, 10, 60, TimeUnit.MINUTES);
+            dao = jdbcDao;
+        } else {
+            dao = new InMemoryIdempotencyDao(AppConfig.getInt("idempotency.maxKeys", 100_000), ttlSeconds);
+        }
+        logger.info("Idempotency-Key support enabled, store={}", store);
+        return new IdempotencyFilter(
+                dao,
+                AppConfig.getInt("idempotency.maxBodyBytes", 65_536),
+                AppConfig.getLong("idempotency.waitMillis", 5_000)
+        );
+    }
+
+    /**
+     * Создаёт DAO пользователей, при включённом users.cache.enabled — с кеширующим декоратором.
+     */
+    private static UserDao createUserDao() {
+        UserDao dao = new UserDaoImpl();
+        if (!AppConfig.getBoolean("users.cache.enabled", true)) {
+            return dao;
+        }
+        CachedUserDao cached = new CachedUserDao(
+                dao,
+                AppConfig.getInt("users.cache.maxSize", 10_000),
+                AppConfig.getLong("users.cache.ttlSeconds", 60)
+        );
+        long statsMinutes = AppConfig.getLong("users.cache.statsMinutes", 5);
+        if (statsMinutes > 0) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "user-cache-stats");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleWithFixedDelay(cached::logStats, statsMinutes, statsMinutes, TimeUnit.MINUTES);
+        }
+        return cached;
+    }
+
+    /**
+     * Открывает архив истории кодов и запускает выгрузку в него старых записей.
+     */
+    private static OtpArchive createOtpArchive() {
+        if (!AppConfig.getBoolean("archive.enabled", false)) {
+            return null;
+        }
+        OtpArchive archive;
+        try {
+            archive = OtpArchive.open(Path.of(AppConfig.get("archive.dir", "archive")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open OTP archive", e);
+        }
+        OtpArchiver archiver = new OtpArchiver(
+                new OtpDaoImpl(),
+                new LockDaoImpl(),
+                archive,
+                Duration.ofDays(AppConfig.getLong("archive.olderThanDays", 30)),
+                Duration.ofDays(AppConfig.getLong("archive.retentionDays", 365)),
+                AppConfig.getInt("archive.segmentRows", 100_000),
+                AppConfig.getInt("archive.deleteChunk", 5_000),
+                AppConfig.getInt("archive.fetchSize", 10_000),
+                AppConfig.getLong("archive.intervalMinutes", 60)
+        );
+        archiver.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(archiver::stop, "otp-archiver-shutdown"));
+        return archive;
+    }
+
+    /**
+     * Бюджет времени запроса: deadline.route.&lt;шаблон маршрута через точки&gt; или deadline.defaultMillis.
+     * Клиент может сократить его заголовком X-Request-Timeout-Ms (но не поднять выше deadline.maxMillis).
+     */
+    private long deadlineMillis(HttpExchange exchange) {
+        String path = RouteTable.routeOf(exchange);
+        long budget = routeDeadlines.computeIfAbsent(path, p -> AppConfig.getLong(
+                "deadline.route" + p.replace('/', '.'),
+                AppConfig.getLong("deadline.defaultMillis", 5_000)));
+        String header = exchange.getRequestHeaders().getFirst(DEADLINE_HEADER);
+        if (header != null) {
+            try {
+                long requested = Long.parseLong(header.trim());
+                if (requested > 0) {
+                    budget = Math.min(requested, maxDeadlineMillis);
+                }
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid {} header [{}]", DEADLINE_HEADER, header);
             }
-        })::handle);
-        // Добавляем проверку JWT
-        usersCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
+        }
+        return budget;
     }
 
+    /**
+     * Первый фильтр маршрута: устанавливает срок запроса ({@link Deadline}), открывает корневой участок трассы
+     * ({@link Tracer}, с родителем из заголовка traceparent), журналирует запрос и пропускает его через адаптивный ограничитель
+     * (если он включён). Запросы сверх лимита сразу получают 503 с Retry-After. Остальные фильтры (аутентификация,
+     * частота, повторы) работают внутри, поэтому их ответы 401/403/429 и повторы тоже попадают в журнал и трассу.
+     */
+    private final class RequestLogger extends Filter {
+
+        @Override
+        public String description() {
+            return "Срок, трасса, журнал доступа и ограничение одновременных запросов";
+        }
 
-    private static final class RequestLogger {
-        HttpHandler handler;
+        @Override
+        public void doFilter(@NotNull HttpExchange exchange, Chain chain) throws IOException {
+            long start = System.nanoTime();
+            Deadline.start(deadlineMillis(exchange));
+            Span span = Tracer.startRequest(exchange.getRequestHeaders().getFirst("traceparent"),
+                    exchange.getRequestMethod() + " " + RouteTable.routeOf(exchange));
+            boolean expired = false;
+            try {
+                admit(exchange, chain);
+            } catch (IOException | RuntimeException e) {
+                span.recordException(e);
+                throw e;
+            } finally {
+                if (Deadline.isExpired()) {
+                    expired = true;
+                    Deadline.expired("request");
+                    logger.warn("Request [{}] {} exceeded its deadline; timeouts by stage: {}",
+                            exchange.getRequestMethod(), exchange.getRequestURI().getPath(), Deadline.timeouts());
+                }
+                Deadline.clear();
+                access(exchange, System.nanoTime() - start, expired, span);
+                if (span.isRecording()) {
+                    span.setAttribute("http.request.method", exchange.getRequestMethod())
+                            .setAttribute("http.route", RouteTable.routeOf(exchange))
+                            .setAttribute("http.response.status_code", exchange.getResponseCode());
+                    if (expired) {
+                        span.setError("Deadline exceeded");
+                    } else if (exchange.getResponseCode() >= 500) {
+                        span.setError("HTTP " + exchange.getResponseCode());
+                    }
+                }
+                span.close();
+            }
+        }
 
-        public RequestLogger(@NotNull HttpHandler handler) {
-            this.handler = handler;
+        /**
+         * Пишет строку журнала доступа: метод, шаблон маршрута, путь, статус, длительность в микросекундах,
+         * пользователь, адрес клиента и идентификатор трассы. Строка запроса не пишется: в ней могут быть персональные данные.
+         */
+        private void access(@NotNull HttpExchange exchange, long nanos, boolean expired, Span span) {
+            if (!accessLog.isInfoEnabled()) {
+                return;
+            }
+            User user = (User) exchange.getAttribute("user");
+            String traceId = span.traceId();
+            accessLog.info("method={} route={} path={} status={} us={} user={} remote={} deadline={} trace={}",
+                    exchange.getRequestMethod(),
+                    RouteTable.routeOf(exchange),
+                    exchange.getRequestURI().getPath(),
+                    exchange.getResponseCode(),
+                    nanos / 1000,
+                    user == null ? "-" : user.getId(),
+                    exchange.getRemoteAddress() == null ? "-" : exchange.getRemoteAddress().getAddress().getHostAddress(),
+                    expired ? "expired" : "ok",
+                    traceId == null ? "-" : traceId);
         }
 
-        public void handle(@NotNull HttpExchange exchange) throws IOException  {
-            logger.info("Register request [{}] with path {}", exchange.getRequestMethod(), exchange.getRequestURI());
-            handler.handle(exchange);
+        private void admit(@NotNull HttpExchange exchange, Chain chain) throws IOException {
+            if (concurrencyLimiter == null) {
+                chain.doFilter(exchange);
+                return;
+            }
+
+            AdaptiveConcurrencyLimiter.Priority priority = priorityOf(RouteTable.routeOf(exchange));
+            int token = concurrencyLimiter.tryAcquire(priority);
+            if (token < 0) {
+                logger.warn("Request [{}] {} shed: limit {}, in flight {}", exchange.getRequestMethod(),
+                        exchange.getRequestURI().getPath(), concurrencyLimiter.getLimit(), concurrencyLimiter.getInFlight());
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                HttpUtils.sendError(exchange, 503, "Server overloaded, retry later");
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                concurrencyLimiter.release(token, System.nanoTime() - start);
+            }
         }
     }
 }
@@ -1,19 +1,28 @@
 package otp.api;
 
 import com.sun.net.httpserver.HttpExchange;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import otp.archive.OtpArchive;
+import otp.config.AppConfig;
+import otp.dao.OtpConfigDao;
+import otp.dao.OtpDao;
+import otp.dao.UserDao;
 import otp.dao.impl.OtpDaoImpl;
 import otp.dao.impl.OtpConfigDaoImpl;
-import otp.dao.impl.UserDaoImpl;
+import otp.model.User;
+import otp.service.ActiveOtpStore;
+import otp.service.OtpHistoryService;
 import otp.service.OtpService;
+import otp.service.OtpWriteBehind;
 import otp.service.notification.NotificationChannel;
+import otp.service.notification.NotificationDispatcher;
 import otp.service.notification.NotificationServiceFactory;
-import otp.util.JsonUtil;
 import otp.util.HttpUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Контроллер пользовательских операций для работы с OTP-кодами (роль USER).
@@ -21,18 +30,37 @@ import java.io.IOException;
  * Доступные маршруты:
  * <ul>
  *   <li>POST /otp/new   — создаёт и отправляет OTP-код</li>
+ *   <li>POST /otp/new/batch — создаёт и отправляет пачку OTP-кодов</li>
  *   <li>POST /otp/check — проверяет корректность и статус OTP-кода</li>
+ *   <li>POST /otp/check/batch — проверяет пачку OTP-кодов за один запрос к БД</li>
+ *   <li>GET  /otp/history — постраничная история OTP-кодов текущего пользователя</li>
  * </ul>
  * </p>
  */
 public class UserController {
     private static final Logger logger = LoggerFactory.getLogger(UserController.class);
-    private final OtpService otpService = new OtpService(
-            new OtpDaoImpl(),
-            new OtpConfigDaoImpl(),
-            new UserDaoImpl(),
-            new NotificationServiceFactory()
-    );
+    private final OtpService otpService;
+    private final OtpHistoryService historyService;
+    private final int batchMaxSize = AppConfig.getInt("otp.batch.maxSize", 10_000);
+
+    /**
+     * @param userDao    общий для всех контроллеров DAO пользователей
+     * @param otpArchive общий архив старой истории кодов (null — архив отключён)
+     */
+    public UserController(UserDao userDao, OtpArchive otpArchive) {
+        OtpDao otpDao = new OtpDaoImpl();
+        OtpConfigDao otpConfigDao = new OtpConfigDaoImpl();
+        NotificationServiceFactory notificationFactory = new NotificationServiceFactory();
+        this.otpService = new OtpService(
+                otpDao,
+                otpConfigDao,
+                userDao,
+                notificationFactory,
+                createDispatcher(notificationFactory),
+                createActiveStore(otpDao, otpConfigDao)
+        );
+        this.historyService = new OtpHistoryService(otpDao, otpArchive);
+    }
 
     /**
      * Обрабатывает HTTP POST запрос генерации OTP-кода.
@@ -51,16 +79,14 @@ public class UserController {
      * @throws IOException при ошибках ввода-вывода
      */
     public void newOtp(HttpExchange exchange) throws IOException {
-        // Проверяем структуру запроса
-        if (!validateRequest(exchange)) {
-            return;
-        }
-
         try {
-            Dto.GenerateRequest req = JsonUtil.fromJson(exchange.getRequestBody(), Dto.GenerateRequest.class);
+            Dto.GenerateRequest req = DtoCodec.readGenerateRequest(exchange.getRequestBody());
             logger.info("Create new OTP for user ID: {}", req.userId);
             otpService.sendOtpToUser(req.userId, req.operationId, NotificationChannel.valueOf(req.channel));
             HttpUtils.sendResponseCode(exchange, 202);
+        } catch (DtoCodec.BadRequestException e) {
+            logger.error("Create new OTP failed: {}", e.getMessage());
+            HttpUtils.sendError(exchange, e.getStatus(), e.getMessage());
         } catch (IllegalArgumentException e) {
             logger.error("Create new OTP failed", e);
             HttpUtils.sendError(exchange, 400, e.getMessage());
@@ -70,6 +96,72 @@ public class UserController {
         }
     }
 
+    /**
+     * Обрабатывает HTTP POST запрос пакетной генерации OTP-кодов.
+     * <p>
+     * Ожидает JSON-массив: [{"userId": 123, "operationId": "op123", "channel": "EMAIL"}, ...].
+     * Пакет обрабатывается целиком за один проход; для каждого элемента возвращается
+     * результат: {"index": 0, "userId": "123", "operationId": "op123", "status": "ACCEPTED"}
+     * или "status": "REJECTED" с причиной в поле error. Доставка выполняется асинхронно.
+     * </p>
+     * <ul>
+     *   <li>202 Accepted — пакет обработан, в теле результаты по элементам</li>
+     *   <li>400 Bad Request — тело не является массивом запросов</li>
+     *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>413 Payload Too Large — элементов больше otp.batch.maxSize или тело больше api.json.maxBodyBytes</li>
+     *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
+     * </ul>
+     *
+     * @param exchange текущий HTTP-контекст
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void newOtpBatch(HttpExchange exchange) throws IOException {
+        Dto.GenerateRequest[] requests;
+        try {
+            requests = DtoCodec.readGenerateRequests(exchange.getRequestBody());
+        } catch (DtoCodec.BadRequestException e) {
+            logger.error("Create OTP batch failed: {}", e.getMessage());
+            HttpUtils.sendError(exchange, e.getStatus(), e.getMessage());
+            return;
+        }
+        if (requests == null || requests.length == 0) {
+            HttpUtils.sendError(exchange, 400, "Batch is empty");
+            return;
+        }
+        if (requests.length > batchMaxSize) {
+            logger.error("OTP batch of {} items exceeds limit {}", requests.length, batchMaxSize);
+            HttpUtils.sendError(exchange, 413, "Batch size exceeds " + batchMaxSize);
+            return;
+        }
+
+        try {
+            // Проверяем элементы заранее, чтобы ошибка одного не отменяла весь пакет
+            List<OtpService.BatchItem> items = new ArrayList<>(requests.length);
+            for (Dto.GenerateRequest req : requests) {
+                items.add(toBatchItem(req));
+            }
+            logger.info("Create OTP batch of {} items", items.size());
+            otpService.sendOtpBatch(items);
+
+            List<Dto.BatchItemResult> results = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                OtpService.BatchItem item = items.get(i);
+                results.add(new Dto.BatchItemResult(
+                        i,
+                        item.getUserId(),
+                        item.getOperationId(),
+                        item.isAccepted() ? "ACCEPTED" : "REJECTED",
+                        item.getError()
+                ));
+            }
+            DtoCodec.writeBatchItemResults(exchange, 202, results);
+        } catch (Exception e) {
+            logger.error("Create OTP batch failed", e);
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
+
     /**
      * Обрабатывает HTTP POST запрос валидации OTP-кода.
      * <p>
@@ -87,21 +179,20 @@ public class UserController {
      * @throws IOException при ошибках ввода-вывода
      */
     public void checkOtp(HttpExchange exchange) throws IOException {
-        // Проверяем структуру запроса
-        if (!validateRequest(exchange)) {
-            return;
-        }
-
         try {
-            Dto.ValidateRequest req = JsonUtil.fromJson(exchange.getRequestBody(), Dto.ValidateRequest.class);
-            logger.info("Check OTP: {}", req.code);
-            boolean valid = otpService.validateOtp(req.code);
+            Dto.ValidateRequest req = DtoCodec.readValidateRequest(exchange.getRequestBody());
+            User user = (User) exchange.getAttribute("user");
+            logger.info("Check OTP for user ID: {}", user.getId());
+            boolean valid = otpService.validateOtp(user.getId(), req.code);
             if (valid) {
                 HttpUtils.sendResponseCode(exchange, 200);
             } else {
-                logger.error("Invalid or expired OTP: {}", req.code);
+                logger.error("Invalid or expired OTP for user ID: {}", user.getId());
                 HttpUtils.sendError(exchange, 400, "Invalid or expired code");
             }
+        } catch (DtoCodec.BadRequestException e) {
+            logger.error("Check OTP failed: {}", e.getMessage());
+            HttpUtils.sendError(exchange, e.getStatus(), e.getMessage());
         } catch (IllegalArgumentException e) {
             logger.error("Check OTP failed", e);
             HttpUtils.sendError(exchange, 400, e.getMessage());
@@ -112,28 +203,144 @@ public class UserController {
     }
 
     /**
-     * Проверяет метод, Content-Type и формат JSON в HTTP запросе.
-     * Возвращает:
+     * Обрабатывает HTTP POST запрос пакетной валидации OTP-кодов текущего пользователя.
+     * <p>
+     * Ожидает JSON-массив: [{"operationId": "op123", "code": "123456"}, ...].
+     * Все коды проверяются и погашаются одним запросом; для каждого элемента возвращается
+     * {"index": 0, "operationId": "op123", "status": "VALID"} или "status": "INVALID".
+     * </p>
+     * <ul>
+     *   <li>200 OK — пакет обработан, в теле результаты по элементам</li>
+     *   <li>400 Bad Request — тело не является массивом или элемент без кода</li>
+     *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>413 Payload Too Large — элементов больше otp.batch.maxSize или тело больше api.json.maxBodyBytes</li>
+     *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
+     * </ul>
+     *
+     * @param exchange текущий HTTP-контекст
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void checkOtpBatch(HttpExchange exchange) throws IOException {
+        Dto.CheckItem[] requests;
+        try {
+            requests = DtoCodec.readCheckItems(exchange.getRequestBody());
+        } catch (DtoCodec.BadRequestException e) {
+            logger.error("Check OTP batch failed: {}", e.getMessage());
+            HttpUtils.sendError(exchange, e.getStatus(), e.getMessage());
+            return;
+        }
+        if (requests == null || requests.length == 0) {
+            HttpUtils.sendError(exchange, 400, "Batch is empty");
+            return;
+        }
+        if (requests.length > batchMaxSize) {
+            logger.error("OTP check batch of {} items exceeds limit {}", requests.length, batchMaxSize);
+            HttpUtils.sendError(exchange, 413, "Batch size exceeds " + batchMaxSize);
+            return;
+        }
+
+        List<String> operationIds = new ArrayList<>(requests.length);
+        List<String> codes = new ArrayList<>(requests.length);
+        for (Dto.CheckItem req : requests) {
+            if (req == null || req.code == null) {
+                HttpUtils.sendError(exchange, 400, "Each item must contain code");
+                return;
+            }
+            operationIds.add(req.operationId);
+            codes.add(req.code);
+        }
+
+        try {
+            User user = (User) exchange.getAttribute("user");
+            logger.info("Check OTP batch of {} items", codes.size());
+            boolean[] valid = otpService.validateOtpBatch(user.getId(), operationIds, codes);
+
+            List<Dto.CheckItemResult> results = new ArrayList<>(valid.length);
+            for (int i = 0; i < valid.length; i++) {
+                results.add(new Dto.CheckItemResult(i, operationIds.get(i), valid[i] ? "VALID" : "INVALID"));
+            }
+            DtoCodec.writeCheckItemResults(exchange, 200, results);
+        } catch (Exception e) {
+            logger.error("Check OTP batch failed", e);
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
+
+    /**
+     * Обрабатывает HTTP GET запрос истории OTP-кодов текущего пользователя.
+     * <p>
+     * Параметры: status, operation_id, cursor, limit; формат ответа описан в {@link OtpHistoryResponse}.
+     * </p>
      * <ul>
-     *   <li>True — запрос сформирован корректно</li>
-     *   <li>False — запрос сформирован ошибочно</li>
+     *   <li>200 OK — возвращает страницу истории</li>
+     *   <li>400 Bad Request — некорректные параметры или курсор</li>
+     *   <li>405 Method Not Allowed — метод не GET</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
      * </ul>
      *
-     * @param exchange объект HttpExchange для текущего запроса
-     * @throws IOException при ошибках чтения/записи
+     * @param exchange текущий HTTP-контекст
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void history(HttpExchange exchange) throws IOException {
+        User user = (User) exchange.getAttribute("user");
+        OtpHistoryResponse.send(exchange, historyService, user.getId(), HttpUtils.queryParams(exchange));
+    }
+
+    /**
+     * Преобразует элемент запроса в элемент пакета; некорректный элемент сразу помечается отклонённым.
      */
-    private boolean validateRequest(@NotNull HttpExchange exchange) throws IOException {
-        if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
-            logger.error("Invalid method [{}], POST needed", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
-            return false;
+    private static OtpService.BatchItem toBatchItem(Dto.GenerateRequest req) {
+        if (req == null || req.userId == null) {
+            OtpService.BatchItem item = new OtpService.BatchItem(null, req == null ? null : req.operationId, null);
+            item.reject("userId is required");
+            return item;
         }
-        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-        if (contentType == null || !contentType.contains("application/json")) {
-            logger.error("Invalid Content-Type [{}]", contentType);
-            HttpUtils.sendError(exchange, 415, "Content-Type must be application/json");
-            return false;
+        NotificationChannel channel;
+        try {
+            channel = NotificationChannel.valueOf(String.valueOf(req.channel));
+        } catch (IllegalArgumentException e) {
+            OtpService.BatchItem item = new OtpService.BatchItem(req.userId, req.operationId, null);
+            item.reject("Unsupported channel: " + req.channel);
+            return item;
+        }
+        return new OtpService.BatchItem(req.userId, req.operationId, channel);
+    }
+
+    /**
+     * Создаёт пулы асинхронной отправки по настройкам notification.*.
+     */
+    private static NotificationDispatcher createDispatcher(NotificationServiceFactory factory) {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(
+                factory,
+                AppConfig.getInt("notification.threads", 4),
+                AppConfig.getInt("notification.queueCapacity", 10_000)
+        );
+        Runtime.getRuntime().addShutdownHook(new Thread(dispatcher::shutdown, "notification-dispatcher-shutdown"));
+        return dispatcher;
+    }
+
+    /**
+     * Создаёт и запускает хранилище живых кодов по настройкам otp.hotstore.* (null, если оно отключено).
+     */
+    private static ActiveOtpStore createActiveStore(OtpDao otpDao, OtpConfigDao otpConfigDao) {
+        if (!AppConfig.getBoolean("otp.hotstore.enabled", false)) {
+            return null;
         }
-        return true;
+        OtpWriteBehind writeBehind = new OtpWriteBehind(
+                otpDao,
+                AppConfig.getInt("otp.hotstore.queueCapacity", 10_000),
+                AppConfig.getInt("otp.hotstore.batchSize", 500),
+                AppConfig.getLong("otp.hotstore.flushMillis", 100)
+        );
+        ActiveOtpStore store = new ActiveOtpStore(
+                otpDao,
+                writeBehind,
+                AppConfig.getInt("otp.hotstore.stripes", 64),
+                AppConfig.getLong("otp.hotstore.sweepSeconds", 5)
+        );
+        store.start(otpConfigDao.getConfig().getTtlSeconds());
+        Runtime.getRuntime().addShutdownHook(new Thread(store::stop, "otp-active-store-shutdown"));
+        return store;
     }
 }
@@ -0,0 +1,608 @@
+package otp.archive;
+
+import otp.model.Otp;
+import otp.model.OtpStatus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сегмент архива: неизменяемый файл с завершёнными OTP-кодами, разложенными по колонкам.
+ * <p>
+ * Строки сегмента отсортированы по (user_id, created_at DESC, id DESC) — в порядке истории пользователя —
+ * и разбиты на группы по {@value #GROUP_ROWS} строк. В группе каждая колонка (user_id, created_at, id,
+ * status, operation_id, code) лежит отдельным блоком, сжатым Deflate; числа записываются разностью
+ * с предыдущим значением в формате varint, поэтому отсортированные user_id и близкие по времени
+ * created_at занимают по байту-два. В заголовке — минимумы и максимумы user_id и created_at сегмента,
+ * фильтр Блума по user_id, диапазон user_id каждой группы и размеры блоков. Заголовок держится в памяти
+ * архива; при поиске пользователя распаковываются только блоки групп, в диапазон которых он попадает.
+ * </p>
+ */
+public final class ArchiveSegment {
+    static final String EXTENSION = ".otpa";
+
+    private static final int MAGIC = 0x4F545041; // "OTPA"
+    private static final int VERSION = 1;
+    private static final int GROUP_ROWS = 4096;
+
+    // Порядок колонок в группе
+    private static final int USER_ID = 0;
+    private static final int CREATED_AT = 1;
+    private static final int ID = 2;
+    private static final int STATUS = 3;
+    private static final int OPERATION_ID = 4;
+    private static final int CODE = 5;
+    private static final int COLUMN_COUNT = 6;
+
+    // Около 1% ложноположительных ответов фильтра Блума
+    private static final int BLOOM_BITS_PER_USER = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private static final Comparator<Otp> USER_ORDER = Comparator.comparing(Otp::getUserId)
+            .thenComparing(Otp::getCreatedAt, Comparator.reverseOrder())
+            .thenComparing(Otp::getId, Comparator.reverseOrder());
+
+    private final Path file;
+    private final int rowCount;
+    private final long minUserId;
+    private final long maxUserId;
+    private final LocalDateTime minCreatedAt;
+    private final LocalDateTime maxCreatedAt;
+    private final LocalDateTime lastCreatedAt;
+    private final long lastId;
+    private final long[] bloom;
+    private final int[] groupRows;
+    private final long[] groupMinUserIds;
+    private final long[] groupMaxUserIds;
+    /** Смещения блоков в файле по группам и колонкам; последний элемент — конец файла */
+    private final long[] offsets;
+    private final int[] rawLengths;
+
+    private ArchiveSegment(Path file, int rowCount, long minUserId, long maxUserId,
+                           LocalDateTime minCreatedAt, LocalDateTime maxCreatedAt,
+                           LocalDateTime lastCreatedAt, long lastId, long[] bloom,
+                           int[] groupRows, long[] groupMinUserIds, long[] groupMaxUserIds,
+                           long[] offsets, int[] rawLengths) {
+        this.file = file;
+        this.rowCount = rowCount;
+        this.minUserId = minUserId;
+        this.maxUserId = maxUserId;
+        this.minCreatedAt = minCreatedAt;
+        this.maxCreatedAt = maxCreatedAt;
+        this.lastCreatedAt = lastCreatedAt;
+        this.lastId = lastId;
+        this.bloom = bloom;
+        this.groupRows = groupRows;
+        this.groupMinUserIds = groupMinUserIds;
+        this.groupMaxUserIds = groupMaxUserIds;
+        this.offsets = offsets;
+        this.rawLengths = rawLengths;
+    }
+
+    /**
+     * Записывает сегмент: сначала во временный файл, затем fsync и атомарное переименование,
+     * так что файл с итоговым именем всегда полон.
+     *
+     * @param file итоговый файл сегмента
+     * @param rows строки по возрастанию (created_at, id); последняя задаёт место продолжения выгрузки
+     * @return записанный сегмент
+     */
+    static ArchiveSegment write(Path file, List<Otp> rows) throws IOException {
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("Archive segment must not be empty");
+        }
+        Otp last = rows.get(rows.size() - 1);
+        List<Otp> sorted = new ArrayList<>(rows);
+        sorted.sort(USER_ORDER);
+
+        int groupCount = (sorted.size() + GROUP_ROWS - 1) / GROUP_ROWS;
+        int[] groupRows = new int[groupCount];
+        long[] groupMinUserIds = new long[groupCount];
+        long[] groupMaxUserIds = new long[groupCount];
+        byte[][] blocks = new byte[groupCount * COLUMN_COUNT][];
+        int[] rawLengths = new int[groupCount * COLUMN_COUNT];
+        ColumnWriter[] columns = new ColumnWriter[COLUMN_COUNT];
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            columns[i] = new ColumnWriter();
+        }
+
+        // Колонки по группам; разности считаются от начала группы, чтобы группу можно было читать отдельно
+        long minCreated = Long.MAX_VALUE;
+        long maxCreated = Long.MIN_VALUE;
+        int users = 0;
+        for (int group = 0; group < groupCount; group++) {
+            int from = group * GROUP_ROWS;
+            int to = Math.min(sorted.size(), from + GROUP_ROWS);
+            long previousUser = 0;
+            long previousCreated = 0;
+            long previousId = 0;
+            for (int i = from; i < to; i++) {
+                Otp otp = sorted.get(i);
+                long userId = otp.getUserId();
+                long created = micros(otp.getCreatedAt());
+                if (i == 0 || userId != sorted.get(i - 1).getUserId()) {
+                    users++;
+                }
+                minCreated = Math.min(minCreated, created);
+                maxCreated = Math.max(maxCreated, created);
+                columns[USER_ID].writeSigned(userId - previousUser);
+                columns[CREATED_AT].writeSigned(created - previousCreated);
+                columns[ID].writeSigned(otp.getId() - previousId);
+                columns[STATUS].write(statusCode(otp.getStatus()));
+                columns[OPERATION_ID].writeString(otp.getOperationId());
+                columns[CODE].writeString(otp.getCode());
+                previousUser = userId;
+                previousCreated = created;
+                previousId = otp.getId();
+            }
+            groupRows[group] = to - from;
+            groupMinUserIds[group] = sorted.get(from).getUserId();
+            groupMaxUserIds[group] = sorted.get(to - 1).getUserId();
+            for (int c = 0; c < COLUMN_COUNT; c++) {
+                int block = group * COLUMN_COUNT + c;
+                rawLengths[block] = columns[c].size();
+                blocks[block] = deflate(columns[c].bytes(), rawLengths[block]);
+                columns[c].reset();
+            }
+        }
+        long[] bloom = new long[Math.max(1, (users * BLOOM_BITS_PER_USER + 63) / 64)];
+        for (Otp otp : sorted) {
+            addToBloom(bloom, otp.getUserId());
+        }
+
+        long minUserId = sorted.get(0).getUserId();
+        long maxUserId = sorted.get(sorted.size() - 1).getUserId();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            out.writeLong(minUserId);
+            out.writeLong(maxUserId);
+            out.writeLong(minCreated);
+            out.writeLong(maxCreated);
+            out.writeLong(micros(last.getCreatedAt()));
+            out.writeLong(last.getId());
+            out.writeInt(bloom.length);
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            out.writeInt(groupCount);
+            for (int group = 0; group < groupCount; group++) {
+                out.writeInt(groupRows[group]);
+                out.writeLong(groupMinUserIds[group]);
+                out.writeLong(groupMaxUserIds[group]);
+                for (int c = 0; c < COLUMN_COUNT; c++) {
+                    out.writeInt(rawLengths[group * COLUMN_COUNT + c]);
+                    out.writeInt(blocks[group * COLUMN_COUNT + c].length);
+                }
+            }
+            for (byte[] block : blocks) {
+                out.write(block);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file);
+
+        return new ArchiveSegment(file, sorted.size(), minUserId, maxUserId,
+                fromMicros(minCreated), fromMicros(maxCreated), last.getCreatedAt(), last.getId(), bloom,
+                groupRows, groupMinUserIds, groupMaxUserIds, blockOffsets(bloom.length, blocks), rawLengths);
+    }
+
+    /**
+     * Читает заголовок сегмента; блоки колонок читаются при запросах.
+     *
+     * @throws IOException если файл повреждён или не является сегментом
+     */
+    static ArchiveSegment open(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an OTP archive segment: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive segment version " + version + ": " + file);
+            }
+            int rowCount = in.readInt();
+            long minUserId = in.readLong();
+            long maxUserId = in.readLong();
+            LocalDateTime minCreatedAt = fromMicros(in.readLong());
+            LocalDateTime maxCreatedAt = fromMicros(in.readLong());
+            LocalDateTime lastCreatedAt = fromMicros(in.readLong());
+            long lastId = in.readLong();
+            long[] bloom = new long[in.readInt()];
+            for (int i = 0; i < bloom.length; i++) {
+                bloom[i] = in.readLong();
+            }
+            int groupCount = in.readInt();
+            int[] groupRows = new int[groupCount];
+            long[] groupMinUserIds = new long[groupCount];
+            long[] groupMaxUserIds = new long[groupCount];
+            int[] rawLengths = new int[groupCount * COLUMN_COUNT];
+            byte[][] blocks = new byte[groupCount * COLUMN_COUNT][];
+            for (int group = 0; group < groupCount; group++) {
+                groupRows[group] = in.readInt();
+                groupMinUserIds[group] = in.readLong();
+                groupMaxUserIds[group] = in.readLong();
+                for (int c = 0; c < COLUMN_COUNT; c++) {
+                    rawLengths[group * COLUMN_COUNT + c] = in.readInt();
+                    // Для вычисления смещений нужна только длина блока
+                    blocks[group * COLUMN_COUNT + c] = new byte[in.readInt()];
+                }
+            }
+            long[] offsets = blockOffsets(bloom.length, blocks);
+            if (offsets[blocks.length] != Files.size(file)) {
+                throw new IOException("Truncated archive segment: " + file);
+            }
+            return new ArchiveSegment(file, rowCount, minUserId, maxUserId, minCreatedAt, maxCreatedAt,
+                    lastCreatedAt, lastId, bloom, groupRows, groupMinUserIds, groupMaxUserIds, offsets, rawLengths);
+        }
+    }
+
+    /**
+     * Передаёт в consumer строки пользователя от новых к старым, начиная строго после (before*).
+     *
+     * @param userId          пользователь
+     * @param status          фильтр по статусу (null — любой)
+     * @param operationId     фильтр по операции (null — любая)
+     * @param beforeCreatedAt время создания последней уже отданной записи (null — с самой новой)
+     * @param beforeId        id последней уже отданной записи
+     * @param limit           максимальное число строк
+     * @param consumer        получатель кодов
+     * @return сколько строк передано
+     */
+    int forEachUserRow(long userId, OtpStatus status, String operationId,
+                       LocalDateTime beforeCreatedAt, Long beforeId, int limit, Consumer<Otp> consumer) throws IOException {
+        if (userId < minUserId || userId > maxUserId || !mightContainUser(userId)
+                || (beforeCreatedAt != null && minCreatedAt.isAfter(beforeCreatedAt))) {
+            return 0;
+        }
+        long before = beforeCreatedAt == null ? 0 : micros(beforeCreatedAt);
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Строки пользователя идут подряд и занимают одну или несколько соседних групп
+            for (int group = 0; group < groupRows.length && count < limit; group++) {
+                if (userId < groupMinUserIds[group] || userId > groupMaxUserIds[group]) {
+                    continue;
+                }
+                count += forEachUserRow(channel, group, userId, status, operationId,
+                        beforeCreatedAt == null ? null : before, beforeId, limit - count, consumer);
+            }
+        }
+        return count;
+    }
+
+    private int forEachUserRow(FileChannel channel, int group, long userId, OtpStatus status, String operationId,
+                               Long before, Long beforeId, int limit, Consumer<Otp> consumer) throws IOException {
+        // Сначала только user_id: по нему находим строки пользователя в группе
+        int rows = groupRows[group];
+        ColumnReader users = read(channel, group, USER_ID);
+        int from = -1;
+        int to = rows;
+        long user = 0;
+        for (int i = 0; i < rows; i++) {
+            user += users.readSigned();
+            if (user == userId && from < 0) {
+                from = i;
+            } else if (user > userId) {
+                to = i;
+                break;
+            }
+        }
+        if (from < 0) {
+            return 0;
+        }
+
+        ColumnReader created = read(channel, group, CREATED_AT);
+        ColumnReader ids = read(channel, group, ID);
+        ColumnReader statuses = read(channel, group, STATUS);
+        ColumnReader operations = read(channel, group, OPERATION_ID);
+        ColumnReader codes = read(channel, group, CODE);
+        long createdValue = 0;
+        long idValue = 0;
+        for (int i = 0; i < from; i++) {
+            createdValue += created.readSigned();
+            idValue += ids.readSigned();
+            operations.skipString();
+            codes.skipString();
+        }
+        statuses.skip(from);
+
+        int count = 0;
+        for (int i = from; i < to && count < limit; i++) {
+            createdValue += created.readSigned();
+            idValue += ids.readSigned();
+            OtpStatus rowStatus = statusOf(statuses.readByte());
+            String rowOperation = operations.readString();
+            String rowCode = codes.readString();
+            if (before != null && (createdValue > before || (createdValue == before && idValue >= beforeId))) {
+                continue;
+            }
+            if ((status != null && rowStatus != status)
+                    || (operationId != null && !operationId.equals(rowOperation))) {
+                continue;
+            }
+            consumer.accept(new Otp(idValue, userId, rowOperation, rowCode, rowStatus, fromMicros(createdValue)));
+            count++;
+        }
+        return count;
+    }
+
+    /** @return идентификаторы всех строк сегмента */
+    public long[] ids() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] ids = new long[rowCount];
+            int row = 0;
+            for (int group = 0; group < groupRows.length; group++) {
+                ColumnReader column = read(channel, group, ID);
+                long id = 0;
+                for (int i = 0; i < groupRows[group]; i++) {
+                    id += column.readSigned();
+                    ids[row++] = id;
+                }
+            }
+            return ids;
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public LocalDateTime maxCreatedAt() {
+        return maxCreatedAt;
+    }
+
+    /** @return время создания последней по (created_at, id) записи: с неё продолжается выгрузка */
+    public LocalDateTime lastCreatedAt() {
+        return lastCreatedAt;
+    }
+
+    /** @return id последней по (created_at, id) записи */
+    public long lastId() {
+        return lastId;
+    }
+
+    /** @return размер файла сегмента в байтах */
+    public long sizeBytes() {
+        return offsets[offsets.length - 1];
+    }
+
+    private ColumnReader read(FileChannel channel, int group, int column) throws IOException {
+        int block = group * COLUMN_COUNT + column;
+        int length = (int) (offsets[block + 1] - offsets[block]);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long position = offsets[block];
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated archive segment: " + file);
+            }
+        }
+        return new ColumnReader(inflate(buffer.array(), rawLengths[block]));
+    }
+
+    private boolean mightContainUser(long userId) {
+        long bits = (long) bloom.length << 6;
+        long h1 = mix(userId);
+        long h2 = Long.rotateLeft(h1, 32) | 1;
+        for (int i = 1; i <= BLOOM_HASHES; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addToBloom(long[] bloom, long userId) {
+        long bits = (long) bloom.length << 6;
+        long h1 = mix(userId);
+        long h2 = Long.rotateLeft(h1, 32) | 1;
+        for (int i = 1; i <= BLOOM_HASHES; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    // Финальное перемешивание из MurmurHash3
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long[] blockOffsets(int bloomWords, byte[][] blocks) {
+        long[] offsets = new long[blocks.length + 1];
+        // magic, версия, число строк, шесть long заголовка, фильтр с длиной, группы с числом групп
+        int groupCount = blocks.length / COLUMN_COUNT;
+        offsets[0] = 4 + 4 + 4 + 6 * 8 + 4 + 8L * bloomWords + 4 + (long) groupCount * (4 + 8 + 8 + 8 * COLUMN_COUNT);
+        for (int i = 0; i < blocks.length; i++) {
+            offsets[i + 1] = offsets[i] + blocks[i].length;
+        }
+        return offsets;
+    }
+
+    private static byte[] deflate(byte[] raw, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] compressed, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[length];
+            int done = 0;
+            while (done < length) {
+                int n = inflater.inflate(raw, done, length - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Corrupted archive segment: " + file);
+                }
+                done += n;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted archive segment: " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // На Linux переименование становится надёжным только после fsync каталога; где это не поддерживается — пропускаем
+    private static void syncDirectory(Path file) {
+        Path directory = file.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Каталог нельзя открыть на чтение (например, в Windows)
+        }
+    }
+
+    // Время без часового пояса хранится как микросекунды (точность TIMESTAMP в PostgreSQL)
+    private static long micros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static int statusCode(OtpStatus status) {
+        return switch (status) {
+            case USED -> 1;
+            case EXPIRED -> 2;
+            default -> throw new IllegalArgumentException("Only finished codes are archived: " + status);
+        };
+    }
+
+    private OtpStatus statusOf(int code) throws IOException {
+        return switch (code) {
+            case 1 -> OtpStatus.USED;
+            case 2 -> OtpStatus.EXPIRED;
+            default -> throw new IOException("Corrupted archive segment: " + file);
+        };
+    }
+
+    /** Буфер колонки: числа — zigzag varint, строки — длина+1 (0 — null) и UTF-8 */
+    private static final class ColumnWriter extends ByteArrayOutputStream {
+        ColumnWriter() {
+            super(64 * 1024);
+        }
+
+        void writeSigned(long value) {
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeSigned(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeSigned(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    private static final class ColumnReader {
+        private final byte[] data;
+        private int position;
+
+        ColumnReader(byte[] data) {
+            this.data = data;
+        }
+
+        long readSigned() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readByte() {
+            return data[position++];
+        }
+
+        void skip(int bytes) {
+            position += bytes;
+        }
+
+        String readString() {
+            int length = (int) readSigned();
+            if (length == 0) {
+                return null;
+            }
+            String value = new String(data, position, length - 1, StandardCharsets.UTF_8);
+            position += length - 1;
+            return value;
+        }
+
+        void skipString() {
+            int length = (int) readSigned();
+            if (length > 0) {
+                position += length - 1;
+            }
+        }
+    }
+}
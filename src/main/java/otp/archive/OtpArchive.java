@@ -0,0 +1,221 @@
+package otp.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.model.Otp;
+import otp.model.OtpStatus;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Архив завершённых OTP-кодов: каталог сегментов {@link ArchiveSegment}.
+ * <p>
+ * Сегменты покрывают непересекающиеся последовательные диапазоны (created_at, id): каждый следующий
+ * начинается после последней записи предыдущего, а всё, что осталось в БД, новее архива. Поэтому
+ * история пользователя продолжается в архиве с того места, где закончилась в БД, и читается
+ * от новых сегментов к старым. При открытии читаются только заголовки сегментов; сегменты, где
+ * пользователя точно нет (по min/max user_id и фильтру Блума), не открываются.
+ * </p>
+ * <p>
+ * Каталог может быть общим томом нескольких узлов. Пишет в него один узел за раз (см. otp.service.OtpArchiver):
+ * перед записью он перечитывает каталог ({@link #rescan}), а остальные узлы перед чтением
+ * перечитывают его, если время изменения каталога сдвинулось ({@link #refresh}), поэтому видят
+ * сегменты, записанные и удалённые другими узлами.
+ * </p>
+ */
+public final class OtpArchive {
+    private static final Logger logger = LoggerFactory.getLogger(OtpArchive.class);
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final Comparator<ArchiveSegment> KEY_ORDER = Comparator.comparing(ArchiveSegment::lastCreatedAt)
+            .thenComparingLong(ArchiveSegment::lastId);
+
+    private final Path directory;
+    /** Сегменты по возрастанию (created_at, id); список заменяется целиком, читатели берут снимок */
+    private volatile List<ArchiveSegment> segments = List.of();
+    /** Время изменения каталога при последнем чтении списка сегментов */
+    private volatile FileTime scannedAt;
+
+    private OtpArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Открывает каталог архива и читает заголовки сегментов.
+     *
+     * @param directory каталог сегментов; создаётся, если его нет
+     */
+    public static OtpArchive open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        OtpArchive archive = new OtpArchive(directory);
+        archive.rescan();
+        List<ArchiveSegment> segments = archive.segments;
+        long rows = segments.stream().mapToLong(ArchiveSegment::rowCount).sum();
+        logger.info("Opened OTP archive {}: {} segments, {} rows", directory.toAbsolutePath(), segments.size(), rows);
+        return archive;
+    }
+
+    /**
+     * Перечитывает каталог, если он изменился после прошлого чтения.
+     * Дешёвая проверка перед каждым чтением: при неизменном каталоге — только stat.
+     */
+    public void refresh() throws IOException {
+        if (!Files.getLastModifiedTime(directory).equals(scannedAt)) {
+            rescan();
+        }
+    }
+
+    /**
+     * Перечитывает список сегментов каталога: новые сегменты открываются, удалённые исчезают из списка,
+     * заголовки уже открытых не перечитываются.
+     */
+    public synchronized void rescan() throws IOException {
+        // Время берём до чтения списка: изменение во время чтения вызовет следующее перечитывание
+        FileTime modified = Files.getLastModifiedTime(directory);
+        Map<Path, ArchiveSegment> known = new HashMap<>();
+        for (ArchiveSegment segment : segments) {
+            known.put(segment.file(), segment);
+        }
+        List<ArchiveSegment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ArchiveSegment.EXTENSION)) {
+            for (Path file : files) {
+                ArchiveSegment segment = known.get(file);
+                if (segment == null) {
+                    try {
+                        segment = ArchiveSegment.open(file);
+                    } catch (NoSuchFileException e) {
+                        // Сегмент удалён по сроку хранения, пока читался список
+                        continue;
+                    }
+                }
+                found.add(segment);
+            }
+        }
+        found.sort(KEY_ORDER);
+        segments = List.copyOf(found);
+        scannedAt = modified;
+    }
+
+    /**
+     * Удаляет временные файлы недописанных сегментов: запись прервалась до переименования,
+     * строки остались в БД. Вызывается только узлом, который сейчас пишет архив.
+     *
+     * @return число удалённых файлов
+     */
+    public synchronized int removeIncomplete() throws IOException {
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ArchiveSegment.EXTENSION + ".tmp")) {
+            for (Path file : files) {
+                if (Files.deleteIfExists(file)) {
+                    logger.warn("Removed incomplete OTP archive segment {}", file);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Записывает строки новым сегментом.
+     *
+     * @param rows строки по возрастанию (created_at, id), все новее последнего сегмента
+     * @return записанный сегмент
+     */
+    public synchronized ArchiveSegment append(List<Otp> rows) throws IOException {
+        Otp last = rows.get(rows.size() - 1);
+        Path file = directory.resolve("otp-" + last.getCreatedAt().format(FILE_TIME) + "-" + last.getId()
+                + ArchiveSegment.EXTENSION);
+        ArchiveSegment segment = ArchiveSegment.write(file, rows);
+        List<ArchiveSegment> updated = new ArrayList<>(segments);
+        updated.add(segment);
+        segments = List.copyOf(updated);
+        logger.info("Archived {} OTP codes to {} ({} bytes)", segment.rowCount(), file, segment.sizeBytes());
+        return segment;
+    }
+
+    /** @return последний сегмент или null, если архив пуст */
+    public ArchiveSegment lastSegment() {
+        List<ArchiveSegment> current = segments;
+        return current.isEmpty() ? null : current.get(current.size() - 1);
+    }
+
+    /**
+     * Удаляет сегменты, все записи которых созданы раньше указанного момента.
+     *
+     * @return число удалённых сегментов
+     */
+    public synchronized int dropOlderThan(LocalDateTime time) throws IOException {
+        List<ArchiveSegment> kept = new ArrayList<>(segments.size());
+        List<ArchiveSegment> dropped = new ArrayList<>();
+        for (ArchiveSegment segment : segments) {
+            (segment.maxCreatedAt().isBefore(time) ? dropped : kept).add(segment);
+        }
+        if (dropped.isEmpty()) {
+            return 0;
+        }
+        // Сначала убираем из списка, чтобы новые чтения не открывали удаляемые файлы
+        segments = List.copyOf(kept);
+        for (ArchiveSegment segment : dropped) {
+            Files.deleteIfExists(segment.file());
+            logger.info("Dropped OTP archive segment {} (newest row {})", segment.file(), segment.maxCreatedAt());
+        }
+        return dropped.size();
+    }
+
+    /**
+     * Передаёт в consumer архивную историю кодов пользователя от новых к старым,
+     * начиная строго после (before*) — так же, как {@link otp.dao.OtpDao#forEachHistoryPage}.
+     *
+     * @param userId          идентификатор пользователя
+     * @param status          фильтр по статусу (null — любой); в архиве только USED и EXPIRED
+     * @param operationId     фильтр по операции (null — любая)
+     * @param beforeCreatedAt время создания последней уже отданной записи (null — с самой новой)
+     * @param beforeId        id последней уже отданной записи
+     * @param limit           максимальное число записей
+     * @param consumer        получатель кодов
+     * @return сколько записей передано
+     */
+    public int forEachHistoryPage(Long userId, OtpStatus status, String operationId,
+                                  LocalDateTime beforeCreatedAt, Long beforeId, int limit, Consumer<Otp> consumer) {
+        if (status == OtpStatus.ACTIVE) {
+            return 0;
+        }
+        try {
+            refresh();
+        } catch (IOException e) {
+            logger.error("Error listing OTP archive {}: {}", directory, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+        List<ArchiveSegment> current = segments;
+        int count = 0;
+        for (int i = current.size() - 1; i >= 0 && count < limit; i--) {
+            ArchiveSegment segment = current.get(i);
+            try {
+                count += segment.forEachUserRow(userId, status, operationId, beforeCreatedAt, beforeId,
+                        limit - count, consumer);
+            } catch (NoSuchFileException e) {
+                // Сегмент удалён по сроку хранения во время чтения
+                logger.debug("OTP archive segment {} was dropped while reading", segment.file());
+            } catch (IOException e) {
+                logger.error("Error reading OTP archive segment {} for user [{}]: {}",
+                        segment.file(), userId, e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+        logger.info("Listed {} archived OTP history rows for user {}", count, userId);
+        return count;
+    }
+}
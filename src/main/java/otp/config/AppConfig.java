@@ -0,0 +1,81 @@
+package otp.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Доступ к настройкам приложения из application.properties.
+ * <p>
+ * Файл читается один раз при первом обращении. Любой ключ можно переопределить
+ * системным свойством JVM (-Dkey=value); для отсутствующих ключей возвращается значение по умолчанию.
+ * </p>
+ */
+public final class AppConfig {
+    private static final String PROPS_FILE = "application.properties";
+    private static final Properties props = new Properties();
+
+    // Статический блок загружает настройки при первом обращении
+    static {
+        try (InputStream is = AppConfig.class.getClassLoader().getResourceAsStream(PROPS_FILE)) {
+            if (is != null) {
+                props.load(is);
+            }
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError("Ошибка загрузки настроек из " + PROPS_FILE + ": " + e.getMessage());
+        }
+    }
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private AppConfig() {}
+
+    /**
+     * @param key          имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return строковое значение параметра
+     */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key, props.getProperty(key));
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    /**
+     * @param key          имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return целочисленное значение параметра
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * @param key          имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return значение параметра типа long
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    /**
+     * @param key          имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return значение параметра типа double
+     */
+    public static double getDouble(String key, double defaultValue) {
+        String value = get(key, null);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    /**
+     * @param key          имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return логическое значение параметра
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
@@ -1,10 +1,22 @@
 package otp.config;
 
+import otp.jfr.DbStatementEvent;
+import otp.trace.Span;
+import otp.trace.Tracer;
+import otp.util.Deadline;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Properties;
 
 /**
@@ -36,11 +48,31 @@ public class DatabaseManager {
 
     /**
      * Возвращает новое JDBC-соединение.
+     * <p>
+     * Если у текущего запроса есть крайний срок ({@link Deadline}), каждый запрос через это соединение
+     * выполняется с таймаутом по оставшемуся бюджету (округление вверх до секунды — точность JDBC),
+     * а после истечения срока новые запросы не отправляются вовсе.
+     * Если в идущей записи JFR включено событие {@link DbStatementEvent}, выполнение каждого запроса
+     * отмечается этим событием, а если трасса запроса записывается ({@link Tracer}) — участком трассы.
+     * Без срока, записи JFR и трассы соединение возвращается как есть.
+     * </p>
      * @return Connection
      * @throws SQLException если не удалось установить соединение
      */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        boolean deadline = Deadline.isSet();
+        boolean traced = DbStatementEvent.isTypeEnabled() || Tracer.isRecording();
+        if (!deadline && !traced) {
+            return DriverManager.getConnection(url, user, password);
+        }
+        if (deadline) {
+            Deadline.check("jdbc.connect");
+        }
+        Connection conn = DriverManager.getConnection(url, user, password);
+        return (Connection) Proxy.newProxyInstance(
+                DatabaseManager.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new InterceptingConnection(conn, deadline, traced));
     }
 
     /**
@@ -58,4 +90,135 @@ public class DatabaseManager {
             }
         }
     }
+
+    /**
+     * Соединение, выдающее запросы с таймаутом по сроку текущего запроса и/или с событиями JFR и участками трассы.
+     */
+    private static final class InterceptingConnection implements InvocationHandler {
+        private final Connection target;
+        private final boolean deadline;
+        private final boolean traced;
+
+        InterceptingConnection(Connection target, boolean deadline, boolean traced) {
+            this.target = target;
+            this.deadline = deadline;
+            this.traced = traced;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = invokeTarget(target, method, args);
+            if (result instanceof Statement statement) {
+                Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                        : statement instanceof PreparedStatement ? PreparedStatement.class
+                        : Statement.class;
+                // Текст подготовленного запроса — первый аргумент prepareStatement/prepareCall
+                String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+                return Proxy.newProxyInstance(
+                        DatabaseManager.class.getClassLoader(),
+                        new Class<?>[]{type},
+                        new InterceptingStatement(statement, sql, deadline, traced));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Запрос, который перед выполнением получает таймаут по оставшемуся бюджету
+     * и выполнение которого отмечается событием JFR и участком трассы.
+     */
+    private static final class InterceptingStatement implements InvocationHandler {
+        private final Statement target;
+        private final String sql;
+        private final boolean deadline;
+        private final boolean traced;
+
+        InterceptingStatement(Statement target, String sql, boolean deadline, boolean traced) {
+            this.target = target;
+            this.sql = sql;
+            this.deadline = deadline;
+            this.traced = traced;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().startsWith("execute")) {
+                return invokeTarget(target, method, args);
+            }
+            if (deadline) {
+                // Срок уже прошёл — запрос в БД не отправляем
+                long remaining = Deadline.remainingMillis();
+                if (remaining <= 0) {
+                    throw Deadline.expired("jdbc");
+                }
+                target.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000));
+            }
+
+            if (!traced) {
+                return execute(method, args);
+            }
+
+            // У простого Statement текст запроса передаётся в execute*(sql)
+            String text = sql != null ? sql
+                    : args != null && args.length > 0 && args[0] instanceof String s ? s : null;
+            DbStatementEvent event = new DbStatementEvent();
+            event.begin();
+            Span span = Tracer.isRecording() ? Tracer.startSpan(operationOf(text), Span.Kind.CLIENT) : Span.NOOP;
+            boolean failed = true;
+            try {
+                Object result = execute(method, args);
+                failed = false;
+                return result;
+            } catch (Throwable e) {
+                span.recordException(e);
+                throw e;
+            } finally {
+                span.setAttribute("db.system", "postgresql")
+                        .setAttribute("db.query.text", text)
+                        .setAttribute("db.statement.method", method.getName());
+                span.close();
+                if (event.shouldCommit()) {
+                    event.sqlId = DbStatementEvent.sqlId(text);
+                    event.sql = text;
+                    event.method = method.getName();
+                    event.failed = failed;
+                    event.commit();
+                }
+            }
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            try {
+                return invokeTarget(target, method, args);
+            } catch (SQLException e) {
+                // Запрос отменён драйвером по таймауту
+                if (deadline && Deadline.isExpired()) {
+                    Deadline.expired("jdbc");
+                }
+                throw e;
+            }
+        }
+
+        // Имя участка — операция SQL: SELECT, INSERT, UPDATE...
+        private static String operationOf(String text) {
+            if (text == null) {
+                return "SQL";
+            }
+            String trimmed = text.stripLeading();
+            int end = 0;
+            while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+                end++;
+            }
+            return end == 0 ? "SQL" : trimmed.substring(0, end).toUpperCase();
+        }
+    }
+
+    // Вызывает метод исходного объекта, пробрасывая его собственное исключение
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
 }
@@ -0,0 +1,37 @@
+package otp.dao;
+
+import otp.model.IdempotencyRecord;
+
+/**
+ * Интерфейс хранилища ответов на запросы с ключом идемпотентности.
+ */
+public interface IdempotencyDao {
+
+    /**
+     * Атомарно занимает ключ под новый запрос.
+     * @param key         ключ (пользователь и значение Idempotency-Key)
+     * @param fingerprint отпечаток запроса
+     * @return null, если ключ занят этим вызовом; иначе существующая запись (возможно, ещё не завершённая)
+     */
+    IdempotencyRecord claim(String key, String fingerprint);
+
+    /**
+     * Возвращает запись по ключу.
+     * @param key ключ
+     * @return запись или null, если её нет или срок её хранения истёк
+     */
+    IdempotencyRecord get(String key);
+
+    /**
+     * Сохраняет ответ на запрос, занявший ключ.
+     * @param key    ключ
+     * @param record завершённая запись
+     */
+    void complete(String key, IdempotencyRecord record);
+
+    /**
+     * Освобождает ключ, если запрос не дал сохраняемого ответа, чтобы повтор выполнился заново.
+     * @param key ключ
+     */
+    void release(String key);
+}
@@ -0,0 +1,23 @@
+package otp.dao;
+
+/**
+ * Интерфейс блокировок, общих для всех узлов сервиса.
+ */
+public interface LockDao {
+
+    /**
+     * Пытается занять именованную блокировку, не дожидаясь её освобождения.
+     * @param name имя блокировки
+     * @return удерживаемая блокировка или null, если её держит другой узел
+     */
+    Lease tryAcquire(String name);
+
+    /**
+     * Удерживаемая блокировка; close освобождает её.
+     * Если узел остановился, не освободив блокировку, она освобождается сама.
+     */
+    interface Lease extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
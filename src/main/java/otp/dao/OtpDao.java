@@ -1,8 +1,11 @@
 package otp.dao;
 
 import otp.model.Otp;
+import otp.model.OtpStatus;
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Интерфейс для доступа к данным одноразовых кодов (OTP).
@@ -10,18 +13,30 @@ import java.util.List;
 public interface OtpDao {
 
     /**
-     * Ищет запись по самому значению кода.
-     * @param code строка кода
-     * @return объект Otp или null, если не найден
+     * Ищет живой (ACTIVE) код пользователя по его значению; использованные и просроченные коды не ищутся.
+     * <p>
+     * Коды не уникальны между пользователями, поэтому поиск всегда ограничен пользователем
+     * (индекс (user_id, created_at DESC, id DESC)). Если у пользователя несколько живых кодов
+     * с тем же значением, возвращается самый новый.
+     * </p>
+     * @param userId идентификатор пользователя
+     * @param code   строка кода
+     * @return объект Otp или null, если живого кода нет
      */
-    Otp getByCode(String code);
+    Otp getByUserAndCode(Long userId, String code);
 
     /**
-     * Сохраняет новый одноразовый код в БД.
-     * @param code объект Otp (id и createdAt могут быть null — будут заполнены БД)
+     * Сохраняет новый живой код в БД.
+     * @param code объект Otp (id и createdAt, если не заданы, будут заполнены)
      */
     void save(Otp code);
 
+    /**
+     * Сохраняет пачку новых живых кодов одним пакетным запросом.
+     * @param codes список Otp (id и createdAt, если не заданы, будут заполнены)
+     */
+    void saveAll(List<Otp> codes);
+
     /**
      * Удаляет все коды, принадлежащие указанному пользователю.
      * @param userId идентификатор пользователя
@@ -29,20 +44,98 @@ public interface OtpDao {
     void deleteByUserId(Long userId);
 
     /**
-     * Возвращает все коды, связанные с указанным пользователем.
+     * Возвращает все коды пользователя: живые и из истории.
      * @param userId идентификатор пользователя
      * @return список всех Otp для данного пользователя
      */
     List<Otp> getByUserId(Long userId);
 
     /**
-     * Помечает код с заданным id как использованный.
+     * Передаёт в consumer страницу истории кодов пользователя (живых и завершённых), от новых к старым.
+     * <p>
+     * Keyset-пагинация по индексам (user_id, created_at DESC, id DESC) обеих таблиц: следующая страница
+     * начинается строго после последней записи предыдущей (before*).
+     * </p>
+     * @param userId          идентификатор пользователя
+     * @param status          фильтр по статусу (null — любой)
+     * @param operationId     фильтр по операции (null — любая)
+     * @param beforeCreatedAt время создания последней записи предыдущей страницы (null — первая страница)
+     * @param beforeId        id последней записи предыдущей страницы
+     * @param limit           максимальный размер страницы
+     * @param consumer        получатель кодов
+     */
+    void forEachHistoryPage(Long userId, OtpStatus status, String operationId,
+                            LocalDateTime beforeCreatedAt, Long beforeId, int limit, Consumer<Otp> consumer);
+
+    /**
+     * Передаёт в consumer завершённые коды (USED и EXPIRED), созданные раньше указанного момента,
+     * по возрастанию (created_at, id). Строки читаются курсором на стороне сервера порциями по fetchSize
+     * и не собираются в память.
+     * @param createdBefore  верхняя граница времени создания (не включительно)
+     * @param afterCreatedAt время создания последней уже переданной записи (null — с начала)
+     * @param afterId        id последней уже переданной записи
+     * @param limit          максимальное число записей
+     * @param fetchSize      размер порции курсора
+     * @param consumer       получатель кодов
+     */
+    void forEachFinishedBefore(LocalDateTime createdBefore, LocalDateTime afterCreatedAt, Long afterId,
+                               int limit, int fetchSize, Consumer<Otp> consumer);
+
+    /**
+     * Удаляет записи истории (USED и EXPIRED) по идентификаторам.
+     * @param ids идентификаторы записей
+     * @return число удалённых записей
+     */
+    int deleteFinished(List<Long> ids);
+
+    /**
+     * Возвращает ACTIVE-коды, созданные после указанного момента.
+     * @param since нижняя граница времени создания
+     * @return список живых кодов
+     */
+    List<Otp> getActiveCreatedAfter(LocalDateTime since);
+
+    /**
+     * Переносит живой код с заданным id в историю как использованный.
+     * <p>
+     * Перенос — один запрос DELETE ... RETURNING, поэтому из одновременных вызовов для одного кода
+     * строку переносит только один; остальные получают false.
+     * </p>
      * @param id идентификатор записи Otp
+     * @return true — код был живым и погашен этим вызовом
+     */
+    boolean markAsUsed(Long id);
+
+    /**
+     * Переносит живые коды с заданными id в историю как использованные одним запросом.
+     * @param ids идентификаторы записей Otp
+     */
+    void markAllAsUsed(List<Long> ids);
+
+    /**
+     * Переносит живые коды с заданными id в историю как просроченные одним запросом.
+     * @param ids идентификаторы записей Otp
+     */
+    void markAllAsExpired(List<Long> ids);
+
+    /**
+     * Проверяет и погашает пачку кодов пользователя одним запросом.
+     * <p>
+     * Пары (operationId, code) передаются списком VALUES; подходящие ACTIVE-коды, созданные
+     * после createdAfter, блокируются в порядке id и переносятся в историю как USED. Пустой operationId
+     * совпадает с кодом любой операции. Элемент гасит не больше одного кода — самый новый из подходящих;
+     * повторяющиеся элементы делят один код, и он засчитывается первому из них.
+     * </p>
+     * @param userId       идентификатор пользователя
+     * @param operationIds операции элементов (элементы могут быть null)
+     * @param codes        введённые коды, по одному на элемент
+     * @param createdAfter нижняя граница времени создания живого кода
+     * @return флаги по элементам: true — код найден и погашен
      */
-    void markAsUsed(Long id);
+    boolean[] consumeAll(Long userId, List<String> operationIds, List<String> codes, LocalDateTime createdAfter);
 
     /**
-     * Помечает все коды старше указанного TTL как просроченные.
+     * Переносит в историю как просроченные все живые коды старше указанного TTL.
      * @param ttl время жизни кода (Duration), все коды с createdAt + ttl &lt; now() станут EXPIRED
      */
     void markAsExpired(Duration ttl);
@@ -1,7 +1,9 @@
 package otp.dao;
 
 import otp.model.User;
-import java.util.List;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Интерфейс для доступа к данным пользователей.
@@ -11,6 +13,7 @@ public interface UserDao {
     /**
      * Сохраняет нового пользователя в БД.
      * @param user объект User для вставки (id генерируется БД)
+     * @throws IllegalArgumentException если логин уже занят (нарушение уникальности)
      */
     void create(User user);
 
@@ -29,10 +32,26 @@ public interface UserDao {
     User getById(Long id);
 
     /**
-     * Возвращает список всех пользователей, у которых роль не ADMIN.
-     * @return список пользователей без администраторов
+     * Ищет пользователей по набору идентификаторов одним запросом.
+     * @param ids идентификаторы
+     * @return найденные пользователи по id (отсутствующих id в результате нет)
      */
-    List<User> findAllUsersWithoutAdmins();
+    Map<Long, User> getByIds(Collection<Long> ids);
+
+    /**
+     * Передаёт в consumer страницу пользователей без роли ADMIN в порядке возрастания id.
+     * Выбираются только публичные поля: хеш пароля у переданных объектов равен null.
+     * @param afterId  id последнего пользователя предыдущей страницы (0 — с начала)
+     * @param limit    максимальный размер страницы
+     * @param consumer получатель пользователей
+     */
+    void forEachUserPage(long afterId, int limit, Consumer<User> consumer);
+
+    /**
+     * Передаёт логины всех пользователей в consumer, не загружая таблицу в память целиком.
+     * @param consumer получатель логинов
+     */
+    void forEachUsername(Consumer<String> consumer);
 
     /**
      * Проверяет, существует ли в системе хотя бы один администратор.
@@ -40,6 +59,13 @@ public interface UserDao {
      */
     boolean adminExists();
 
+    /**
+     * Обновляет хеш пароля пользователя (например, при переходе на новый формат хеширования).
+     * @param userId       идентификатор пользователя
+     * @param passwordHash новый хеш пароля
+     */
+    void updatePasswordHash(Long userId, String passwordHash);
+
     /**
      * Удаляет пользователя по идентификатору (с каскадным удалением OTP-кодов).
      * @param userId идентификатор удаляемого пользователя
@@ -0,0 +1,242 @@
+package otp.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.dao.UserDao;
+import otp.model.User;
+import otp.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Кеширующий декоратор UserDao для поиска пользователей по id и логину.
+ * <p>
+ * Найденные пользователи хранятся в LRU-кеше с ограничением размера и TTL.
+ * Одновременные промахи по одному ключу объединяются в один запрос к БД.
+ * create, updatePasswordHash и delete явно сбрасывают затронутые записи;
+ * изменения, сделанные другими узлами, становятся видны не позже истечения TTL.
+ * Отсутствие пользователя не кешируется.
+ * </p>
+ */
+public class CachedUserDao implements UserDao {
+    private static final Logger logger = LoggerFactory.getLogger(CachedUserDao.class);
+
+    private final UserDao delegate;
+    private final LruCache<Long, User> byId;
+    private final LruCache<String, User> byUsername;
+    private final ConcurrentHashMap<Long, CompletableFuture<User>> loadingById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<User>> loadingByUsername = new ConcurrentHashMap<>();
+
+    /** Счётчик инвалидаций: загрузка, начатая до инвалидации, не попадает в кеш */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    // Значения счётчиков на момент прошлого logStats(); пишет только поток журнала
+    private long reportedHits;
+    private long reportedMisses;
+    private long reportedCoalesced;
+
+    /**
+     * @param delegate   DAO, к которому идут запросы при промахе
+     * @param maxSize    максимальное количество пользователей в каждом из индексов
+     * @param ttlSeconds время жизни записи в секундах
+     */
+    public CachedUserDao(UserDao delegate, int maxSize, long ttlSeconds) {
+        this.delegate = delegate;
+        this.byId = new LruCache<>(maxSize, ttlSeconds);
+        this.byUsername = new LruCache<>(maxSize, ttlSeconds);
+    }
+
+    @Override
+    public void create(User user) {
+        delegate.create(user);
+        invalidate(user.getId(), user.getUsername());
+    }
+
+    @Override
+    public User getByUsername(String username) {
+        return copy(lookup(username, byUsername, loadingByUsername, delegate::getByUsername));
+    }
+
+    @Override
+    public User getById(Long id) {
+        return copy(lookup(id, byId, loadingById, delegate::getById));
+    }
+
+    @Override
+    public Map<Long, User> getByIds(Collection<Long> ids) {
+        Map<Long, User> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            User cached = byId.get(id);
+            if (cached != null) {
+                hits.increment();
+                result.put(id, copy(cached));
+            } else {
+                misses.increment();
+                missing.add(id);
+            }
+        }
+
+        // Недостающих пользователей загружаем одним запросом
+        long generation = invalidations.get();
+        Map<Long, User> loaded = delegate.getByIds(missing);
+        for (User user : loaded.values()) {
+            if (generation == invalidations.get()) {
+                byId.put(user.getId(), user);
+                byUsername.put(user.getUsername(), user);
+            }
+            result.put(user.getId(), copy(user));
+        }
+        return result;
+    }
+
+    @Override
+    public void forEachUserPage(long afterId, int limit, Consumer<User> consumer) {
+        delegate.forEachUserPage(afterId, limit, consumer);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> consumer) {
+        delegate.forEachUsername(consumer);
+    }
+
+    @Override
+    public boolean adminExists() {
+        return delegate.adminExists();
+    }
+
+    @Override
+    public void updatePasswordHash(Long userId, String passwordHash) {
+        delegate.updatePasswordHash(userId, passwordHash);
+        invalidate(userId, null);
+    }
+
+    @Override
+    public void delete(Long userId) {
+        delegate.delete(userId);
+        invalidate(userId, null);
+    }
+
+    /** @return количество попаданий в кеш */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return количество промахов кеша */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return количество промахов, присоединившихся к уже идущему запросу */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Пишет в журнал счётчики кеша с прошлого вызова: попадания, промахи, объединённые промахи
+     * и долю попаданий. Если обращений не было, ничего не пишет.
+     */
+    public void logStats() {
+        long hitCount = getHits();
+        long missCount = getMisses();
+        long hitDelta = hitCount - reportedHits;
+        long missDelta = missCount - reportedMisses;
+        long coalescedCount = getCoalesced();
+        long coalescedDelta = coalescedCount - reportedCoalesced;
+        reportedHits = hitCount;
+        reportedMisses = missCount;
+        reportedCoalesced = coalescedCount;
+        if (hitDelta + missDelta == 0) {
+            return;
+        }
+        logger.info("User cache: hits={}, misses={}, coalesced={}, hitRatio={}%, size={}/{} (totals: hits={}, misses={})",
+                hitDelta, missDelta, coalescedDelta, Math.round(hitDelta * 1000.0 / (hitDelta + missDelta)) / 10.0,
+                byId.size(), byUsername.size(), hitCount, missCount);
+    }
+
+    /**
+     * Ищет пользователя в кеше; при промахе загружает его, объединяя одновременные запросы по ключу.
+     */
+    private <K> User lookup(K key,
+                           LruCache<K, User> cache,
+                           ConcurrentHashMap<K, CompletableFuture<User>> loading,
+                           Function<K, User> loader) {
+        User cached = cache.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        // Если этот ключ уже загружается — ждём результат того запроса
+        CompletableFuture<User> future = new CompletableFuture<>();
+        CompletableFuture<User> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalesced.increment();
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause()
+                        : e;
+            }
+        }
+
+        long generation = invalidations.get();
+        try {
+            User user = loader.apply(key);
+            if (user != null && generation == invalidations.get()) {
+                byId.put(user.getId(), user);
+                byUsername.put(user.getUsername(), user);
+            }
+            future.complete(user);
+            return user;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Сбрасывает записи пользователя в обоих индексах.
+     * Если логин неизвестен, запись по логину ищется по id.
+     */
+    private void invalidate(Long userId, String username) {
+        invalidations.incrementAndGet();
+        if (userId != null) {
+            byId.remove(userId);
+        }
+        if (username != null) {
+            byUsername.remove(username);
+        }
+        if (userId != null) {
+            byUsername.removeIf((name, user) -> userId.equals(user.getId()));
+        }
+        logger.debug("User cache invalidated: id={}, username={} (hits={}, misses={}, coalesced={})",
+                userId, username, getHits(), getMisses(), getCoalesced());
+    }
+
+    // Вызывающий код может менять полученный объект, поэтому наружу отдаём копию
+    private static User copy(User user) {
+        if (user == null) {
+            return null;
+        }
+        return new User(user.getId(), user.getUsername(), user.getPasswordHash(), user.getRole());
+    }
+}
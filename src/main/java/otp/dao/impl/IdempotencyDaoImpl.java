@@ -0,0 +1,179 @@
+package otp.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.config.DatabaseManager;
+import otp.dao.IdempotencyDao;
+import otp.model.IdempotencyRecord;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+
+/**
+ * JDBC-реализация IdempotencyDao.
+ * Хранит ответы в таблице idempotency_keys, поэтому ключ виден всем узлам сервиса.
+ * Устаревшие записи удаляются при повторном занятии ключа и периодически через purgeExpired.
+ * <p>
+ * Незавершённая запись (status = 0) держит ключ не дольше claimTimeoutMillis: если узел упал между
+ * занятием ключа и complete/release, повтор с тем же ключом после этого срока занимает ключ заново,
+ * а не получает 409 до конца времени хранения. Срок должен быть больше предельного времени запроса
+ * (deadline.maxMillis), чтобы ключ не отобрали у ещё выполняющегося запроса.
+ * </p>
+ */
+public class IdempotencyDaoImpl implements IdempotencyDao {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyDaoImpl.class);
+
+    private static final String DELETE_EXPIRED_KEY_SQL =
+            "DELETE FROM idempotency_keys WHERE idem_key = ? AND (created_at < ? OR (status = 0 AND created_at < ?))";
+    private static final String INSERT_CLAIM_SQL =
+            "INSERT INTO idempotency_keys (idem_key, fingerprint, status, created_at) VALUES (?, ?, 0, ?) " +
+            "ON CONFLICT (idem_key) DO NOTHING";
+    private static final String SELECT_BY_KEY_SQL =
+            "SELECT fingerprint, status, content_type, body FROM idempotency_keys WHERE idem_key = ? AND created_at >= ?";
+    private static final String UPDATE_COMPLETE_SQL =
+            "UPDATE idempotency_keys SET status = ?, content_type = ?, body = ? WHERE idem_key = ?";
+    private static final String DELETE_BY_KEY_SQL =
+            "DELETE FROM idempotency_keys WHERE idem_key = ?";
+    private static final String DELETE_EXPIRED_SQL =
+            "DELETE FROM idempotency_keys WHERE created_at < ? OR (status = 0 AND created_at < ?)";
+
+    private final long ttlSeconds;
+    private final long claimTimeoutMillis;
+
+    /**
+     * @param ttlSeconds         время хранения ответа в секундах
+     * @param claimTimeoutMillis сколько незавершённый запрос держит ключ, в миллисекундах
+     */
+    public IdempotencyDaoImpl(long ttlSeconds, long claimTimeoutMillis) {
+        this.ttlSeconds = ttlSeconds;
+        this.claimTimeoutMillis = claimTimeoutMillis;
+    }
+
+    @Override
+    public IdempotencyRecord claim(String key, String fingerprint) {
+        LocalDateTime now = LocalDateTime.now();
+        Timestamp threshold = Timestamp.valueOf(now.minusSeconds(ttlSeconds));
+        try (Connection conn = DatabaseManager.getConnection()) {
+
+            // Устаревшая запись с этим ключом и брошенная незавершённая не должны мешать новому запросу
+            try (PreparedStatement ps = conn.prepareStatement(DELETE_EXPIRED_KEY_SQL)) {
+                ps.setString(1, key);
+                ps.setTimestamp(2, threshold);
+                ps.setTimestamp(3, Timestamp.valueOf(now.minusNanos(claimTimeoutMillis * 1_000_000L)));
+                int removed = ps.executeUpdate();
+                if (removed > 0) {
+                    logger.debug("Removed stale idempotency key [{}] before claiming it", key);
+                }
+            }
+
+            // Пытаемся занять ключ; при конфликте строка не вставляется
+            try (PreparedStatement ps = conn.prepareStatement(INSERT_CLAIM_SQL)) {
+                ps.setString(1, key);
+                ps.setString(2, fingerprint);
+                ps.setTimestamp(3, Timestamp.valueOf(now));
+                if (ps.executeUpdate() == 1) {
+                    return null;
+                }
+            }
+
+            // Ключ уже занят — возвращаем существующую запись
+            IdempotencyRecord existing = select(conn, key, threshold);
+            return existing != null ? existing : IdempotencyRecord.inProgress(fingerprint);
+        } catch (SQLException e) {
+            logger.error("Error claiming idempotency key [{}]: {}", key, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public IdempotencyRecord get(String key) {
+        Timestamp threshold = Timestamp.valueOf(LocalDateTime.now().minusSeconds(ttlSeconds));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            return select(conn, key, threshold);
+        } catch (SQLException e) {
+            logger.error("Error reading idempotency key [{}]: {}", key, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void complete(String key, IdempotencyRecord record) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(UPDATE_COMPLETE_SQL)) {
+
+            // Указываем сохраняемый ответ
+            ps.setInt(1, record.getStatus());
+            ps.setString(2, record.getContentType());
+            ps.setBytes(3, record.getBody());
+
+            // Указываем ключ
+            ps.setString(4, key);
+
+            // Выполняем запрос
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Error completing idempotency key [{}]: {}", key, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void release(String key) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(DELETE_BY_KEY_SQL)) {
+
+            // Указываем ключ
+            ps.setString(1, key);
+
+            // Выполняем запрос
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Error releasing idempotency key [{}]: {}", key, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Удаляет все записи старше времени хранения и брошенные незавершённые записи.
+     */
+    public void purgeExpired() {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(DELETE_EXPIRED_SQL)) {
+
+            // Указываем границы времени хранения и занятия ключа
+            LocalDateTime now = LocalDateTime.now();
+            ps.setTimestamp(1, Timestamp.valueOf(now.minusSeconds(ttlSeconds)));
+            ps.setTimestamp(2, Timestamp.valueOf(now.minusNanos(claimTimeoutMillis * 1_000_000L)));
+
+            // Выполняем запрос
+            int affected = ps.executeUpdate();
+            logger.info("Purged {} expired idempotency keys", affected);
+        } catch (SQLException e) {
+            logger.error("Error purging idempotency keys: {}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private IdempotencyRecord select(Connection conn, String key, Timestamp threshold) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(SELECT_BY_KEY_SQL)) {
+
+            // Указываем ключ и границу времени хранения
+            ps.setString(1, key);
+            ps.setTimestamp(2, threshold);
+
+            // Выполняем запрос
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                byte[] body = rs.getBytes("body");
+                return new IdempotencyRecord(
+                        rs.getString("fingerprint"),
+                        rs.getInt("status"),
+                        rs.getString("content_type"),
+                        body != null ? body : new byte[0]
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package otp.dao.impl;
+
+import otp.dao.IdempotencyDao;
+import otp.model.IdempotencyRecord;
+import otp.util.LruCache;
+
+/**
+ * Хранилище ответов с ключами идемпотентности в памяти процесса.
+ * <p>
+ * Ограничено по размеру и времени жизни записей; подходит для одного узла.
+ * Для нескольких узлов используйте {@link IdempotencyDaoImpl}.
+ * </p>
+ */
+public class InMemoryIdempotencyDao implements IdempotencyDao {
+    private final LruCache<String, IdempotencyRecord> records;
+
+    /**
+     * @param maxSize    максимальное количество хранимых ключей
+     * @param ttlSeconds время хранения ответа в секундах
+     */
+    public InMemoryIdempotencyDao(int maxSize, long ttlSeconds) {
+        this.records = new LruCache<>(maxSize, ttlSeconds);
+    }
+
+    @Override
+    public IdempotencyRecord claim(String key, String fingerprint) {
+        return records.putIfAbsent(key, IdempotencyRecord.inProgress(fingerprint));
+    }
+
+    @Override
+    public IdempotencyRecord get(String key) {
+        return records.get(key);
+    }
+
+    @Override
+    public void complete(String key, IdempotencyRecord record) {
+        records.put(key, record);
+    }
+
+    @Override
+    public void release(String key) {
+        records.remove(key);
+    }
+}
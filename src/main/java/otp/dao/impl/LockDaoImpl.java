@@ -0,0 +1,61 @@
+package otp.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.config.DatabaseManager;
+import otp.dao.LockDao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * JDBC-реализация LockDao на сессионных advisory-блокировках PostgreSQL.
+ * Блокировка принадлежит соединению, которое держится открытым, пока она занята;
+ * если узел остановился или соединение оборвалось, PostgreSQL освобождает её сам.
+ */
+public class LockDaoImpl implements LockDao {
+    private static final Logger logger = LoggerFactory.getLogger(LockDaoImpl.class);
+
+    private static final String TRY_LOCK_SQL = "SELECT pg_try_advisory_lock(hashtext(?))";
+    private static final String UNLOCK_SQL = "SELECT pg_advisory_unlock(hashtext(?))";
+
+    @Override
+    public Lease tryAcquire(String name) {
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getConnection();
+            boolean acquired;
+            try (PreparedStatement ps = conn.prepareStatement(TRY_LOCK_SQL)) {
+                ps.setString(1, name);
+                try (ResultSet rs = ps.executeQuery()) {
+                    acquired = rs.next() && rs.getBoolean(1);
+                }
+            }
+            if (!acquired) {
+                conn.close();
+                logger.debug("Lock {} is held by another node", name);
+                return null;
+            }
+            logger.debug("Acquired lock {}", name);
+            Connection held = conn;
+            return () -> release(held, name);
+        } catch (SQLException e) {
+            DatabaseManager.close(conn);
+            logger.error("Error acquiring lock [{}]: {}", name, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void release(Connection conn, String name) {
+        try (conn; PreparedStatement ps = conn.prepareStatement(UNLOCK_SQL)) {
+            ps.setString(1, name);
+            ps.executeQuery().close();
+            logger.debug("Released lock {}", name);
+        } catch (SQLException e) {
+            // Закрытие соединения всё равно снимает сессионную блокировку
+            logger.warn("Error releasing lock [{}]: {}", name, e.getMessage());
+        }
+    }
+}
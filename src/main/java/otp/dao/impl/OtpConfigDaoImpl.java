@@ -4,6 +4,7 @@ import org.jetbrains.annotations.NotNull;
 import otp.config.DatabaseManager;
 import otp.dao.OtpConfigDao;
 import otp.model.OtpConfig;
+import otp.util.ResourceVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +55,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
             ps.setInt(2, config.getTtlSeconds());
             ps.setLong(3, config.getId());
             int affected = ps.executeUpdate();
+            ResourceVersion.OTP_CONFIG.bump();
             logger.info("Updated OTP config (id={}): length={}, ttlSeconds={} ({} rows)",
                     config.getId(), config.getLength(), config.getTtlSeconds(), affected);
         } catch (SQLException e) {
@@ -82,6 +84,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
             if (affected == 0) {
                 throw new SQLException("Inserting default OTP config failed, no rows affected.");
             }
+            ResourceVersion.OTP_CONFIG.bump();
             try (ResultSet keys = ps.getGeneratedKeys()) {
                 if (keys.next()) {
                     long newId = keys.getLong(1);
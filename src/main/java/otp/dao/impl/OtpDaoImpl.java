@@ -5,42 +5,93 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import otp.config.DatabaseManager;
 import otp.dao.OtpDao;
+import otp.jfr.OtpPersistedEvent;
 import otp.model.Otp;
 import otp.model.OtpStatus;
+import otp.util.IdGenerator;
 
 import java.sql.*;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * JDBC-реализация OtpDao.
- * Управляет записями OTP-кодов в таблице otp_codes.
+ * <p>
+ * Живые коды хранятся в маленькой таблице otp_active, использованные и просроченные — в otp_history.
+ * Переход в USED или EXPIRED — один запрос DELETE ... RETURNING из otp_active с INSERT в otp_history,
+ * поэтому горячая таблица не копит мёртвые строки. Поиск и проверка кода читают только otp_active,
+ * история пользователя объединяет обе таблицы.
+ * </p>
  */
 public class OtpDaoImpl implements OtpDao {
     private static final Logger logger = LoggerFactory.getLogger(OtpDaoImpl.class);
 
+    private static final String ACTIVE_COLUMNS = "id, user_id, operation_id, code, 'ACTIVE' AS status, created_at";
+    private static final String HISTORY_COLUMNS = "id, user_id, operation_id, code, status, created_at";
+
     private static final String INSERT_SQL =
-            "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at) VALUES (?, ?, ?, ?, ?)";
-    private static final String SELECT_BY_CODE_SQL =
-            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes WHERE code = ?";
+            "INSERT INTO otp_active (id, user_id, operation_id, code, created_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_BY_USER_AND_CODE_SQL =
+            "SELECT " + ACTIVE_COLUMNS + " FROM otp_active WHERE user_id = ? AND code = ?" +
+            " ORDER BY created_at DESC, id DESC LIMIT 1";
     private static final String SELECT_BY_USER_SQL =
-            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes WHERE user_id = ?";
-    private static final String UPDATE_MARK_USED_SQL =
-            "UPDATE otp_codes SET status = 'USED' WHERE id = ?";
-    private static final String UPDATE_MARK_EXPIRED_SQL =
-            "UPDATE otp_codes SET status = 'EXPIRED' WHERE status = 'ACTIVE' AND created_at < ?";
+            "SELECT " + ACTIVE_COLUMNS + " FROM otp_active WHERE user_id = ?" +
+            " UNION ALL SELECT " + HISTORY_COLUMNS + " FROM otp_history WHERE user_id = ?";
+    private static final String SELECT_ACTIVE_AFTER_SQL =
+            "SELECT " + ACTIVE_COLUMNS + " FROM otp_active WHERE created_at > ?";
+    // Перенос в историю: строки удаляются из otp_active и тем же запросом дописываются в otp_history
+    private static final String MOVE_SQL_HEAD =
+            "WITH moved AS (DELETE FROM otp_active WHERE ";
+    private static final String MOVE_SQL_TAIL =
+            " RETURNING id, user_id, operation_id, code, created_at)" +
+            " INSERT INTO otp_history (id, user_id, operation_id, code, status, created_at, finished_at)" +
+            " SELECT id, user_id, operation_id, code, ?::varchar, created_at, now() FROM moved";
+    private static final String MOVE_BY_ID_SQL = MOVE_SQL_HEAD + "id = ?" + MOVE_SQL_TAIL;
+    private static final String MOVE_ALL_BY_IDS_SQL = MOVE_SQL_HEAD + "id = ANY(?)" + MOVE_SQL_TAIL;
+    private static final String MOVE_CREATED_BEFORE_SQL = MOVE_SQL_HEAD + "created_at < ?" + MOVE_SQL_TAIL;
+    // Блокировки берутся в порядке id, поэтому одновременные пачки не взаимоблокируются.
+    // Каждый элемент гасит не больше одного кода — самый новый из подходящих (без operation_id
+    // подходят коды любых операций), а код, подходящий нескольким элементам, засчитывается первому из них.
+    private static final String CONSUME_ALL_SQL_HEAD =
+            "WITH matched AS (" +
+            " SELECT c.id, c.created_at, i.idx FROM otp_active c JOIN (VALUES ";
+    private static final String CONSUME_ALL_SQL_TAIL =
+            ") AS i(idx, operation_id, code)" +
+            " ON c.code = i.code AND (i.operation_id IS NULL OR c.operation_id = i.operation_id)" +
+            " WHERE c.user_id = ? AND c.created_at > ?" +
+            " ORDER BY c.id FOR UPDATE OF c" +
+            "), per_item AS (" +
+            " SELECT DISTINCT ON (idx) id, idx FROM matched ORDER BY idx, created_at DESC, id DESC" +
+            "), picked AS (" +
+            " SELECT DISTINCT ON (id) id, idx FROM per_item ORDER BY id, idx" +
+            "), moved AS (" +
+            "DELETE FROM otp_active o USING picked t" +
+            " WHERE o.id = t.id RETURNING o.id, o.user_id, o.operation_id, o.code, o.created_at, t.idx" +
+            "), archived AS (" +
+            " INSERT INTO otp_history (id, user_id, operation_id, code, status, created_at, finished_at)" +
+            " SELECT id, user_id, operation_id, code, 'USED', created_at, now() FROM moved" +
+            ") SELECT idx FROM moved";
+    // Выгрузка истории в архив: по индексу (created_at, id), продолжение строго после последней записи
+    private static final String SELECT_FINISHED_BEFORE_SQL =
+            "SELECT " + HISTORY_COLUMNS + " FROM otp_history WHERE created_at < ?";
+    private static final String SELECT_FINISHED_ORDER_SQL = " ORDER BY created_at, id LIMIT ?";
+    private static final String DELETE_FINISHED_SQL = "DELETE FROM otp_history WHERE id = ANY(?)";
     private static final String DELETE_BY_USER_SQL =
-            "DELETE FROM otp_codes WHERE user_id = ?";
+            "WITH a AS (DELETE FROM otp_active WHERE user_id = ? RETURNING 1)," +
+            " h AS (DELETE FROM otp_history WHERE user_id = ? RETURNING 1)" +
+            " SELECT (SELECT count(*) FROM a) + (SELECT count(*) FROM h)";
 
     @Override
-    public Otp getByCode(String code) {
+    public Otp getByUserAndCode(Long userId, String code) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_BY_CODE_SQL)) {
+             PreparedStatement ps = conn.prepareStatement(SELECT_BY_USER_AND_CODE_SQL)) {
 
-            // Указываем код
-            ps.setString(1, code);
+            // Указываем пользователя и код
+            ps.setLong(1, userId);
+            ps.setString(2, code);
 
             // Выполняем запрос
             try (ResultSet rs = ps.executeQuery()) {
@@ -48,12 +99,12 @@ public class OtpDaoImpl implements OtpDao {
                 // Если код получен
                 if (rs.next()) {
                     Otp found = mapRow(rs);
-                    logger.info("Found OTP by code {}: {}", code, found);
+                    logger.info("Found OTP by code: {}", found);
                     return found;
                 }
             }
         } catch (SQLException e) {
-            logger.error("Error finding OTP by code [{}]: {}", code, e.getMessage(), e);
+            logger.error("Error finding OTP by code for user [{}]: {}", userId, e.getMessage(), e);
             throw new RuntimeException(e);
         }
         return null;
@@ -65,8 +116,9 @@ public class OtpDaoImpl implements OtpDao {
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(SELECT_BY_USER_SQL)) {
 
-            // Указываем идентификатор пользователя
+            // Указываем идентификатор пользователя для обеих таблиц
             ps.setLong(1, userId);
+            ps.setLong(2, userId);
 
             // Выполняем запрос
             try (ResultSet rs = ps.executeQuery()) {
@@ -85,62 +137,249 @@ public class OtpDaoImpl implements OtpDao {
     }
 
     @Override
-    public void save(@NotNull Otp code) {
-        // Устанавливаем время создания, если оно не задано
-        if (code.getCreatedAt() == null) {
-            code.setCreatedAt(LocalDateTime.now());
+    public void forEachHistoryPage(Long userId, OtpStatus status, String operationId,
+                                   LocalDateTime beforeCreatedAt, Long beforeId, int limit, Consumer<Otp> consumer) {
+        // Живые коды лежат в otp_active, остальные в otp_history; фильтр по статусу отсекает лишнюю таблицу.
+        // Каждая часть берёт не больше limit строк по своему индексу, общий порядок восстанавливается снаружи
+        boolean active = status == null || status == OtpStatus.ACTIVE;
+        boolean finished = status != OtpStatus.ACTIVE;
+        StringBuilder sql = new StringBuilder(512);
+        if (active) {
+            appendHistoryPart(sql.append('('), "SELECT " + ACTIVE_COLUMNS + " FROM otp_active WHERE user_id = ?",
+                    false, operationId, beforeCreatedAt).append(')');
+        }
+        if (finished) {
+            if (active) {
+                sql.append(" UNION ALL ");
+            }
+            appendHistoryPart(sql.append('('), "SELECT " + HISTORY_COLUMNS + " FROM otp_history WHERE user_id = ?",
+                    status != null, operationId, beforeCreatedAt).append(')');
         }
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
 
-            // Указываем идентификатор пользователя
-            ps.setLong(1, code.getUserId());
+            // Указываем параметры каждой части: пользователя, фильтры, границу страницы и её размер
+            int param = 1;
+            if (active) {
+                param = bindHistoryPart(ps, param, userId, null, operationId, beforeCreatedAt, beforeId, limit);
+            }
+            if (finished) {
+                param = bindHistoryPart(ps, param, userId, status, operationId, beforeCreatedAt, beforeId, limit);
+            }
+            ps.setInt(param, limit);
 
-            // Если код привязан к операции, то указываем её
-            if (code.getOperationId() != null) {
-                ps.setString(2, code.getOperationId());
-            } else {
-                ps.setNull(2, Types.VARCHAR);
+            // Передаём коды по мере чтения, не собирая страницу в память
+            int count = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapRow(rs));
+                    count++;
+                }
             }
+            logger.info("Listed {} OTP history rows for user {}", count, userId);
+        } catch (SQLException e) {
+            logger.error("Error listing OTP history for user [{}]: {}", userId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Дописывает часть запроса истории: условия добавляются только для заданных фильтров,
+     * чтобы планировщик видел точный запрос.
+     */
+    private static StringBuilder appendHistoryPart(StringBuilder sql, String select, boolean byStatus,
+                                                   String operationId, LocalDateTime beforeCreatedAt) {
+        sql.append(select);
+        if (byStatus) {
+            sql.append(" AND status = ?");
+        }
+        if (operationId != null) {
+            sql.append(" AND operation_id = ?");
+        }
+        if (beforeCreatedAt != null) {
+            sql.append(" AND (created_at, id) < (?, ?)");
+        }
+        return sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+    }
 
-            // Указываем код
-            ps.setString(3, code.getCode());
+    private static int bindHistoryPart(PreparedStatement ps, int param, Long userId, OtpStatus status,
+                                       String operationId, LocalDateTime beforeCreatedAt, Long beforeId,
+                                       int limit) throws SQLException {
+        ps.setLong(param++, userId);
+        if (status != null) {
+            ps.setString(param++, status.name());
+        }
+        if (operationId != null) {
+            ps.setString(param++, operationId);
+        }
+        if (beforeCreatedAt != null) {
+            ps.setTimestamp(param++, Timestamp.valueOf(beforeCreatedAt));
+            ps.setLong(param++, beforeId);
+        }
+        ps.setInt(param++, limit);
+        return param;
+    }
 
-            // Указываем название статуса
-            ps.setString(4, code.getStatus().name());
+    @Override
+    public void forEachFinishedBefore(LocalDateTime createdBefore, LocalDateTime afterCreatedAt, Long afterId,
+                                      int limit, int fetchSize, Consumer<Otp> consumer) {
+        String sql = afterCreatedAt == null
+                ? SELECT_FINISHED_BEFORE_SQL + SELECT_FINISHED_ORDER_SQL
+                : SELECT_FINISHED_BEFORE_SQL + " AND (created_at, id) > (?, ?)" + SELECT_FINISHED_ORDER_SQL;
+        try (Connection conn = DatabaseManager.getConnection()) {
+
+            // Курсор на стороне сервера работает только внутри транзакции
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(fetchSize);
+
+                // Указываем верхнюю границу времени, место продолжения и размер выборки
+                int param = 1;
+                ps.setTimestamp(param++, Timestamp.valueOf(createdBefore));
+                if (afterCreatedAt != null) {
+                    ps.setTimestamp(param++, Timestamp.valueOf(afterCreatedAt));
+                    ps.setLong(param++, afterId);
+                }
+                ps.setInt(param, limit);
+
+                // Передаём коды порциями курсора
+                int count = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(mapRow(rs));
+                        count++;
+                    }
+                }
+                logger.info("Streamed {} finished OTP codes created before {}", count, createdBefore);
+            } finally {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            logger.error("Error streaming finished OTP codes created before {}: {}", createdBefore, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int deleteFinished(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(DELETE_FINISHED_SQL)) {
+
+            // Передаём идентификаторы одним массивом
+            ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+
+            // Выполняем запрос
+            int affected = ps.executeUpdate();
+            logger.info("Deleted {} of {} finished OTP codes", affected, ids.size());
+            return affected;
+        } catch (SQLException e) {
+            logger.error("Error deleting {} finished OTP codes: {}", ids.size(), e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<Otp> getActiveCreatedAfter(LocalDateTime since) {
+        List<Otp> list = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_ACTIVE_AFTER_SQL)) {
+
+            // Указываем нижнюю границу времени создания
+            ps.setTimestamp(1, Timestamp.valueOf(since));
+
+            // Выполняем запрос
+            try (ResultSet rs = ps.executeQuery()) {
+
+                // Добавляем все найденные коды в коллекцию
+                while (rs.next()) {
+                    list.add(mapRow(rs));
+                }
+            }
+            logger.info("Found {} ACTIVE OTP codes created after {}", list.size(), since);
+        } catch (SQLException e) {
+            logger.error("Error finding ACTIVE OTP codes created after {}: {}", since, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    @Override
+    public void save(@NotNull Otp code) {
+        OtpPersistedEvent event = new OtpPersistedEvent();
+        event.begin();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
 
-            // Указываем дату создания
-            ps.setTimestamp(5, Timestamp.valueOf(code.getCreatedAt()));
+            // Заполняем параметры запроса
+            bindInsert(ps, code);
 
             // Выполняем запрос
             int affected = ps.executeUpdate();
             if (affected == 0) {
                 throw new SQLException("Saving OTP code failed, no rows affected.");
             }
+            logger.info("Saved OTP code: {}", code);
+            commitPersisted(event, 1);
+        } catch (SQLException e) {
+            logger.error("Error saving OTP code for userId={}, operationId={}: {}",
+                    code.getUserId(), code.getOperationId(), e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
 
-            // Получаем идентификатор внесённой записи и обогащаем ей код
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys.next()) {
-                    code.setId(keys.getLong(1));
-                }
+    @Override
+    public void saveAll(@NotNull List<Otp> codes) {
+        if (codes.isEmpty()) {
+            return;
+        }
+        OtpPersistedEvent event = new OtpPersistedEvent();
+        event.begin();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+
+            // Добавляем все коды в один пакет; ключи известны заранее, результат по строкам не нужен
+            for (Otp code : codes) {
+                bindInsert(ps, code);
+                ps.addBatch();
             }
-            logger.info("Saved OTP code: {}", code);
+
+            // Выполняем пакет
+            ps.executeBatch();
+            logger.info("Saved {} OTP codes in batch", codes.size());
+            commitPersisted(event, codes.size());
         } catch (SQLException e) {
-            logger.error("Error saving OTP code [{}]: {}", code.getCode(), e.getMessage(), e);
+            logger.error("Error saving batch of {} OTP codes: {}", codes.size(), e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
+    private static void commitPersisted(OtpPersistedEvent event, int count) {
+        if (event.shouldCommit()) {
+            event.count = count;
+            event.commit();
+        }
+    }
+
     @Override
     public void deleteByUserId(Long userId) {
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(DELETE_BY_USER_SQL)) {
 
-            // Указываем идентификатор пользователя
+            // Указываем идентификатор пользователя для обеих таблиц
             ps.setLong(1, userId);
+            ps.setLong(2, userId);
 
-            // Выполняем запрос
-            int affected = ps.executeUpdate();
+            // Выполняем запрос; он возвращает общее число удалённых строк
+            long affected;
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                affected = rs.getLong(1);
+            }
             logger.info("Deleted {} OTP codes for user {}", affected, userId);
         } catch (SQLException e) {
             logger.error("Error deleting OTP codes for user [{}]: {}", userId, e.getMessage(), e);
@@ -149,30 +388,80 @@ public class OtpDaoImpl implements OtpDao {
     }
 
     @Override
-    public void markAsUsed(Long id) {
+    public boolean markAsUsed(Long id) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(UPDATE_MARK_USED_SQL)) {
+             PreparedStatement ps = conn.prepareStatement(MOVE_BY_ID_SQL)) {
 
-            // Указываем идентификатор записи
+            // Указываем идентификатор записи и новый статус
             ps.setLong(1, id);
+            ps.setString(2, OtpStatus.USED.name());
 
             // Выполняем запрос
             int affected = ps.executeUpdate();
             logger.info("Marked OTP id {} as USED ({} rows affected)", id, affected);
+            return affected == 1;
         } catch (SQLException e) {
             logger.error("Error marking OTP id [{}] as USED: {}", id, e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public void markAllAsUsed(List<Long> ids) {
+        moveAll(ids, OtpStatus.USED);
+    }
+
+    @Override
+    public void markAllAsExpired(List<Long> ids) {
+        moveAll(ids, OtpStatus.EXPIRED);
+    }
+
+    @Override
+    public boolean[] consumeAll(Long userId, List<String> operationIds, List<String> codes, LocalDateTime createdAfter) {
+        boolean[] consumed = new boolean[codes.size()];
+        if (codes.isEmpty()) {
+            return consumed;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(consumeAllSql(codes.size()))) {
+
+            // Передаём элементы пачки: номер, операция, код
+            int param = 1;
+            for (int i = 0; i < codes.size(); i++) {
+                ps.setInt(param++, i);
+                ps.setString(param++, operationIds.get(i));
+                ps.setString(param++, codes.get(i));
+            }
+
+            // Указываем пользователя и нижнюю границу времени создания
+            ps.setLong(param++, userId);
+            ps.setTimestamp(param, Timestamp.valueOf(createdAfter));
+
+            // Выполняем запрос и отмечаем погашенные элементы
+            int affected = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumed[rs.getInt(1)] = true;
+                    affected++;
+                }
+            }
+            logger.info("Consumed {} of {} OTP codes for user {}", affected, codes.size(), userId);
+        } catch (SQLException e) {
+            logger.error("Error consuming batch of {} OTP codes for user [{}]: {}", codes.size(), userId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+        return consumed;
+    }
+
     @Override
     public void markAsExpired(Duration ttl) {
         LocalDateTime threshold = LocalDateTime.now().minus(ttl);
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(UPDATE_MARK_EXPIRED_SQL)) {
+             PreparedStatement ps = conn.prepareStatement(MOVE_CREATED_BEFORE_SQL)) {
 
-            // Указываем время протухания кода
+            // Указываем время протухания кода и новый статус
             ps.setTimestamp(1, Timestamp.valueOf(threshold));
+            ps.setString(2, OtpStatus.EXPIRED.name());
 
             // Выполняем запрос
             int affected = ps.executeUpdate();
@@ -183,6 +472,74 @@ public class OtpDaoImpl implements OtpDao {
         }
     }
 
+    /**
+     * Переносит живые коды с указанными id в историю с заданным статусом одним запросом с массивом-параметром.
+     */
+    private void moveAll(List<Long> ids, OtpStatus status) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(MOVE_ALL_BY_IDS_SQL)) {
+
+            // Передаём идентификаторы одним массивом и новый статус
+            ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+            ps.setString(2, status.name());
+
+            // Выполняем запрос
+            int affected = ps.executeUpdate();
+            logger.info("Marked {} of {} OTP codes as {}", affected, ids.size(), status);
+        } catch (SQLException e) {
+            logger.error("Error marking {} OTP codes as {}: {}", ids.size(), status, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Собирает CONSUME_ALL_SQL со списком VALUES на указанное количество элементов.
+     * Типы задаются в первой строке, остальные строки их наследуют.
+     */
+    private static String consumeAllSql(int size) {
+        StringBuilder sql = new StringBuilder(CONSUME_ALL_SQL_HEAD.length() + CONSUME_ALL_SQL_TAIL.length() + size * 10);
+        sql.append(CONSUME_ALL_SQL_HEAD).append("(?::int, ?::varchar, ?::varchar)");
+        for (int i = 1; i < size; i++) {
+            sql.append(", (?, ?, ?)");
+        }
+        return sql.append(CONSUME_ALL_SQL_TAIL).toString();
+    }
+
+    /**
+     * Заполняет параметры INSERT_SQL значениями нового (ACTIVE) кода.
+     */
+    private void bindInsert(PreparedStatement ps, Otp code) throws SQLException {
+        // Присваиваем идентификатор, если код пришёл без него
+        if (code.getId() == null) {
+            code.setId(IdGenerator.next());
+        }
+
+        // Устанавливаем время создания, если оно не задано
+        if (code.getCreatedAt() == null) {
+            code.setCreatedAt(LocalDateTime.now());
+        }
+
+        // Указываем идентификаторы кода и пользователя
+        ps.setLong(1, code.getId());
+        ps.setLong(2, code.getUserId());
+
+        // Если код привязан к операции, то указываем её
+        if (code.getOperationId() != null) {
+            ps.setString(3, code.getOperationId());
+        } else {
+            ps.setNull(3, Types.VARCHAR);
+        }
+
+        // Указываем код
+        ps.setString(4, code.getCode());
+
+        // Указываем дату создания; статус не хранится — в otp_active все коды ACTIVE
+        ps.setTimestamp(5, Timestamp.valueOf(code.getCreatedAt()));
+    }
+
     /**
      * Преобразует текущую строку ResultSet в объект Otp.
      */
@@ -4,12 +4,16 @@ import otp.config.DatabaseManager;
 import otp.dao.UserDao;
 import otp.model.User;
 import otp.model.UserRole;
+import otp.util.IdGenerator;
+import otp.util.ResourceVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * JDBC-реализация UserDao.
@@ -19,44 +23,63 @@ public class UserDaoImpl implements UserDao {
     private static final Logger logger = LoggerFactory.getLogger(UserDaoImpl.class);
 
     private static final String INSERT_SQL =
-            "INSERT INTO users (username, password_hash, role) VALUES (?, ?, ?)";
+            "INSERT INTO users (id, username, password_hash, role) VALUES (?, ?, ?, ?)";
     private static final String SELECT_BY_USERNAME_SQL =
             "SELECT id, username, password_hash, role FROM users WHERE username = ?";
     private static final String SELECT_BY_ID_SQL =
             "SELECT id, username, password_hash, role FROM users WHERE id = ?";
-    private static final String SELECT_ALL_USERS_SQL =
-            "SELECT id, username, password_hash, role FROM users WHERE role <> 'ADMIN'";
+    private static final String SELECT_BY_IDS_SQL =
+            "SELECT id, username, password_hash, role FROM users WHERE id = ANY(?)";
+    private static final String SELECT_USERS_PAGE_SQL =
+            "SELECT id, username, role FROM users WHERE role <> 'ADMIN' AND id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_ALL_USERNAMES_SQL =
+            "SELECT username FROM users";
     private static final String SELECT_ADMIN_EXISTS_SQL =
             "SELECT 1 FROM users WHERE role = 'ADMIN' LIMIT 1";
+    private static final String UPDATE_PASSWORD_HASH_SQL =
+            "UPDATE users SET password_hash = ? WHERE id = ?";
     private static final String DELETE_USER_SQL =
             "DELETE FROM users WHERE id = ?";
 
+    /** SQLSTATE нарушения ограничения уникальности в PostgreSQL */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /** Размер порции строк при потоковом чтении */
+    private static final int FETCH_SIZE = 10_000;
+
     @Override
     public void create(User user) {
+        // Идентификатор присваивается до вставки, ключи от БД не запрашиваются
+        if (user.getId() == null) {
+            user.setId(IdGenerator.next());
+        }
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+
+            // Указываем идентификатор пользователя
+            ps.setLong(1, user.getId());
 
             // Указываем username пользователя
-            ps.setString(1, user.getUsername());
+            ps.setString(2, user.getUsername());
 
             // Указываем хэш пароля
-            ps.setString(2, user.getPasswordHash());
+            ps.setString(3, user.getPasswordHash());
 
             // Указываем роль
-            ps.setString(3, user.getRole().name());
+            ps.setString(4, user.getRole().name());
 
             // Выполняем запрос
             int affected = ps.executeUpdate();
             if (affected == 0) {
                 throw new SQLException("Creating user failed, no rows affected.");
             }
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys.next()) {
-                    user.setId(keys.getLong(1));
-                }
-            }
+            ResourceVersion.USERS.bump();
             logger.info("Created user: {}", user);
         } catch (SQLException e) {
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                logger.warn("Username already exists: {}", user.getUsername());
+                throw new IllegalArgumentException("Username already exists");
+            }
             logger.error("Error creating user [{}]: {}", user.getUsername(), e.getMessage(), e);
             throw new RuntimeException(e);
         }
@@ -113,26 +136,86 @@ public class UserDaoImpl implements UserDao {
     }
 
     @Override
-    public List<User> findAllUsersWithoutAdmins() {
-        List<User> users = new ArrayList<>();
+    public Map<Long, User> getByIds(Collection<Long> ids) {
+        Map<Long, User> users = new HashMap<>();
+        if (ids.isEmpty()) {
+            return users;
+        }
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_ALL_USERS_SQL);
+             PreparedStatement ps = conn.prepareStatement(SELECT_BY_IDS_SQL)) {
 
-             // Выполняем запрос на поиск всех пользователей без роли администратора
-             ResultSet rs = ps.executeQuery()) {
+            // Передаём идентификаторы одним массивом
+            ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+
+            // Выполняем запрос
+            try (ResultSet rs = ps.executeQuery()) {
 
-            // Добавляем всех найденных пользователей в коллекцию
-            while (rs.next()) {
-                users.add(mapRow(rs));
+                // Добавляем всех найденных пользователей
+                while (rs.next()) {
+                    User user = mapRow(rs);
+                    users.put(user.getId(), user);
+                }
             }
-            logger.info("Found {} non-admin users", users.size());
+            logger.info("Found {} of {} users by ids", users.size(), ids.size());
         } catch (SQLException e) {
-            logger.error("Error fetching non-admin users: {}", e.getMessage(), e);
+            logger.error("Error finding {} users by ids: {}", ids.size(), e.getMessage(), e);
             throw new RuntimeException(e);
         }
         return users;
     }
 
+    @Override
+    public void forEachUserPage(long afterId, int limit, Consumer<User> consumer) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_USERS_PAGE_SQL)) {
+
+            // Указываем границу страницы и её размер
+            ps.setLong(1, afterId);
+            ps.setInt(2, limit);
+
+            // Передаём пользователей по мере чтения, не собирая страницу в память
+            int count = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    User user = new User();
+                    user.setId(rs.getLong("id"));
+                    user.setUsername(rs.getString("username"));
+                    user.setRole(UserRole.valueOf(rs.getString("role")));
+                    consumer.accept(user);
+                    count++;
+                }
+            }
+            logger.info("Listed {} non-admin users after id {}", count, afterId);
+        } catch (SQLException e) {
+            logger.error("Error listing non-admin users after id [{}]: {}", afterId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> consumer) {
+        try (Connection conn = DatabaseManager.getConnection()) {
+
+            // Курсор на стороне сервера работает только внутри транзакции
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(SELECT_ALL_USERNAMES_SQL)) {
+                ps.setFetchSize(FETCH_SIZE);
+
+                // Выполняем запрос и передаём логины порциями
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(rs.getString(1));
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            logger.error("Error streaming usernames: {}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public boolean adminExists() {
         try (Connection conn = DatabaseManager.getConnection();
@@ -150,6 +233,26 @@ public class UserDaoImpl implements UserDao {
         }
     }
 
+    @Override
+    public void updatePasswordHash(Long userId, String passwordHash) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(UPDATE_PASSWORD_HASH_SQL)) {
+
+            // Указываем новый хеш пароля
+            ps.setString(1, passwordHash);
+
+            // Указываем идентификатор пользователя
+            ps.setLong(2, userId);
+
+            // Выполняем запрос
+            int affected = ps.executeUpdate();
+            logger.info("Updated password hash for user id {}: affected {} rows", userId, affected);
+        } catch (SQLException e) {
+            logger.error("Error updating password hash for user id [{}]: {}", userId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void delete(Long userId) {
         try (Connection conn = DatabaseManager.getConnection();
@@ -160,6 +263,9 @@ public class UserDaoImpl implements UserDao {
 
             // Выполняем запрос
             int affected = ps.executeUpdate();
+            if (affected > 0) {
+                ResourceVersion.USERS.bump();
+            }
             logger.info("Deleted user id {}: affected {} rows", userId, affected);
         } catch (SQLException e) {
             logger.error("Error deleting user id [{}]: {}", userId, e.getMessage(), e);
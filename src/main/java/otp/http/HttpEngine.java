@@ -0,0 +1,38 @@
+package otp.http;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * HTTP-движок, на котором работают маршруты приложения.
+ * <p>
+ * Маршрут — это префикс пути, обработчик и цепочка фильтров. Обработчики и фильтры пишутся
+ * на API com.sun.net.httpserver, поэтому контроллеры не зависят от выбранного движка:
+ * {@link JdkHttpEngine} использует HttpServer из JDK, {@link NioHttpEngine} — собственный
+ * цикл событий на NIO. Движок выбирается настройкой server.engine.
+ * </p>
+ */
+public interface HttpEngine {
+
+    /**
+     * Регистрирует маршрут. Вызывается до {@link #start()}.
+     *
+     * @param path    префикс пути
+     * @param handler обработчик запросов
+     * @param filters фильтры, выполняемые перед обработчиком, в порядке списка
+     */
+    void createContext(String path, HttpHandler handler, List<Filter> filters);
+
+    /**
+     * Начинает приём соединений.
+     */
+    void start() throws IOException;
+
+    /**
+     * Прекращает приём соединений и ждёт завершения начатых запросов не дольше drainSeconds.
+     */
+    void stop(int drainSeconds);
+}
@@ -0,0 +1,19 @@
+package otp.http;
+
+/**
+ * Некорректный HTTP-запрос: соединение закрывается после ответа с указанным статусом.
+ */
+final class HttpParseException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    HttpParseException(int status, String message) {
+        super(message, null, false, false);
+        this.status = status;
+    }
+
+    int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,85 @@
+package otp.http;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Движок на HttpServer из JDK.
+ * <p>
+ * Поднимает один или несколько экземпляров HttpServer на одном порту (несколько — только
+ * с SO_REUSEPORT, см. {@code otp.main.ReusePortSelectorProvider}). У каждого экземпляра свой поток
+ * приёма и своя доля потоков обработки; маршруты регистрируются во всех экземплярах.
+ * </p>
+ */
+public class JdkHttpEngine implements HttpEngine {
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    // HttpServer пишет заголовок и тело ответа отдельно; без TCP_NODELAY ответ ждёт
+    // отложенного ACK клиента (~40 мс). Свойство читается при создании первого сервера
+    static {
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+    }
+
+    private final List<HttpServer> servers;
+
+    /**
+     * @param port      порт
+     * @param acceptors количество экземпляров сервера
+     * @param threads   общее количество потоков обработки, делится между экземплярами поровну
+     */
+    public JdkHttpEngine(int port, int acceptors, int threads) throws IOException {
+        int threadsPerAcceptor = Math.max(1, (threads + acceptors - 1) / acceptors);
+        this.servers = new ArrayList<>(acceptors);
+        for (int i = 0; i < acceptors; i++) {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.setExecutor(Workers.newPool(acceptors == 1 ? "http-" : "http-" + i + "-", threadsPerAcceptor));
+            servers.add(server);
+        }
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler, List<Filter> filters) {
+        for (HttpServer server : servers) {
+            HttpContext context = server.createContext(path, handler);
+            context.getFilters().addAll(filters);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (HttpServer server : servers) {
+            server.start();
+        }
+    }
+
+    /**
+     * Останавливает все экземпляры параллельно: каждый закрывает слушающий сокет
+     * и ждёт завершения начатых обменов не дольше drainSeconds.
+     */
+    @Override
+    public void stop(int drainSeconds) {
+        List<Thread> stoppers = new ArrayList<>(servers.size());
+        for (HttpServer server : servers) {
+            Thread t = new Thread(() -> server.stop(drainSeconds));
+            t.start();
+            stoppers.add(t);
+        }
+        for (Thread t : stoppers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package otp.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP/1.1-соединение {@link NioHttpEngine}: чтение и разбор запросов, очередь записи ответов.
+ * <p>
+ * Соединение обрабатывает запросы строго по одному: пока обработчик работает, чтение
+ * приостановлено, а следующий запрос, уже пришедший в буфер (pipelining), разбирается
+ * после завершения текущего. Поэтому ответы уходят в порядке запросов.
+ * Методы, кроме отмеченных, вызываются только в потоке цикла событий.
+ * </p>
+ */
+final class NioConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+
+    private static final int READING_HEAD = 0;
+    private static final int READING_BODY = 1;
+    private static final int PROCESSING = 2;
+    private static final int CLOSING = 3;
+
+    /** Сколько байт ответа может ждать записи, прежде чем поток обработчика остановится */
+    private static final long MAX_PENDING_BYTES = 256 * 1024;
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final NioHttpEngine engine;
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    private final RequestHead head = new RequestHead();
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[16];
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    SelectionKey key;
+    private ByteBuffer in;
+    private int readPos;
+    private ByteBuffer bodyBuffer;
+    private byte[] body;
+    private int bodyLength;
+    private int state = READING_HEAD;
+    private boolean closeAfterWrite;
+    private long lastActive = System.currentTimeMillis();
+    private volatile boolean closed;
+    private volatile boolean writerWaiting;
+
+    NioConnection(NioHttpEngine engine, NioEventLoop loop, SocketChannel channel) throws IOException {
+        this.engine = engine;
+        this.loop = loop;
+        this.channel = channel;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    NioHttpEngine engine() {
+        return engine;
+    }
+
+    InetSocketAddress remoteAddress() {
+        return remoteAddress;
+    }
+
+    InetSocketAddress localAddress() {
+        return localAddress;
+    }
+
+    void onReadable() {
+        try {
+            if (state == READING_BODY) {
+                if (channel.read(bodyBuffer) < 0) {
+                    close();
+                    return;
+                }
+                lastActive = System.currentTimeMillis();
+                if (!bodyBuffer.hasRemaining()) {
+                    if (body.length == bodyLength) {
+                        dispatch();
+                    } else {
+                        growBody();
+                    }
+                }
+                return;
+            }
+            if (in == null) {
+                in = loop.acquireBuffer();
+                readPos = 0;
+            }
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            process();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void onWritable() {
+        flushOut();
+    }
+
+    /**
+     * Ставит данные ответа в очередь записи. Вызывается из потока обработчика;
+     * если клиент не успевает читать, поток ждёт освобождения очереди.
+     */
+    void write(ByteBuffer data) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        long pending = pendingBytes.addAndGet(data.remaining());
+        loop.execute(() -> enqueue(data));
+        if (pending > MAX_PENDING_BYTES) {
+            awaitDrain();
+        }
+    }
+
+    /**
+     * Сообщает о завершении обработчика. Вызывается из потока обработчика.
+     *
+     * @param keepAlive можно ли читать следующий запрос
+     */
+    void completeExchange(boolean keepAlive) {
+        loop.execute(() -> onExchangeComplete(keepAlive));
+    }
+
+    /** Закрывает соединение из любого потока */
+    void closeAsync() {
+        loop.execute(this::close);
+    }
+
+    /**
+     * Закрывает соединение, простаивающее дольше допустимого, а при остановке движка —
+     * любое соединение между запросами.
+     */
+    void checkIdle(long now) {
+        boolean betweenRequests = state == READING_HEAD && (in == null || readPos == in.position());
+        if (engine.isStopping() && betweenRequests) {
+            close();
+        } else if ((state == READING_HEAD || state == READING_BODY) && now - lastActive > engine.idleMillis()) {
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close connection: {}", e.getMessage());
+        }
+        if (state == PROCESSING) {
+            // Обработчик ещё может читать заголовки из буфера: в пул его не возвращаем
+            in = null;
+        } else {
+            releaseBuffer();
+        }
+        out.clear();
+        loop.removed(this);
+        if (writerWaiting) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Разбирает очередной запрос из буфера чтения.
+     */
+    private void process() {
+        int bodyStart;
+        try {
+            bodyStart = head.parse(in, readPos, in.position());
+        } catch (HttpParseException e) {
+            reject(e.getStatus());
+            return;
+        }
+        if (bodyStart < 0) {
+            if (in.position() == in.capacity()) {
+                if (readPos == 0) {
+                    reject(431);
+                    return;
+                }
+                compact();
+            } else if (readPos == in.position()) {
+                releaseBuffer();
+            }
+            return;
+        }
+        if (head.chunked) {
+            reject(501);
+            return;
+        }
+        if (head.contentLength > engine.maxBodyBytes()) {
+            reject(413);
+            return;
+        }
+
+        int length = (int) head.contentLength;
+        int available = Math.min(length, in.position() - bodyStart);
+        readPos = bodyStart + available;
+        if (available < length) {
+            // Остаток тела читаем сразу в массив тела, не трогая буфер с заголовком. Массив растёт
+            // по мере прихода данных: заявленная Content-Length без самого тела не занимает память
+            if (head.expectContinue) {
+                enqueue(ByteBuffer.wrap(CONTINUE));
+            }
+            body = new byte[Math.min(length, Math.max(available * 2, engine.bufferSize()))];
+            in.get(bodyStart, body, 0, available);
+            bodyLength = length;
+            bodyBuffer = ByteBuffer.wrap(body, available, body.length - available);
+            state = READING_BODY;
+            return;
+        }
+        body = length == 0 ? EMPTY_BODY : new byte[length];
+        in.get(bodyStart, body, 0, length);
+        dispatch();
+    }
+
+    /** Увеличивает массив тела вдвое (не больше Content-Length), когда прочитанное его заполнило */
+    private void growBody() {
+        int received = body.length;
+        body = Arrays.copyOf(body, (int) Math.min(bodyLength, received * 2L));
+        bodyBuffer = ByteBuffer.wrap(body, received, body.length - received);
+    }
+
+    private void dispatch() {
+        state = PROCESSING;
+        bodyBuffer = null;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+        URI uri;
+        try {
+            uri = new URI(head.target);
+        } catch (URISyntaxException e) {
+            reject(400);
+            return;
+        }
+        NioHttpContext context = uri.getPath() == null ? null : engine.findContext(uri.getPath());
+        if (context == null) {
+            enqueue(ByteBuffer.wrap(engine.notFound(head.http11)));
+            onExchangeComplete(head.keepAlive);
+            return;
+        }
+        NioHttpExchange exchange = new NioHttpExchange(this, context, head, uri, body);
+        body = null;
+        engine.dispatch(exchange, this);
+    }
+
+    private void onExchangeComplete(boolean keepAlive) {
+        if (closed) {
+            return;
+        }
+        if (!keepAlive || engine.isStopping()) {
+            state = CLOSING;
+            closeAfterWrite = true;
+            flushOut();
+            return;
+        }
+        head.reset();
+        state = READING_HEAD;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        if (in != null) {
+            if (readPos == in.position()) {
+                releaseBuffer();
+            } else {
+                // Следующий запрос уже в буфере
+                process();
+            }
+        }
+    }
+
+    /**
+     * Отвечает на некорректный запрос статусом без тела и закрывает соединение.
+     */
+    private void reject(int status) {
+        state = CLOSING;
+        closeAfterWrite = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        String response = "HTTP/1.1 " + status + " " + NioHttpExchange.reason(status) + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        enqueue(ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private void enqueue(ByteBuffer data) {
+        if (closed) {
+            return;
+        }
+        out.add(data);
+        flushOut();
+    }
+
+    private void flushOut() {
+        try {
+            while (!out.isEmpty()) {
+                int n = 0;
+                for (ByteBuffer b : out) {
+                    gather[n++] = b;
+                    if (n == gather.length) {
+                        break;
+                    }
+                }
+                long written = channel.write(gather, 0, n);
+                written(written);
+                while (!out.isEmpty() && !out.peekFirst().hasRemaining()) {
+                    out.pollFirst();
+                }
+                if (!out.isEmpty() && out.peekFirst().hasRemaining() && written == 0) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            if (closeAfterWrite) {
+                close();
+            }
+        } catch (IOException e) {
+            close();
+        } finally {
+            Arrays.fill(gather, null);
+        }
+    }
+
+    private void written(long bytes) {
+        long pending = pendingBytes.addAndGet(-bytes);
+        if (writerWaiting && pending <= MAX_PENDING_BYTES / 2) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void awaitDrain() throws IOException {
+        synchronized (this) {
+            writerWaiting = true;
+            try {
+                while (pendingBytes.get() > MAX_PENDING_BYTES / 2 && !closed) {
+                    wait(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the client to read the response", e);
+            } finally {
+                writerWaiting = false;
+            }
+        }
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+    }
+
+    /** Сдвигает непрочитанный остаток буфера в начало, чтобы дочитать длинный заголовок */
+    private void compact() {
+        in.limit(in.position()).position(readPos);
+        in.compact();
+        readPos = 0;
+        head.reset();
+    }
+
+    private void releaseBuffer() {
+        head.reset();
+        if (in != null) {
+            loop.releaseBuffer(in);
+            in = null;
+            readPos = 0;
+        }
+    }
+}
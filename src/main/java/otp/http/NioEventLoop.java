@@ -0,0 +1,207 @@
+package otp.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Цикл событий {@link NioHttpEngine}: один поток, один Selector и закреплённые за ним соединения.
+ * <p>
+ * Всё состояние соединений меняется только в потоке цикла; другие потоки передают ему задачи
+ * через {@link #execute(Runnable)}. Буферы чтения — прямые (direct) буферы из пула цикла:
+ * соединение держит буфер, только пока в нём есть непрочитанные данные или идёт обработка запроса,
+ * поэтому простаивающие keep-alive соединения памяти под буферы не занимают.
+ * </p>
+ */
+final class NioEventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+
+    /** Сколько свободных буферов держать в пуле цикла */
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    private final NioHttpEngine engine;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    private final Set<NioConnection> connections = new HashSet<>();
+    private volatile boolean running = true;
+    private long lastTick = System.currentTimeMillis();
+
+    NioEventLoop(NioHttpEngine engine, String name) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Выполняет задачу в потоке цикла.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Начинает принимать соединения со слушающего сокета и раздавать их циклам движка.
+     */
+    void listen(ServerSocketChannel serverChannel) {
+        execute(() -> {
+            try {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT, serverChannel);
+            } catch (IOException e) {
+                logger.error("Failed to register listener: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Закрепляет принятое соединение за циклом.
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                NioConnection connection = new NioConnection(engine, this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                logger.debug("Failed to register connection: {}", e.getMessage());
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /** Останавливает цикл, закрывая все соединения */
+    void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.pollFirst();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(engine.bufferSize());
+    }
+
+    void releaseBuffer(ByteBuffer buffer) {
+        if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.addFirst(buffer.clear());
+        }
+    }
+
+    void removed(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                wakeupPending.set(false);
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.attachment() instanceof ServerSocketChannel serverChannel) {
+                        accept(serverChannel);
+                        continue;
+                    }
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                }
+                tick();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Event loop {} error: {}", thread.getName(), e.getMessage(), e);
+            }
+        }
+        runTasks();
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close selector: {}", e.getMessage());
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Event loop task failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            engine.nextLoop().register(channel);
+        }
+    }
+
+    /**
+     * Раз в секунду закрывает простаивающие соединения и обновляет заголовок Date.
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        if (now - lastTick < 1000) {
+            return;
+        }
+        lastTick = now;
+        engine.updateDate();
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.checkIdle(now);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Соединение уже не нужно
+        }
+    }
+}
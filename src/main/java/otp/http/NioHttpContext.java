@@ -0,0 +1,79 @@
+package otp.http;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Маршрут {@link NioHttpEngine}: префикс пути, обработчик и фильтры.
+ * HttpServer у маршрута нет, поэтому {@link #getServer()} возвращает null.
+ */
+final class NioHttpContext extends HttpContext {
+    private final String path;
+    private final List<Filter> filters;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private HttpHandler handler;
+    private Authenticator authenticator;
+
+    NioHttpContext(String path, HttpHandler handler, List<Filter> filters) {
+        this.path = path;
+        this.handler = handler;
+        this.filters = new ArrayList<>(filters);
+    }
+
+    /**
+     * Подходит ли маршрут к пути запроса: путь совпадает с префиксом или продолжает его.
+     */
+    boolean matches(String requestPath) {
+        return requestPath.startsWith(path);
+    }
+
+    @Override
+    public HttpHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void setHandler(HttpHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public HttpServer getServer() {
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    @Override
+    public Authenticator setAuthenticator(Authenticator auth) {
+        Authenticator previous = authenticator;
+        authenticator = auth;
+        return previous;
+    }
+
+    @Override
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+}
@@ -0,0 +1,212 @@
+package otp.http;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Встроенный HTTP/1.1-движок на NIO.
+ * <p>
+ * Соединения распределяются по нескольким циклам событий (по умолчанию — по одному на ядро),
+ * у каждого свой Selector и свой пул прямых буферов чтения. Заголовок запроса разбирается прямо
+ * в буфере ({@link RequestHead}); поддерживаются keep-alive и pipelining. Циклы событий только
+ * читают и пишут: фильтры и обработчики выполняются в общем пуле потоков, так как работают
+ * с БД и внешними каналами. Маршрут выбирается, как и в HttpServer из JDK, по самому длинному
+ * совпадающему префиксу пути.
+ * </p>
+ * <p>
+ * Тело запроса читается целиком до вызова обработчика и ограничено maxBodyBytes;
+ * chunked-тела запросов не поддерживаются (501).
+ * </p>
+ */
+public final class NioHttpEngine implements HttpEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioHttpEngine.class);
+
+    private final InetSocketAddress address;
+    private final int bufferSize;
+    private final int maxBodyBytes;
+    private final long idleMillis;
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+    private final List<NioHttpContext> contexts = new ArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final byte[] notFound11 = notFound("HTTP/1.1");
+    private final byte[] notFound10 = notFound("HTTP/1.0");
+    private ServerSocketChannel serverChannel;
+    private volatile boolean stopping;
+    private volatile String date = formatDate();
+
+    /**
+     * @param port         порт
+     * @param loops        количество циклов событий
+     * @param threads      количество потоков обработки запросов
+     * @param bufferSize   размер буфера чтения; заголовок запроса должен в него помещаться
+     * @param maxBodyBytes максимальный размер тела запроса
+     * @param idleSeconds  через сколько секунд простоя закрывать соединение
+     */
+    public NioHttpEngine(int port, int loops, int threads, int bufferSize, int maxBodyBytes, long idleSeconds)
+            throws IOException {
+        this.address = new InetSocketAddress(port);
+        this.bufferSize = bufferSize;
+        this.maxBodyBytes = maxBodyBytes;
+        this.idleMillis = TimeUnit.SECONDS.toMillis(idleSeconds);
+        this.workers = Workers.newPool("http-", threads);
+        this.loops = new NioEventLoop[loops];
+        for (int i = 0; i < loops; i++) {
+            this.loops[i] = new NioEventLoop(this, "http-loop-" + i);
+        }
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler, List<Filter> filters) {
+        contexts.add(new NioHttpContext(path, handler, filters));
+        // Самые длинные префиксы проверяются первыми
+        contexts.sort(Comparator.comparingInt((NioHttpContext c) -> c.getPath().length()).reversed());
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+        loops[0].listen(serverChannel);
+        logger.info("NIO HTTP engine listening on {} with {} event loops", address, loops.length);
+    }
+
+    /**
+     * Закрывает слушающий сокет, ждёт завершения начатых запросов не дольше drainSeconds
+     * и останавливает циклы событий. Соединения между запросами закрываются сразу,
+     * ответы на начатые запросы уходят с Connection: close.
+     */
+    @Override
+    public void stop(int drainSeconds) {
+        stopping = true;
+        loops[0].execute(() -> {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close listener: {}", e.getMessage());
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (NioEventLoop loop : loops) {
+            loop.stop();
+        }
+        workers.shutdown();
+    }
+
+    NioHttpContext findContext(String path) {
+        for (NioHttpContext context : contexts) {
+            if (context.matches(path)) {
+                return context;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Передаёт обмен пулу обработки.
+     */
+    void dispatch(NioHttpExchange exchange, NioConnection connection) {
+        inFlight.incrementAndGet();
+        try {
+            workers.execute(() -> handle(exchange, connection));
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            connection.close();
+        }
+    }
+
+    private void handle(NioHttpExchange exchange, NioConnection connection) {
+        NioHttpContext context = (NioHttpContext) exchange.getHttpContext();
+        try {
+            new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+        } catch (Exception e) {
+            logger.error("Unhandled error for [{}] {}: {}", exchange.getRequestMethod(),
+                    exchange.getRequestURI().getPath(), e.getMessage(), e);
+            if (exchange.getResponseCode() == -1) {
+                try {
+                    exchange.sendResponseHeaders(500, -1);
+                } catch (IOException ignored) {
+                    // Соединение будет закрыто
+                }
+            }
+        } finally {
+            boolean keepAlive = exchange.finish();
+            inFlight.decrementAndGet();
+            connection.completeExchange(keepAlive);
+        }
+    }
+
+    NioEventLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    boolean isStopping() {
+        return stopping;
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    int maxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    long idleMillis() {
+        return idleMillis;
+    }
+
+    /** Значение заголовка Date, обновляется циклами событий раз в секунду */
+    String date() {
+        return date;
+    }
+
+    void updateDate() {
+        date = formatDate();
+    }
+
+    /** Готовый ответ 404 для пути без маршрута */
+    byte[] notFound(boolean http11) {
+        return http11 ? notFound11 : notFound10;
+    }
+
+    private static byte[] notFound(String protocol) {
+        return (protocol + " 404 Not Found\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String formatDate() {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+    }
+}
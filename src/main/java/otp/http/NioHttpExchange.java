@@ -0,0 +1,367 @@
+package otp.http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Обмен запрос-ответ {@link NioHttpEngine}.
+ * <p>
+ * Тело запроса к моменту вызова обработчика уже прочитано целиком. Ответ собирается в буфер
+ * и передаётся циклу событий соединения пачками; заголовок ответа уходит вместе с началом тела.
+ * Длина 0 в {@link #sendResponseHeaders} означает chunked-кодирование, -1 — ответ без тела.
+ * Если очередь записи соединения переполнена, поток обработчика ждёт, пока клиент её разберёт.
+ * Следующий запрос соединения читается только после возврата из обработчика, поэтому заголовки
+ * запроса, лежащие в буфере соединения, остаются доступны обработчику до конца.
+ * </p>
+ */
+final class NioHttpExchange extends HttpExchange {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final NioConnection connection;
+    private final NioHttpContext context;
+    private final RequestHead head;
+    private final String method;
+    private final boolean http11;
+    private final URI uri;
+    private final Headers responseHeaders = new Headers();
+    private final ResponseStream responseStream = new ResponseStream();
+    private final InputStream requestStream;
+    private Headers requestHeaders;
+    private InputStream in;
+    private OutputStream out;
+    private Map<String, Object> attributes;
+    private int responseCode = -1;
+    private boolean keepAlive;
+
+    NioHttpExchange(NioConnection connection, NioHttpContext context, RequestHead head, URI uri, byte[] body) {
+        this.connection = connection;
+        this.context = context;
+        this.head = head;
+        this.method = head.method;
+        this.http11 = head.http11;
+        this.uri = uri;
+        this.requestStream = new ByteArrayInputStream(body);
+        this.keepAlive = head.keepAlive;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        if (requestHeaders == null) {
+            requestHeaders = head.toHeaders();
+        }
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    /**
+     * Завершает ответ: дописывает тело (или закрывает соединение, если ответ не был отправлен).
+     */
+    @Override
+    public void close() {
+        try {
+            responseStream.close();
+        } catch (IOException e) {
+            connection.closeAsync();
+        }
+    }
+
+    /**
+     * Завершает обмен после возврата из обработчика.
+     *
+     * @return можно ли читать из соединения следующий запрос
+     */
+    boolean finish() {
+        try {
+            responseStream.close();
+            return keepAlive && responseStream.mode != ResponseStream.UNTIL_CLOSE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return in != null ? in : requestStream;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return out != null ? out : responseStream;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (responseCode != -1) {
+            throw new IOException("Response headers already sent");
+        }
+        responseCode = rCode;
+        if (connection.engine().isStopping()) {
+            keepAlive = false;
+        }
+
+        boolean noBody = responseLength < 0 || rCode == 204 || rCode == 304 || rCode < 200;
+        StringBuilder sb = new StringBuilder(128)
+                .append(http11 ? "HTTP/1.1 " : "HTTP/1.0 ").append(rCode).append(' ').append(reason(rCode)).append("\r\n")
+                .append("Date: ").append(connection.engine().date()).append("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                sb.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (noBody) {
+            if (rCode >= 200 && rCode != 204 && rCode != 304) {
+                sb.append("Content-Length: 0\r\n");
+            }
+            responseStream.mode = ResponseStream.EMPTY;
+        } else if (responseLength > 0) {
+            sb.append("Content-Length: ").append(responseLength).append("\r\n");
+            responseStream.mode = ResponseStream.FIXED;
+            responseStream.remaining = responseLength;
+        } else if (http11) {
+            sb.append("Transfer-Encoding: chunked\r\n");
+            responseStream.mode = ResponseStream.CHUNKED;
+        } else {
+            // HTTP/1.0 не знает chunked: конец тела обозначается закрытием соединения
+            keepAlive = false;
+            responseStream.mode = ResponseStream.UNTIL_CLOSE;
+        }
+        if (!keepAlive) {
+            sb.append("Connection: close\r\n");
+        }
+        sb.append("\r\n");
+        responseStream.writeRaw(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (noBody) {
+            responseStream.close();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.remoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.localAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return http11 ? "HTTP/1.1" : "HTTP/1.0";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes == null ? null : attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            in = i;
+        }
+        if (o != null) {
+            out = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    static String reason(int code) {
+        return switch (code) {
+            case 100 -> "Continue";
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 409 -> "Conflict";
+            case 413 -> "Payload Too Large";
+            case 415 -> "Unsupported Media Type";
+            case 422 -> "Unprocessable Entity";
+            case 429 -> "Too Many Requests";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 501 -> "Not Implemented";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            default -> "";
+        };
+    }
+
+    /**
+     * Поток тела ответа. Накапливает данные в буфере и передаёт их соединению при заполнении буфера,
+     * flush и close; в режиме chunked каждая передача оформляется отдельным фрагментом.
+     */
+    private final class ResponseStream extends OutputStream {
+        static final int NOT_SENT = 0;
+        static final int EMPTY = 1;
+        static final int FIXED = 2;
+        static final int CHUNKED = 3;
+        static final int UNTIL_CLOSE = 4;
+
+        private static final int BUFFER_SIZE = 8192;
+
+        int mode = NOT_SENT;
+        long remaining;
+        private byte[] buf = new byte[BUFFER_SIZE];
+        private int count;
+        private int bodyStart;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkWritable(len);
+            if (mode == FIXED) {
+                remaining -= len;
+            }
+            while (len > 0) {
+                if (count == buf.length) {
+                    send(false);
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mode != NOT_SENT && !closed && count > 0) {
+                send(false);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (mode == NOT_SENT) {
+                // Обработчик не отправил ответ: разорвать соединение — единственный честный вариант
+                throw new IOException("Exchange closed before response headers were sent");
+            }
+            if (mode == FIXED && remaining != 0) {
+                keepAlive = false;
+            }
+            send(true);
+        }
+
+        /** Записывает заголовок ответа в начало буфера */
+        void writeRaw(byte[] bytes) {
+            if (bytes.length > buf.length) {
+                buf = new byte[bytes.length + BUFFER_SIZE];
+            }
+            System.arraycopy(bytes, 0, buf, 0, bytes.length);
+            count = bytes.length;
+            bodyStart = count;
+        }
+
+        private void checkWritable(int len) throws IOException {
+            if (closed) {
+                throw new IOException("Response body is closed");
+            }
+            if (mode == NOT_SENT || mode == EMPTY) {
+                throw new IOException("Response has no body or headers were not sent");
+            }
+            if (mode == FIXED && len > remaining) {
+                throw new IOException("Too many bytes for the declared Content-Length");
+            }
+        }
+
+        /**
+         * Передаёт накопленные данные соединению. Буфер отдаётся целиком, новый выделяется заново,
+         * поскольку цикл событий пишет его уже после возврата из метода.
+         */
+        private void send(boolean last) throws IOException {
+            ByteBuffer data;
+            if (mode == CHUNKED) {
+                data = chunk(last);
+            } else {
+                if (count == 0) {
+                    return;
+                }
+                data = ByteBuffer.wrap(buf, 0, count);
+            }
+            buf = last ? null : new byte[BUFFER_SIZE];
+            count = 0;
+            bodyStart = 0;
+            connection.write(data);
+        }
+
+        private ByteBuffer chunk(boolean last) {
+            int size = count - bodyStart;
+            byte[] sizeLine = size > 0 ? (Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.US_ASCII) : new byte[0];
+            byte[] tail = last ? LAST_CHUNK : new byte[0];
+            ByteBuffer data = ByteBuffer.allocate(count + sizeLine.length + (size > 0 ? CRLF.length : 0) + tail.length);
+            data.put(buf, 0, bodyStart).put(sizeLine).put(buf, bodyStart, size);
+            if (size > 0) {
+                data.put(CRLF);
+            }
+            return data.put(tail).flip();
+        }
+    }
+}
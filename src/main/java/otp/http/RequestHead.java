@@ -0,0 +1,220 @@
+package otp.http;
+
+import com.sun.net.httpserver.Headers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Разбор заголовка HTTP/1.x-запроса прямо в буфере соединения, без копирования.
+ * <p>
+ * Строка запроса и заголовки запоминаются смещениями в буфере. Строки создаются только
+ * для метода и цели запроса; {@link Headers} собираются при первом обращении обработчика.
+ * Заголовки, от которых зависит разбор (Content-Length, Transfer-Encoding, Connection, Expect),
+ * распознаются сравнением байтов. Буфер не должен меняться, пока запрос обрабатывается.
+ * Объект переиспользуется для всех запросов соединения.
+ * </p>
+ */
+final class RequestHead {
+    private static final int MAX_HEADERS = 100;
+
+    private static final byte[] CONTENT_LENGTH = bytes("content-length");
+    private static final byte[] TRANSFER_ENCODING = bytes("transfer-encoding");
+    private static final byte[] CONNECTION = bytes("connection");
+    private static final byte[] EXPECT = bytes("expect");
+    private static final byte[] CLOSE = bytes("close");
+    private static final byte[] KEEP_ALIVE = bytes("keep-alive");
+    private static final byte[] CONTINUE = bytes("100-continue");
+
+    private ByteBuffer buffer;
+    private int scanned;
+
+    String method;
+    String target;
+    boolean http11;
+    long contentLength;
+    boolean chunked;
+    boolean keepAlive;
+    boolean expectContinue;
+
+    private int headerCount;
+    private int[] offsets = new int[16 * 4];
+
+    /** Сбрасывает состояние перед разбором следующего запроса */
+    void reset() {
+        buffer = null;
+        scanned = 0;
+        method = null;
+        target = null;
+        headerCount = 0;
+    }
+
+    /**
+     * Разбирает заголовок запроса в buffer[start, limit).
+     *
+     * @return позиция начала тела или -1, если заголовок пришёл не полностью
+     * @throws HttpParseException при некорректном запросе
+     */
+    int parse(ByteBuffer buffer, int start, int limit) throws HttpParseException {
+        // Ищем конец заголовка; уже просмотренную часть повторно не сканируем
+        int end = -1;
+        for (int i = Math.max(start, scanned - 3); i + 3 < limit; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n' && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            scanned = limit;
+            return -1;
+        }
+
+        this.buffer = buffer;
+        contentLength = 0;
+        chunked = false;
+        expectContinue = false;
+        headerCount = 0;
+
+        // Строка запроса: METHOD SP target SP HTTP/1.x CRLF
+        int lineEnd = indexOf(buffer, start, end + 2, '\r');
+        int sp1 = indexOf(buffer, start, lineEnd, ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(buffer, sp1 + 1, lineEnd, ' ');
+        if (sp1 <= start || sp2 <= sp1 + 1 || lineEnd - sp2 != 9 || !isHttpVersion(buffer, sp2 + 1)) {
+            throw new HttpParseException(400, "Malformed request line");
+        }
+        method = ascii(buffer, start, sp1);
+        target = ascii(buffer, sp1 + 1, sp2);
+        http11 = buffer.get(sp2 + 8) == '1';
+        keepAlive = http11;
+
+        // Заголовки: name ":" OWS value OWS CRLF
+        int pos = lineEnd + 2;
+        while (pos < end + 2) {
+            int eol = indexOf(buffer, pos, end + 2, '\r');
+            int colon = indexOf(buffer, pos, eol, ':');
+            if (colon <= pos) {
+                throw new HttpParseException(400, "Malformed header");
+            }
+            int valueStart = colon + 1;
+            while (valueStart < eol && isSpace(buffer.get(valueStart))) {
+                valueStart++;
+            }
+            int valueEnd = eol;
+            while (valueEnd > valueStart && isSpace(buffer.get(valueEnd - 1))) {
+                valueEnd--;
+            }
+            addHeader(pos, colon, valueStart, valueEnd);
+            pos = eol + 2;
+        }
+        return end + 4;
+    }
+
+    /**
+     * Собирает заголовки запроса в {@link Headers}.
+     */
+    Headers toHeaders() {
+        Headers headers = new Headers();
+        for (int i = 0; i < headerCount; i++) {
+            int o = i * 4;
+            headers.add(ascii(buffer, offsets[o], offsets[o + 1]), latin1(buffer, offsets[o + 2], offsets[o + 3]));
+        }
+        return headers;
+    }
+
+    private void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) throws HttpParseException {
+        if (headerCount == MAX_HEADERS) {
+            throw new HttpParseException(431, "Too many headers");
+        }
+        int o = headerCount * 4;
+        if (o + 4 > offsets.length) {
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        offsets[o] = nameStart;
+        offsets[o + 1] = nameEnd;
+        offsets[o + 2] = valueStart;
+        offsets[o + 3] = valueEnd;
+        headerCount++;
+
+        if (equalsIgnoreCase(buffer, nameStart, nameEnd, CONTENT_LENGTH)) {
+            contentLength = parseLength(valueStart, valueEnd);
+        } else if (equalsIgnoreCase(buffer, nameStart, nameEnd, TRANSFER_ENCODING)) {
+            chunked = true;
+        } else if (equalsIgnoreCase(buffer, nameStart, nameEnd, CONNECTION)) {
+            if (equalsIgnoreCase(buffer, valueStart, valueEnd, CLOSE)) {
+                keepAlive = false;
+            } else if (equalsIgnoreCase(buffer, valueStart, valueEnd, KEEP_ALIVE)) {
+                keepAlive = true;
+            }
+        } else if (equalsIgnoreCase(buffer, nameStart, nameEnd, EXPECT)) {
+            expectContinue = equalsIgnoreCase(buffer, valueStart, valueEnd, CONTINUE);
+        }
+    }
+
+    private long parseLength(int from, int to) throws HttpParseException {
+        if (from == to || to - from > 18) {
+            throw new HttpParseException(400, "Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new HttpParseException(400, "Invalid Content-Length");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isHttpVersion(ByteBuffer b, int i) {
+        return b.get(i) == 'H' && b.get(i + 1) == 'T' && b.get(i + 2) == 'T' && b.get(i + 3) == 'P'
+                && b.get(i + 4) == '/' && b.get(i + 5) == '1' && b.get(i + 6) == '.'
+                && (b.get(i + 7) == '0' || b.get(i + 7) == '1');
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int indexOf(ByteBuffer b, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (b.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuffer b, int from, int to, byte[] lower) {
+        if (to - from != lower.length) {
+            return false;
+        }
+        for (int i = 0; i < lower.length; i++) {
+            int c = b.get(from + i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lower[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(ByteBuffer b, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        b.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static String latin1(ByteBuffer b, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        b.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,373 @@
+package otp.http;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Таблица маршрутов, собираемая при старте в префиксное дерево по сегментам пути.
+ * <p>
+ * Маршрут задаётся методом, шаблоном пути, требуемым Content-Type и цепочкой фильтров.
+ * Шаблон состоит из статических сегментов и параметров: {name} — любой непустой сегмент,
+ * {name:long} — только десятичное число, помещающееся в long. Статический сегмент
+ * имеет приоритет над параметром. Поиск идёт по строке пути без разбиения на части и без выделения
+ * памяти, за время, пропорциональное длине пути. Завершающий '/' игнорируется.
+ * </p>
+ * <p>
+ * Ответы 404, 405 (с заголовком Allow) и 415 подготовлены заранее и отправляются до фильтров,
+ * поэтому неподходящие запросы не доходят до аутентификации и контроллеров.
+ * Найденный маршрут и значения параметров доступны обработчику через {@link #routeOf}, {@link #longParam}
+ * и {@link #param}.
+ * </p>
+ */
+public final class RouteTable implements HttpHandler {
+    private static final String ROUTE_ATTRIBUTE = RouteTable.class.getName() + ".route";
+    private static final String PARAMS_ATTRIBUTE = RouteTable.class.getName() + ".params";
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "PATCH", "DELETE", "HEAD", "OPTIONS"};
+
+    private static final byte[] NOT_FOUND = errorBody("Not Found");
+    private static final byte[] METHOD_NOT_ALLOWED = errorBody("Method Not Allowed");
+
+    private final Node root;
+
+    private RouteTable(Node root) {
+        this.root = root;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Node node = path == null ? null : match(path);
+        if (node == null || node.allow == null) {
+            send(exchange, 404, NOT_FOUND);
+            return;
+        }
+        int method = methodIndex(exchange.getRequestMethod());
+        Route route = method < 0 ? null : node.routes[method];
+        if (route == null) {
+            exchange.getResponseHeaders().set("Allow", node.allow);
+            send(exchange, 405, METHOD_NOT_ALLOWED);
+            return;
+        }
+        if (route.consumes != null && !accepts(exchange.getRequestHeaders().getFirst("Content-Type"), route.consumes)) {
+            send(exchange, 415, route.unsupportedMediaType);
+            return;
+        }
+
+        exchange.setAttribute(ROUTE_ATTRIBUTE, route);
+        if (route.paramCount > 0) {
+            exchange.setAttribute(PARAMS_ATTRIBUTE, new PathParams(route, path));
+        }
+        new Filter.Chain(route.filters, route.handler).doFilter(exchange);
+    }
+
+    /**
+     * Шаблон маршрута, выбранного для запроса, например "/admin/users/{id:long}".
+     *
+     * @return шаблон или null, если запрос прошёл не через таблицу маршрутов
+     */
+    public static String routeOf(HttpExchange exchange) {
+        Route route = (Route) exchange.getAttribute(ROUTE_ATTRIBUTE);
+        return route == null ? null : route.pattern;
+    }
+
+    /**
+     * Значение числового параметра пути {name:long}.
+     */
+    public static long longParam(HttpExchange exchange, String name) {
+        return Long.parseLong(param(exchange, name));
+    }
+
+    /**
+     * Значение параметра пути.
+     *
+     * @throws IllegalArgumentException если у маршрута нет такого параметра
+     */
+    public static String param(HttpExchange exchange, String name) {
+        PathParams params = (PathParams) exchange.getAttribute(PARAMS_ATTRIBUTE);
+        if (params == null) {
+            throw new IllegalArgumentException("No path parameter " + name);
+        }
+        return params.get(name);
+    }
+
+    /**
+     * Ищет узел по пути. Сегменты сравниваются с детьми узла прямо в строке пути.
+     */
+    private Node match(String path) {
+        int length = path.length();
+        if (length > 1 && path.charAt(length - 1) == '/') {
+            length--;
+        }
+        Node node = root;
+        int pos = 1;
+        while (node != null && pos < length) {
+            int end = path.indexOf('/', pos);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            node = node.child(path, pos, end);
+            pos = end + 1;
+        }
+        return node;
+    }
+
+    private static int methodIndex(String method) {
+        return switch (method) {
+            case "GET" -> 0;
+            case "POST" -> 1;
+            case "PUT" -> 2;
+            case "PATCH" -> 3;
+            case "DELETE" -> 4;
+            case "HEAD" -> 5;
+            case "OPTIONS" -> 6;
+            default -> -1;
+        };
+    }
+
+    private static boolean accepts(String contentType, String mediaType) {
+        return contentType != null
+                && contentType.regionMatches(true, 0, mediaType, 0, mediaType.length())
+                && (contentType.length() == mediaType.length() || contentType.charAt(mediaType.length()) == ';'
+                        || contentType.charAt(mediaType.length()) == ' ');
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static byte[] errorBody(String message) {
+        return ("{\"error\":\"" + message + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Построитель таблицы маршрутов.
+     */
+    public static final class Builder {
+        private final Node root = new Node();
+
+        private Builder() {}
+
+        /**
+         * Добавляет маршрут.
+         *
+         * @param method   HTTP-метод
+         * @param pattern  шаблон пути, например "/admin/users/{id:long}"
+         * @param consumes требуемый Content-Type запроса или null, если тело не проверяется
+         * @param handler  обработчик
+         * @param filters  фильтры, выполняемые перед обработчиком
+         * @throws IllegalArgumentException если маршрут с таким методом и шаблоном уже есть или шаблон некорректен
+         */
+        public Builder route(String method, String pattern, String consumes, HttpHandler handler, List<Filter> filters) {
+            int index = methodIndex(method);
+            if (index < 0 || !pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Invalid route " + method + " " + pattern);
+            }
+            Node node = root;
+            List<String> names = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            int position = 0;
+            for (String segment : pattern.substring(1).split("/")) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+                if (segment.startsWith("{") && segment.endsWith("}")) {
+                    positions.add(position);
+                    String spec = segment.substring(1, segment.length() - 1);
+                    int colon = spec.indexOf(':');
+                    String type = colon < 0 ? "string" : spec.substring(colon + 1);
+                    if (!type.equals("string") && !type.equals("long")) {
+                        throw new IllegalArgumentException("Unknown parameter type in " + pattern);
+                    }
+                    names.add(colon < 0 ? spec : spec.substring(0, colon));
+                    node = node.paramChild(type.equals("long"), pattern);
+                } else {
+                    node = node.staticChild(segment);
+                }
+                position++;
+            }
+            if (node.routes[index] != null) {
+                throw new IllegalArgumentException("Duplicate route " + method + " " + pattern);
+            }
+            int[] segments = positions.stream().mapToInt(Integer::intValue).toArray();
+            node.routes[index] = new Route(pattern, consumes, handler, filters, names.toArray(new String[0]), segments);
+            return this;
+        }
+
+        /**
+         * Собирает таблицу: для каждого узла готовит заголовок Allow.
+         */
+        public RouteTable build() {
+            root.seal();
+            return new RouteTable(root);
+        }
+    }
+
+    /** Маршрут: шаблон, ограничения и обработчик */
+    private static final class Route {
+        final String pattern;
+        final String consumes;
+        final HttpHandler handler;
+        final List<Filter> filters;
+        final String[] paramNames;
+        final int[] paramSegments;
+        final int paramCount;
+        final byte[] unsupportedMediaType;
+
+        Route(String pattern, String consumes, HttpHandler handler, List<Filter> filters,
+              String[] paramNames, int[] paramSegments) {
+            this.pattern = pattern;
+            this.consumes = consumes;
+            this.handler = handler;
+            this.filters = List.copyOf(filters);
+            this.paramNames = paramNames;
+            this.paramSegments = paramSegments;
+            this.paramCount = paramNames.length;
+            this.unsupportedMediaType = consumes == null ? null : errorBody("Content-Type must be " + consumes);
+        }
+    }
+
+    /** Узел дерева: статические дети, необязательный параметр и маршруты по методам */
+    private static final class Node {
+        String[] segments = new String[0];
+        Node[] children = new Node[0];
+        Node param;
+        boolean longParam;
+        String paramPattern;
+        final Route[] routes = new Route[METHODS.length];
+        String allow;
+
+        Node staticChild(String segment) {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].equals(segment)) {
+                    return children[i];
+                }
+            }
+            String[] s = new String[segments.length + 1];
+            Node[] c = new Node[children.length + 1];
+            System.arraycopy(segments, 0, s, 0, segments.length);
+            System.arraycopy(children, 0, c, 0, children.length);
+            s[segments.length] = segment;
+            c[children.length] = new Node();
+            segments = s;
+            children = c;
+            return c[children.length - 1];
+        }
+
+        Node paramChild(boolean isLong, String pattern) {
+            if (param == null) {
+                param = new Node();
+                longParam = isLong;
+                paramPattern = pattern;
+            } else if (longParam != isLong) {
+                throw new IllegalArgumentException("Conflicting parameter types in " + paramPattern + " and " + pattern);
+            }
+            return param;
+        }
+
+        Node child(String path, int from, int to) {
+            int length = to - from;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.length() == length && path.regionMatches(from, segment, 0, length)) {
+                    return children[i];
+                }
+            }
+            if (param == null || length == 0) {
+                return null;
+            }
+            if (longParam && !isLong(path, from, to)) {
+                return null;
+            }
+            return param;
+        }
+
+        void seal() {
+            StringJoiner joiner = new StringJoiner(", ");
+            for (int i = 0; i < routes.length; i++) {
+                if (routes[i] != null) {
+                    joiner.add(METHODS[i]);
+                }
+            }
+            allow = joiner.length() == 0 ? null : joiner.toString();
+            for (Node child : children) {
+                child.seal();
+            }
+            if (param != null) {
+                param.seal();
+            }
+        }
+
+        /** Проверяет, что сегмент — десятичное число в пределах long, без создания строки */
+        private static boolean isLong(String path, int from, int to) {
+            int i = from;
+            boolean negative = path.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            if (i == to || to - i > 19) {
+                return false;
+            }
+            long value = 0;
+            for (; i < to; i++) {
+                int digit = path.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return false;
+                }
+                // Переполнение: накапливаем в отрицательную сторону, как Long.parseLong
+                if (value < (Long.MIN_VALUE + digit) / 10) {
+                    return false;
+                }
+                value = value * 10 - digit;
+            }
+            return negative || value != Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Значения параметров пути запроса; сегмент вырезается из пути при обращении к параметру.
+     */
+    private static final class PathParams {
+        private final Route route;
+        private final String path;
+
+        PathParams(Route route, String path) {
+            this.route = route;
+            this.path = path;
+        }
+
+        String get(String name) {
+            for (int i = 0; i < route.paramCount; i++) {
+                if (route.paramNames[i].equals(name)) {
+                    return segment(route.paramSegments[i]);
+                }
+            }
+            throw new IllegalArgumentException("No path parameter " + name + " in " + route.pattern);
+        }
+
+        private String segment(int index) {
+            int from = 1;
+            for (int i = 0; i < index; i++) {
+                from = path.indexOf('/', from) + 1;
+            }
+            int to = path.indexOf('/', from);
+            return path.substring(from, to < 0 ? path.length() : to);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package otp.http;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пулы потоков обработки запросов для HTTP-движков.
+ */
+final class Workers {
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private Workers() {}
+
+    /**
+     * Пул фиксированного размера из потоков-демонов prefix1, prefix2, ...
+     */
+    static ExecutorService newPool(String prefix, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,25 @@
+package otp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Проверка токена и роли в фильтре аутентификации.
+ */
+@Name("otp.AuthCheck")
+@Label("Auth Check")
+@Category({"OTP", "HTTP"})
+@Description("Проверка Bearer-токена и роли: OK, MISSING, INVALID_TOKEN или FORBIDDEN")
+public final class AuthCheckEvent extends Event {
+    @Label("Required Role")
+    public String requiredRole;
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("User Id")
+    public long userId;
+}
@@ -0,0 +1,43 @@
+package otp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Выполнение SQL-запроса.
+ */
+@Name("otp.DbStatement")
+@Label("DB Statement")
+@Category({"OTP", "Database"})
+@Description("Выполнение JDBC-запроса; SQL Id — короткий устойчивый идентификатор текста запроса")
+public final class DbStatementEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(DbStatementEvent.class);
+
+    @Label("SQL Id")
+    public String sqlId;
+
+    @Label("SQL")
+    public String sql;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Failed")
+    public boolean failed;
+
+    /**
+     * Включено ли событие в какой-либо записи: если нет, запросы не оборачиваются вовсе.
+     */
+    public static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+
+    /** Идентификатор запроса: хеш текста SQL в hex */
+    public static String sqlId(String sql) {
+        return sql == null ? null : Integer.toHexString(sql.hashCode());
+    }
+}
@@ -0,0 +1,22 @@
+package otp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Отправка OTP-кода по каналу; длительность события — время отправки.
+ */
+@Name("otp.OtpDelivered")
+@Label("OTP Delivered")
+@Category({"OTP", "Lifecycle"})
+@Description("Код отправлен пользователю (или отправка завершилась ошибкой)")
+public final class OtpDeliveredEvent extends Event {
+    @Label("Channel")
+    public String channel;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,25 @@
+package otp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Выпуск OTP-кода: генерация и сохранение (в памяти или в БД).
+ */
+@Name("otp.OtpGenerated")
+@Label("OTP Generated")
+@Category({"OTP", "Lifecycle"})
+@Description("Код сгенерирован и сохранён")
+public final class OtpGeneratedEvent extends Event {
+    @Label("User Id")
+    public long userId;
+
+    @Label("Operation Id")
+    public String operationId;
+
+    @Label("Code Length")
+    public int length;
+}
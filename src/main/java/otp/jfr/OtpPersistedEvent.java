@@ -0,0 +1,19 @@
+package otp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Запись OTP-кодов в БД одной вставкой.
+ */
+@Name("otp.OtpPersisted")
+@Label("OTP Persisted")
+@Category({"OTP", "Lifecycle"})
+@Description("Коды записаны в таблицу OTP-кодов")
+public final class OtpPersistedEvent extends Event {
+    @Label("Codes")
+    public int count;
+}
@@ -0,0 +1,28 @@
+package otp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Проверка OTP-кода или пачки кодов.
+ */
+@Name("otp.OtpValidated")
+@Label("OTP Validated")
+@Category({"OTP", "Lifecycle"})
+@Description("Проверка кода: результат, для пачки — число принятых кодов")
+public final class OtpValidatedEvent extends Event {
+    @Label("User Id")
+    public long userId;
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("Codes")
+    public int items;
+
+    @Label("Accepted")
+    public int accepted;
+}
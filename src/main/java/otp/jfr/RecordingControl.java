@@ -0,0 +1,132 @@
+package otp.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Запись JDK Flight Recorder по требованию администратора.
+ * <p>
+ * Одновременно идёт не больше одной записи. Она ограничена по длительности и размеру
+ * (запрошенные значения срезаются до maxDurationSeconds и maxSizeMb), сама останавливается
+ * по истечении длительности и сохраняется в файл каталога записей. Помимо событий выбранного
+ * набора настроек JDK (default или profile) включаются все события OTP.
+ * </p>
+ */
+public final class RecordingControl {
+    private static final Logger logger = LoggerFactory.getLogger(RecordingControl.class);
+
+    private static final List<String> SETTINGS = List.of("default", "profile");
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path directory;
+    private final long maxDurationSeconds;
+    private final long maxSizeMb;
+
+    private Recording recording;
+    private Path destination;
+
+    /**
+     * @param directory          каталог для файлов записей
+     * @param maxDurationSeconds наибольшая длительность записи
+     * @param maxSizeMb          наибольший размер записи в мегабайтах
+     */
+    public RecordingControl(Path directory, long maxDurationSeconds, long maxSizeMb) {
+        this.directory = directory;
+        this.maxDurationSeconds = maxDurationSeconds;
+        this.maxSizeMb = maxSizeMb;
+    }
+
+    /**
+     * Начинает запись.
+     *
+     * @param durationSeconds длительность; не больше maxDurationSeconds
+     * @param sizeMb          предельный размер; не больше maxSizeMb
+     * @param settings        набор настроек JDK: default или profile
+     * @return файл, в который будет сохранена запись
+     * @throws IllegalArgumentException если параметры некорректны
+     * @throws IllegalStateException    если запись уже идёт
+     */
+    public synchronized Path start(long durationSeconds, long sizeMb, String settings) throws IOException {
+        if (durationSeconds <= 0 || sizeMb <= 0 || !SETTINGS.contains(settings)) {
+            throw new IllegalArgumentException("Invalid duration, maxSizeMb or settings");
+        }
+        if (isRunning()) {
+            throw new IllegalStateException("Recording is already running");
+        }
+        close();
+
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(settings);
+        } catch (ParseException e) {
+            throw new IOException("Invalid JFR configuration " + settings, e);
+        }
+        Duration duration = Duration.ofSeconds(Math.min(durationSeconds, maxDurationSeconds));
+        Files.createDirectories(directory);
+        Path file = directory.resolve("otp-" + LocalDateTime.now().format(FILE_TIME) + ".jfr").toAbsolutePath();
+
+        Recording r = new Recording(configuration);
+        r.setName("otp-admin");
+        r.enable(OtpGeneratedEvent.class);
+        r.enable(OtpPersistedEvent.class);
+        r.enable(OtpDeliveredEvent.class);
+        r.enable(OtpValidatedEvent.class);
+        r.enable(DbStatementEvent.class);
+        r.enable(AuthCheckEvent.class);
+        r.setToDisk(true);
+        r.setMaxSize(Math.min(sizeMb, maxSizeMb) * 1024 * 1024);
+        r.setMaxAge(duration);
+        r.setDuration(duration);
+        r.setDestination(file);
+        r.start();
+
+        recording = r;
+        destination = file;
+        logger.info("JFR recording started: settings={}, duration={}s, file={}", settings, duration.toSeconds(), file);
+        return file;
+    }
+
+    /**
+     * Останавливает запись (если она ещё идёт) и возвращает файл с ней.
+     *
+     * @throws IllegalStateException если запись не начиналась
+     */
+    public synchronized Path stop() throws IOException {
+        if (recording == null) {
+            throw new IllegalStateException("No recording to stop");
+        }
+        Path file = destination;
+        if (recording.getState() == RecordingState.RUNNING) {
+            // Запись сохраняется в destination при остановке
+            recording.stop();
+        }
+        close();
+        logger.info("JFR recording stopped: file={}", file);
+        return file;
+    }
+
+    /** @return идёт ли запись */
+    public synchronized boolean isRunning() {
+        return recording != null && recording.getState() == RecordingState.RUNNING;
+    }
+
+    private void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+            destination = null;
+        }
+    }
+}
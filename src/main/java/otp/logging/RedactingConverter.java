@@ -0,0 +1,52 @@
+package otp.logging;
+
+import ch.qos.logback.classic.pattern.ClassicConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.regex.Pattern;
+
+/**
+ * Конвертер %redactedMsg: сообщение события с замаскированными секретами.
+ * <p>
+ * Последний рубеж на случай, если секрет всё же попал в аргументы лога: значения после
+ * code=, password=, token=, hash= (и с двоеточием), хеши паролей PBKDF2 и JWT заменяются на ***.
+ * Регулярные выражения применяются только к сообщениям, где есть '=', ':' или '$',
+ * поэтому обычные строки проходят без копирования.
+ * </p>
+ * <pre>
+ * &lt;conversionRule conversionWord="redactedMsg" converterClass="otp.logging.RedactingConverter"/&gt;
+ * </pre>
+ */
+public class RedactingConverter extends ClassicConverter {
+    private static final Pattern KEY_VALUE = Pattern.compile(
+            "(?i)\\b((?:otp|input)?code|password(?:hash)?|hash|token|secret)(\\s*[=:]\\s*['\"]?)[^\\s'\",;}\\]]+");
+    private static final Pattern PASSWORD_HASH = Pattern.compile("pbkdf2-sha256\\$[0-9]+\\$[0-9a-fA-F]+\\$[0-9a-fA-F]+");
+    private static final Pattern JWT = Pattern.compile("eyJ[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]*");
+
+    @Override
+    public String convert(ILoggingEvent event) {
+        return redact(event.getFormattedMessage());
+    }
+
+    /**
+     * Маскирует секреты в строке.
+     */
+    public static String redact(String message) {
+        if (message == null || !mayContainSecret(message)) {
+            return message;
+        }
+        String result = KEY_VALUE.matcher(message).replaceAll("$1$2***");
+        if (result.indexOf('$') >= 0) {
+            result = PASSWORD_HASH.matcher(result).replaceAll("***");
+        }
+        if (result.contains("eyJ")) {
+            result = JWT.matcher(result).replaceAll("***");
+        }
+        return result;
+    }
+
+    private static boolean mayContainSecret(String message) {
+        return message.indexOf('=') >= 0 || message.indexOf(':') >= 0 || message.indexOf('$') >= 0
+                || message.contains("eyJ");
+    }
+}
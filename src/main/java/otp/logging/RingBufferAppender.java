@@ -0,0 +1,276 @@
+package otp.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронный неблокирующий appender logback поверх кольцевого буфера.
+ * <p>
+ * Потоки приложения только кладут событие в ограниченное кольцо (без блокировок, одним CAS);
+ * вложенные appender'ы вызываются отдельным потоком. Если кольцо заполнено больше чем на
+ * discardingThreshold процентов, события уровня discardLevel и ниже отбрасываются;
+ * если заполнено целиком — отбрасывается любое событие. Поток приложения никогда не ждёт вывода.
+ * Отброшенные события считаются ({@link #droppedEvents()}), а раз в секунду о них пишется
+ * предупреждение в этот же журнал.
+ * </p>
+ * <pre>
+ * &lt;appender name="ASYNC" class="otp.logging.RingBufferAppender"&gt;
+ *     &lt;capacity&gt;8192&lt;/capacity&gt;
+ *     &lt;appender-ref ref="STDOUT"/&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferAppender.class);
+
+    /** Отброшено всеми экземплярами с запуска */
+    private static final LongAdder DROPPED = new LongAdder();
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+
+    private int capacity = 8192;
+    private int discardingThreshold = 80;
+    private Level discardLevel = Level.INFO;
+    private long maxFlushMillis = 1000;
+
+    private Ring ring;
+    private int discardAbove;
+    private Thread worker;
+    private volatile boolean running;
+    private final LongAdder dropped = new LongAdder();
+
+    /** @return сколько событий отброшено всеми асинхронными appender'ами с запуска */
+    public static long droppedEvents() {
+        return DROPPED.sum();
+    }
+
+    /** Ёмкость кольца; округляется вверх до степени двойки */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Процент заполнения, начиная с которого отбрасываются события уровня discardLevel и ниже */
+    public void setDiscardingThreshold(int discardingThreshold) {
+        this.discardingThreshold = discardingThreshold;
+    }
+
+    /** Наибольший уровень, отбрасываемый при заполнении выше порога (по умолчанию INFO) */
+    public void setDiscardLevel(String discardLevel) {
+        this.discardLevel = Level.toLevel(discardLevel, Level.INFO);
+    }
+
+    /** Сколько миллисекунд при остановке дописывать оставшиеся события */
+    public void setMaxFlushMillis(long maxFlushMillis) {
+        this.maxFlushMillis = maxFlushMillis;
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (!appenders.iteratorForAppenders().hasNext()) {
+            addError("No appender-ref attached to " + getName());
+            return;
+        }
+        ring = new Ring(capacity);
+        discardAbove = ring.capacity() * Math.max(0, Math.min(100, discardingThreshold)) / 100;
+        running = true;
+        worker = new Thread(this::drain, "log-" + getName());
+        worker.setDaemon(true);
+        worker.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(maxFlushMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            addWarn("Log events were not flushed within " + maxFlushMillis + " ms");
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (ring.size() >= discardAbove && event.getLevel().toInt() <= discardLevel.toInt()) {
+            drop();
+            return;
+        }
+        // Сообщение и MDC фиксируются в потоке приложения: вывод будет в другом потоке
+        event.prepareForDeferredProcessing();
+        if (!ring.offer(event)) {
+            drop();
+        }
+    }
+
+    private void drop() {
+        dropped.increment();
+        DROPPED.increment();
+    }
+
+    /**
+     * Цикл потока вывода: передаёт события вложенным appender'ам, раз в секунду сообщает об отброшенных.
+     */
+    private void drain() {
+        long reportedDropped = 0;
+        long nextReport = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        int idle = 0;
+        while (true) {
+            ILoggingEvent event = ring.poll();
+            if (event != null) {
+                idle = 0;
+                appendToAll(event);
+                continue;
+            }
+            if (!running) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - nextReport >= 0) {
+                nextReport = now + TimeUnit.SECONDS.toNanos(1);
+                long total = dropped.sum();
+                if (total > reportedDropped) {
+                    logger.warn("Log buffer {} full: dropped {} events (total {})", getName(), total - reportedDropped, total);
+                    reportedDropped = total;
+                }
+            }
+            // Короткое ожидание вместо сигнала от производителей: записи не платят за пробуждение потока
+            idle = Math.min(idle + 1, 10);
+            LockSupport.parkNanos(idle * 100_000L);
+        }
+    }
+
+    private void appendToAll(ILoggingEvent event) {
+        try {
+            appenders.appendLoopOnAppenders(event);
+        } catch (RuntimeException e) {
+            addError("Failed to append log event", e);
+        }
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+
+    /**
+     * Ограниченное кольцо «много производителей — один потребитель».
+     * У каждой ячейки есть номер последовательности: производитель занимает позицию CAS-ом
+     * хвоста и публикует событие записью номера, потребитель читает ячейку после его проверки.
+     */
+    private static final class Ring {
+        private final ILoggingEvent[] items;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        Ring(int requested) {
+            int size = Integer.highestOneBit(Math.max(2, requested - 1)) << 1;
+            items = new ILoggingEvent[size];
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            mask = size - 1;
+        }
+
+        int capacity() {
+            return items.length;
+        }
+
+        int size() {
+            return (int) (tail.get() - head.get());
+        }
+
+        boolean offer(ILoggingEvent event) {
+            long pos = tail.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long diff = sequences.get(index) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        items[index] = event;
+                        sequences.set(index, pos + 1);
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    // Ячейка ещё не освобождена потребителем: кольцо заполнено
+                    return false;
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        /** Вызывается только потоком вывода */
+        ILoggingEvent poll() {
+            long pos = head.get();
+            int index = (int) (pos & mask);
+            if (sequences.get(index) != pos + 1) {
+                return null;
+            }
+            ILoggingEvent event = items[index];
+            items[index] = null;
+            sequences.set(index, pos + items.length);
+            head.lazySet(pos + 1);
+            return event;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package otp.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выборка событий горячих логгеров по частоте.
+ * <p>
+ * Для логгеров с префиксами из loggers события уровня INFO и ниже пропускаются так:
+ * первые burstPerSecond за секунду — все, дальше — каждое sampleEvery-е. WARN и ERROR
+ * не ограничиваются. Счётчик ведётся по каждому логгеру отдельно, поэтому шумный DAO
+ * не вытесняет редкие события других классов. Проверки уровня без сообщения
+ * (isDebugEnabled) не учитываются.
+ * </p>
+ * <pre>
+ * &lt;turboFilter class="otp.logging.SamplingTurboFilter"&gt;
+ *     &lt;loggers&gt;otp.api,otp.service,otp.dao&lt;/loggers&gt;
+ *     &lt;burstPerSecond&gt;50&lt;/burstPerSecond&gt;
+ *     &lt;sampleEvery&gt;100&lt;/sampleEvery&gt;
+ * &lt;/turboFilter&gt;
+ * </pre>
+ */
+public class SamplingTurboFilter extends TurboFilter {
+    private final List<String> prefixes = new ArrayList<>();
+    private long burstPerSecond = 50;
+    private long sampleEvery = 100;
+
+    /** Окно текущей секунды по логгеру; null — логгер не ограничивается */
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private static final Window UNLIMITED = new Window();
+
+    /** Префиксы имён логгеров через запятую */
+    public void setLoggers(String loggers) {
+        for (String prefix : loggers.split(",")) {
+            if (!prefix.isBlank()) {
+                prefixes.add(prefix.trim());
+            }
+        }
+    }
+
+    public void setBurstPerSecond(long burstPerSecond) {
+        this.burstPerSecond = burstPerSecond;
+    }
+
+    public void setSampleEvery(long sampleEvery) {
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (format == null || level.isGreaterOrEqual(Level.WARN) || !logger.isEnabledFor(level)) {
+            return FilterReply.NEUTRAL;
+        }
+        Window window = windows.computeIfAbsent(logger.getName(), this::windowFor);
+        if (window == UNLIMITED) {
+            return FilterReply.NEUTRAL;
+        }
+        long n = window.next(System.currentTimeMillis() / 1000);
+        if (n <= burstPerSecond || (n - burstPerSecond) % sampleEvery == 0) {
+            return FilterReply.NEUTRAL;
+        }
+        return FilterReply.DENY;
+    }
+
+    private Window windowFor(String name) {
+        for (String prefix : prefixes) {
+            if (name.equals(prefix) || name.startsWith(prefix + ".")) {
+                return new Window();
+            }
+        }
+        return UNLIMITED;
+    }
+
+    /**
+     * Счётчик событий логгера за текущую секунду. Смена секунды не атомарна со счётом:
+     * на границе пара лишних событий пройдёт или не пройдёт — для выборки это неважно.
+     */
+    private static final class Window {
+        private volatile long second;
+        private final AtomicLong count = new AtomicLong();
+
+        long next(long now) {
+            if (second != now) {
+                second = now;
+                count.set(0);
+            }
+            return count.incrementAndGet();
+        }
+    }
+}
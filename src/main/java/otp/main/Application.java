@@ -1,18 +1,31 @@
 package otp.main;
 
-import com.sun.net.httpserver.HttpServer;
+import ch.qos.logback.classic.LoggerContext;
+import org.slf4j.LoggerFactory;
 import otp.api.Router;
+import otp.config.AppConfig;
+import otp.http.HttpEngine;
+import otp.http.JdkHttpEngine;
+import otp.http.NioHttpEngine;
+import otp.trace.Tracer;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
 import java.util.Properties;
 
 /**
  * Точка входа приложения. Поднимает HTTP-сервер на порту из application.properties
  * и регистрирует все маршруты через Dispatcher.
+ * <p>
+ * При server.acceptors &gt; 1 на одном порту поднимается несколько экземпляров сервера с SO_REUSEPORT:
+ * ядро распределяет соединения между ними, у каждого свой поток приёма и свой пул обработки.
+ * Движок nio слушает порт одним каналом и сам раздаёт соединения циклам событий, поэтому для него
+ * server.acceptors не применяется (server.reusePort при этом работает).
+ * </p>
  */
 public class Application {
+    private static final String SELECTOR_PROVIDER_PROPERTY = "java.nio.channels.spi.SelectorProvider";
+
     public static void main(String[] args) {
         try {
             // Загружаем конфигурацию
@@ -24,20 +37,75 @@ public class Application {
             }
             int port = Integer.parseInt(config.getProperty("server.port", "8080"));
 
-            // Создаём HTTP-сервер
-            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            // Несколько экземпляров сервера на одном порту возможны только с SO_REUSEPORT;
+            // провайдер нужно подключить до первого обращения к NIO
+            String engineName = AppConfig.get("server.engine", "jdk");
+            int acceptors = Math.max(1, AppConfig.getInt("server.acceptors", 1));
+            if (acceptors > 1 && engineName.equalsIgnoreCase("nio")) {
+                System.err.println("server.acceptors=" + acceptors
+                        + " is ignored by the nio engine, which spreads connections over server.nio.loops");
+                acceptors = 1;
+            }
+            boolean reusePort = AppConfig.getBoolean("server.reusePort", false) || acceptors > 1;
+            if (reusePort) {
+                String reason = ReusePortSelectorProvider.unavailableReason();
+                if (reason == null) {
+                    System.setProperty(SELECTOR_PROVIDER_PROPERTY, ReusePortSelectorProvider.class.getName());
+                } else {
+                    System.err.println("SO_REUSEPORT is disabled, using a single acceptor: " + reason);
+                    reusePort = false;
+                    acceptors = 1;
+                }
+            }
 
-            // Настраиваем роутер
+            // Роутер общий: DAO, кеши и ограничители одни на все экземпляры
+            HttpEngine engine = createEngine(engineName, port, acceptors);
             Router router = new Router();
-            router.registerRoutes(server);
+            router.registerRoutes(engine);
 
             // Запускаем сервер
-            server.start();
-            System.out.println("Server started on http://localhost:" + port);
+            engine.start();
+
+            // При остановке сразу перестаём принимать соединения и даём начатым запросам завершиться.
+            // Новый процесс с SO_REUSEPORT может занять порт до остановки старого
+            int drainSeconds = AppConfig.getInt("server.drainSeconds", 10);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Stopping server, draining requests for up to " + drainSeconds + " s");
+                engine.stop(drainSeconds);
+                // Выгружаем накопленные участки трасс
+                Tracer.shutdown();
+                // Дописываем события, оставшиеся в асинхронных буферах журнала
+                if (LoggerFactory.getILoggerFactory() instanceof LoggerContext loggerContext) {
+                    loggerContext.stop();
+                }
+            }, "http-drain"));
+
+            System.out.println("Server started on http://localhost:" + port
+                    + " (" + engineName + " engine"
+                    + (reusePort ? ", " + acceptors + (acceptors == 1 ? " acceptor" : " acceptors")
+                    + ", SO_REUSEPORT)" : ")"));
         } catch (IOException e) {
             System.err.println("Failed to start server: " + e.getMessage());
             e.printStackTrace();
             System.exit(1);
         }
     }
+
+    /**
+     * Создаёт HTTP-движок по настройке server.engine: jdk — HttpServer из JDK, nio — встроенный движок на NIO.
+     */
+    private static HttpEngine createEngine(String engine, int port, int acceptors) throws IOException {
+        int threads = AppConfig.getInt("server.threads", 64);
+        if (engine.equalsIgnoreCase("nio")) {
+            return new NioHttpEngine(
+                    port,
+                    AppConfig.getInt("server.nio.loops", Runtime.getRuntime().availableProcessors()),
+                    threads,
+                    AppConfig.getInt("server.nio.bufferSize", 16_384),
+                    AppConfig.getInt("server.nio.maxBodyBytes", 1_048_576),
+                    AppConfig.getLong("server.nio.idleSeconds", 60)
+            );
+        }
+        return new JdkHttpEngine(port, acceptors, threads);
+    }
 }
@@ -0,0 +1,115 @@
+package otp.main;
+
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ * SelectorProvider, включающий SO_REUSEPORT на всех серверных сокетах процесса.
+ * <p>
+ * HttpServer из JDK создаёт слушающий сокет сам и не даёт задать ему опции до bind,
+ * поэтому опция выставляется здесь, при открытии канала. Остальные вызовы передаются
+ * стандартному провайдеру без изменений. Провайдер подключается системным свойством
+ * java.nio.channels.spi.SelectorProvider до первого обращения к NIO (см. {@link Application}).
+ * </p>
+ * <p>
+ * Стандартный провайдер не доступен через публичный API, поэтому он берётся из java.base рефлексией;
+ * для этого JVM запускается с --add-exports java.base/sun.nio.ch=ALL-UNNAMED.
+ * </p>
+ */
+public class ReusePortSelectorProvider extends SelectorProvider {
+    private static final String DEFAULT_PROVIDER = "sun.nio.ch.DefaultSelectorProvider";
+
+    private final SelectorProvider delegate;
+
+    public ReusePortSelectorProvider() {
+        try {
+            this.delegate = defaultProvider();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Default SelectorProvider is not accessible", e);
+        }
+    }
+
+    @Override
+    public ServerSocketChannel openServerSocketChannel() throws IOException {
+        return reusePort(delegate.openServerSocketChannel());
+    }
+
+    @Override
+    public ServerSocketChannel openServerSocketChannel(ProtocolFamily family) throws IOException {
+        return reusePort(delegate.openServerSocketChannel(family));
+    }
+
+    @Override
+    public DatagramChannel openDatagramChannel() throws IOException {
+        return delegate.openDatagramChannel();
+    }
+
+    @Override
+    public DatagramChannel openDatagramChannel(ProtocolFamily family) throws IOException {
+        return delegate.openDatagramChannel(family);
+    }
+
+    @Override
+    public Pipe openPipe() throws IOException {
+        return delegate.openPipe();
+    }
+
+    @Override
+    public AbstractSelector openSelector() throws IOException {
+        return delegate.openSelector();
+    }
+
+    @Override
+    public SocketChannel openSocketChannel() throws IOException {
+        return delegate.openSocketChannel();
+    }
+
+    @Override
+    public SocketChannel openSocketChannel(ProtocolFamily family) throws IOException {
+        return delegate.openSocketChannel(family);
+    }
+
+    @Override
+    public Channel inheritedChannel() throws IOException {
+        return delegate.inheritedChannel();
+    }
+
+    /**
+     * Проверяет, можно ли подключить провайдер: стандартный провайдер доступен
+     * и платформа поддерживает SO_REUSEPORT (Linux, BSD, macOS; не Windows).
+     *
+     * @return null, если можно, иначе причина, по которой нельзя
+     */
+    static String unavailableReason() {
+        SelectorProvider provider;
+        try {
+            provider = defaultProvider();
+        } catch (ReflectiveOperationException e) {
+            return "JVM is not started with --add-exports java.base/sun.nio.ch=ALL-UNNAMED";
+        }
+        try (ServerSocketChannel channel = provider.openServerSocketChannel()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)
+                    ? null
+                    : "SO_REUSEPORT is not supported on this platform";
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static SelectorProvider defaultProvider() throws ReflectiveOperationException {
+        return (SelectorProvider) Class.forName(DEFAULT_PROVIDER).getMethod("get").invoke(null);
+    }
+
+    private static ServerSocketChannel reusePort(ServerSocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        return channel;
+    }
+}
@@ -0,0 +1,60 @@
+package otp.model;
+
+/**
+ * Запись о запросе с ключом идемпотентности (заголовок Idempotency-Key).
+ * <p>
+ * Пока запрос выполняется, статус равен 0; после завершения запись хранит
+ * код, тип содержимого и тело ответа, которые отдаются на повторы с тем же ключом.
+ * </p>
+ */
+public class IdempotencyRecord {
+    private final String fingerprint;
+    private final int status;
+    private final String contentType;
+    private final byte[] body;
+
+    /**
+     * @param fingerprint отпечаток запроса (метод, путь и тело)
+     * @param status      HTTP-статус ответа, 0 — запрос ещё выполняется
+     * @param contentType значение заголовка Content-Type ответа (может быть null)
+     * @param body        тело ответа (пустой массив — ответ без тела)
+     */
+    public IdempotencyRecord(String fingerprint, int status, String contentType, byte[] body) {
+        this.fingerprint = fingerprint;
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    /**
+     * Создаёт запись о начатом, но ещё не завершённом запросе.
+     */
+    public static IdempotencyRecord inProgress(String fingerprint) {
+        return new IdempotencyRecord(fingerprint, 0, null, new byte[0]);
+    }
+
+    /** @return отпечаток запроса */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /** @return HTTP-статус ответа, 0 — запрос ещё выполняется */
+    public int getStatus() {
+        return status;
+    }
+
+    /** @return true, если ответ уже сохранён */
+    public boolean isCompleted() {
+        return status != 0;
+    }
+
+    /** @return Content-Type ответа или null */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /** @return тело ответа */
+    public byte[] getBody() {
+        return body;
+    }
+}
@@ -105,7 +105,8 @@ public class Otp {
                 "id=" + id +
                 ", userId=" + userId +
                 ", operationId='" + operationId + '\'' +
-                ", code='" + code + '\'' +
+                // Сам код в строковое представление не попадает: оно пишется в логи
+                ", code='***'" +
                 ", status=" + status +
                 ", createdAt=" + createdAt +
                 '}';
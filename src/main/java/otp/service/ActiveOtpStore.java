@@ -0,0 +1,329 @@
+package otp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.dao.OtpDao;
+import otp.model.Otp;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранилище ACTIVE OTP-кодов в памяти («горячий» уровень).
+ * <p>
+ * Пока код жив, источником истины для проверки является это хранилище, а не таблица otp_active:
+ * проверка не делает запросов к БД. Коды индексируются по userId (примитивный long-ключ)
+ * в таблицах с открытой адресацией, разбитых на независимо блокируемые сегменты;
+ * у одного пользователя обычно лишь несколько живых кодов, они хранятся списком с operationId.
+ * </p>
+ * <p>
+ * Все переходы (создание, USED, EXPIRED) записываются в БД через {@link OtpWriteBehind} для аудита.
+ * Код удаляется из памяти при использовании или по истечении TTL. При старте хранилище
+ * заполняется живыми ACTIVE-кодами из БД. Хранилище локально для процесса и рассчитано
+ * на один узел (или на привязку пользователя к узлу).
+ * </p>
+ */
+public class ActiveOtpStore {
+    private static final Logger logger = LoggerFactory.getLogger(ActiveOtpStore.class);
+
+    /** Результат проверки кода */
+    public enum Result { VALID, EXPIRED, NOT_FOUND }
+
+    private final OtpDao otpDao;
+    private final OtpWriteBehind writeBehind;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long sweepSeconds;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "otp-active-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param otpDao       DAO OTP-кодов (прогрев при старте)
+     * @param writeBehind  журнал отложенной записи переходов
+     * @param stripeCount  количество сегментов (округляется вверх до степени двойки)
+     * @param sweepSeconds интервал удаления просроченных кодов в секундах
+     */
+    public ActiveOtpStore(OtpDao otpDao, OtpWriteBehind writeBehind, int stripeCount, long sweepSeconds) {
+        this.otpDao = otpDao;
+        this.writeBehind = writeBehind;
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = size - 1;
+        this.sweepSeconds = sweepSeconds;
+    }
+
+    /**
+     * Загружает живые коды из БД, запускает запись переходов и периодическую очистку.
+     *
+     * @param ttlSeconds текущее время жизни кодов
+     */
+    public void start(int ttlSeconds) {
+        LocalDateTime since = LocalDateTime.now().minusSeconds(ttlSeconds);
+        List<Otp> live = otpDao.getActiveCreatedAfter(since);
+        for (Otp otp : live) {
+            long createdAt = otp.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            insert(otp, createdAt + ttlSeconds * 1000L);
+        }
+        logger.info("Active OTP store warmed up with {} codes, {} stripes", live.size(), stripes.length);
+
+        writeBehind.start();
+        sweeper.scheduleWithFixedDelay(this::sweepExpired, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Добавляет новый код и ставит его вставку в очередь на запись в БД.
+     *
+     * @param otp       новый код с уже присвоенным id
+     * @param expiresAt момент истечения, миллисекунды epoch
+     */
+    public void add(Otp otp, long expiresAt) {
+        insert(otp, expiresAt);
+        writeBehind.enqueue(OtpWriteBehind.Type.INSERT, otp);
+    }
+
+    /**
+     * Проверяет и погашает код пользователя.
+     *
+     * @param userId      идентификатор пользователя
+     * @param code        введённый код
+     * @param operationId операция (null — любая)
+     * @return результат проверки; найденный код в любом случае удаляется из памяти
+     */
+    public Result consume(long userId, String code, String operationId) {
+        Stripe stripe = stripeFor(userId);
+        Node found = null;
+        synchronized (stripe) {
+            Node prev = null;
+            for (Node n = stripe.get(userId); n != null; prev = n, n = n.next) {
+                if (n.otp.getCode().equals(code)
+                        && (operationId == null || operationId.equals(n.otp.getOperationId()))) {
+                    found = n;
+                    stripe.unlink(userId, prev, n);
+                    break;
+                }
+            }
+        }
+        if (found == null) {
+            return Result.NOT_FOUND;
+        }
+        if (System.currentTimeMillis() > found.expiresAt) {
+            writeBehind.enqueue(OtpWriteBehind.Type.EXPIRED, found.otp);
+            return Result.EXPIRED;
+        }
+        writeBehind.enqueue(OtpWriteBehind.Type.USED, found.otp);
+        return Result.VALID;
+    }
+
+    /**
+     * Досрочно снимает живой код (например, его не удалось отправить) и записывает переход в EXPIRED.
+     *
+     * @param otp код, добавленный через {@link #add}
+     * @return true, если код ещё был в памяти
+     */
+    public boolean expire(Otp otp) {
+        long userId = otp.getUserId();
+        Stripe stripe = stripeFor(userId);
+        boolean removed = false;
+        synchronized (stripe) {
+            Node prev = null;
+            for (Node n = stripe.get(userId); n != null; prev = n, n = n.next) {
+                if (n.otp.getId().equals(otp.getId())) {
+                    stripe.unlink(userId, prev, n);
+                    removed = true;
+                    break;
+                }
+            }
+        }
+        if (removed) {
+            writeBehind.enqueue(OtpWriteBehind.Type.EXPIRED, otp);
+        }
+        return removed;
+    }
+
+    /**
+     * Удаляет из памяти просроченные коды и записывает их переход в EXPIRED.
+     */
+    public void sweepExpired() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (Stripe stripe : stripes) {
+            List<Otp> removed;
+            synchronized (stripe) {
+                removed = stripe.removeExpired(now);
+            }
+            for (Otp otp : removed) {
+                writeBehind.enqueue(OtpWriteBehind.Type.EXPIRED, otp);
+            }
+            expired += removed.size();
+        }
+        if (expired > 0) {
+            logger.debug("Active OTP store: {} codes expired", expired);
+        }
+    }
+
+    /** Останавливает очистку и дописывает журнал переходов */
+    public void stop() {
+        sweeper.shutdownNow();
+        writeBehind.stop();
+    }
+
+    private void insert(Otp otp, long expiresAt) {
+        long userId = otp.getUserId();
+        Stripe stripe = stripeFor(userId);
+        synchronized (stripe) {
+            stripe.put(userId, new Node(otp, expiresAt, stripe.get(userId)));
+        }
+    }
+
+    private Stripe stripeFor(long userId) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 32) & stripeMask];
+    }
+
+    /** Живой код пользователя; коды одного пользователя связаны в список */
+    private static final class Node {
+        final Otp otp;
+        final long expiresAt;
+        Node next;
+
+        Node(Otp otp, long expiresAt, Node next) {
+            this.otp = otp;
+            this.expiresAt = expiresAt;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Сегмент: таблица с открытой адресацией и линейным пробированием userId → список кодов.
+     * Все методы вызываются под монитором сегмента.
+     */
+    private static final class Stripe {
+        private long[] keys = new long[16];
+        private Node[] heads = new Node[16];
+        private int size;
+
+        Node get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); heads[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return heads[i];
+                }
+            }
+            return null;
+        }
+
+        void put(long key, Node head) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (heads[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (heads[i] == null) {
+                size++;
+            }
+            keys[i] = key;
+            heads[i] = head;
+        }
+
+        void unlink(long key, Node prev, Node node) {
+            if (prev != null) {
+                prev.next = node.next;
+            } else if (node.next != null) {
+                put(key, node.next);
+            } else {
+                remove(key);
+            }
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (heads[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (heads[i] == null) {
+                return;
+            }
+            heads[i] = null;
+            size--;
+
+            // Сдвигаем следующие записи кластера назад, чтобы не оставлять «дыр» в цепочке пробирования
+            int gap = i;
+            for (int j = (i + 1) & mask; heads[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    heads[gap] = heads[j];
+                    heads[j] = null;
+                    gap = j;
+                }
+            }
+        }
+
+        List<Otp> removeExpired(long now) {
+            List<Otp> removed = new ArrayList<>();
+            List<Long> emptied = new ArrayList<>();
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] == null) {
+                    continue;
+                }
+                Node first = heads[i];
+                Node prev = null;
+                for (Node n = heads[i]; n != null; n = n.next) {
+                    if (n.expiresAt < now) {
+                        removed.add(n.otp);
+                        if (prev == null) {
+                            first = n.next;
+                        } else {
+                            prev.next = n.next;
+                        }
+                    } else {
+                        prev = n;
+                    }
+                }
+                if (first != null) {
+                    heads[i] = first;
+                } else {
+                    emptied.add(keys[i]);
+                }
+            }
+            // Освободившиеся ключи удаляем после обхода: удаление сдвигает записи таблицы
+            for (long key : emptied) {
+                remove(key);
+            }
+            return removed;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Node[] oldHeads = heads;
+            keys = new long[oldKeys.length * 2];
+            heads = new Node[oldHeads.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldHeads[i] != null) {
+                    put(oldKeys[i], oldHeads[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
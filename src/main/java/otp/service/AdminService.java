@@ -8,7 +8,7 @@ import otp.model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.util.function.Consumer;
 
 public class AdminService {
     private static final Logger logger = LoggerFactory.getLogger(AdminService.class);
@@ -29,8 +29,18 @@ public class AdminService {
         logger.info("OTP config updated: length={}, ttlSeconds={}", length, ttlSeconds);
     }
 
-    public List<User> getAllUsersWithoutAdmins() {
-        return userDao.findAllUsersWithoutAdmins();
+    /**
+     * @return текущая конфигурация OTP-кодов или null, если она не инициализирована
+     */
+    public OtpConfig getOtpConfig() {
+        return configDao.getConfig();
+    }
+
+    /**
+     * Передаёт в consumer страницу пользователей без администраторов (без хешей паролей).
+     */
+    public void forEachUserPage(long afterId, int limit, Consumer<User> consumer) {
+        userDao.forEachUserPage(afterId, limit, consumer);
     }
 
     public void deleteUserAndCodes(Long userId) {
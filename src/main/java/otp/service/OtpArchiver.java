@@ -0,0 +1,169 @@
+package otp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.archive.ArchiveSegment;
+import otp.archive.OtpArchive;
+import otp.dao.LockDao;
+import otp.dao.OtpDao;
+import otp.model.Otp;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Планировщик, который по расписанию выгружает старую историю кодов из БД в архив.
+ * <p>
+ * Записи otp_history старше olderThan читаются курсором по возрастанию (created_at, id), начиная
+ * после последней записи архива, и сохраняются сегментами по segmentRows строк. Только после того,
+ * как сегмент надёжно записан на диск, его строки удаляются из БД короткими запросами по deleteChunk id.
+ * Если узел остановился между записью сегмента и удалением, при следующем прогоне строки последнего
+ * сегмента удаляются повторно. Неполный сегмент не пишется: остаток ждёт следующих прогонов.
+ * Сегменты старше retention удаляются.
+ * </p>
+ * <p>
+ * Архиватор может работать на всех узлах с общим каталогом архива: прогон выполняется только под
+ * блокировкой {@link #LOCK_NAME} в БД, поэтому архив пишет один узел за раз, а прогоны остальных
+ * пропускаются. Под блокировкой каталог перечитывается, так что узел продолжает с последнего сегмента,
+ * кем бы тот ни был записан, и дочищает БД за узлом, остановившимся посреди прогона.
+ * </p>
+ */
+public class OtpArchiver {
+    private static final Logger logger = LoggerFactory.getLogger(OtpArchiver.class);
+
+    /** Блокировка в БД, под которой выполняется прогон */
+    static final String LOCK_NAME = "otp-archiver";
+
+    private final OtpDao otpDao;
+    private final LockDao lockDao;
+    private final OtpArchive archive;
+    private final Duration olderThan;
+    private final Duration retention;
+    private final int segmentRows;
+    private final int deleteChunk;
+    private final int fetchSize;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "otp-archiver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Интервал в минутах между запусками */
+    private final long intervalMinutes;
+
+    /** Последний сегмент, строки которого этот узел точно удалил из БД */
+    private ArchiveSegment cleaned;
+
+    /**
+     * @param otpDao          DAO кодов
+     * @param lockDao         блокировки, общие для узлов
+     * @param archive         архив сегментов
+     * @param olderThan       возраст записи, после которого она переносится в архив
+     * @param retention       сколько хранить записи в архиве
+     * @param segmentRows     строк в сегменте
+     * @param deleteChunk     id в одном запросе удаления
+     * @param fetchSize       размер порции курсора
+     * @param intervalMinutes интервал между запусками
+     */
+    public OtpArchiver(OtpDao otpDao, LockDao lockDao, OtpArchive archive, Duration olderThan, Duration retention,
+                       int segmentRows, int deleteChunk, int fetchSize, long intervalMinutes) {
+        this.otpDao = otpDao;
+        this.lockDao = lockDao;
+        this.archive = archive;
+        this.olderThan = olderThan;
+        this.retention = retention;
+        this.segmentRows = segmentRows;
+        this.deleteChunk = deleteChunk;
+        this.fetchSize = fetchSize;
+        this.intervalMinutes = intervalMinutes;
+    }
+
+    /**
+     * Запускает планировщик.
+     * По расписанию будет вызываться метод run().
+     */
+    public void start() {
+        logger.info("Starting OTP archiver: older than {} days, segment {} rows, interval={} min",
+                olderThan.toDays(), segmentRows, intervalMinutes);
+        scheduler.scheduleWithFixedDelay(this::run, 1, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Однократный прогон под блокировкой: дочищает БД за прошлым прогоном, выгружает полные сегменты
+     * и удаляет сегменты старше срока хранения. Если блокировку держит другой узел, ничего не делает.
+     */
+    public void run() {
+        try (LockDao.Lease lease = lockDao.tryAcquire(LOCK_NAME)) {
+            if (lease == null) {
+                logger.debug("OTP archive is being written by another node, run skipped");
+                return;
+            }
+            archive.rescan();
+            archive.removeIncomplete();
+
+            // Строки последнего сегмента могли остаться в БД, если писавший его узел остановился
+            ArchiveSegment last = archive.lastSegment();
+            if (last != null && last != cleaned) {
+                deleteChunked(last.ids());
+                cleaned = last;
+            }
+            int written = archiveSegments();
+            int dropped = archive.dropOlderThan(LocalDateTime.now().minus(retention));
+            logger.debug("OtpArchiver run(): {} segments written, {} dropped", written, dropped);
+        } catch (Exception e) {
+            logger.error("Error in OTP archive task", e);
+        }
+    }
+
+    /** Останавливает планировщик */
+    public void stop() {
+        logger.info("Stopping OTP archiver");
+        scheduler.shutdownNow();
+    }
+
+    private int archiveSegments() throws IOException {
+        LocalDateTime cutoff = LocalDateTime.now().minus(olderThan);
+        int written = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            ArchiveSegment last = archive.lastSegment();
+            List<Otp> rows = new ArrayList<>(segmentRows);
+            otpDao.forEachFinishedBefore(cutoff,
+                    last == null ? null : last.lastCreatedAt(),
+                    last == null ? null : last.lastId(),
+                    segmentRows, fetchSize, rows::add);
+            if (rows.size() < segmentRows) {
+                break;
+            }
+            ArchiveSegment segment = archive.append(rows);
+            long[] ids = new long[rows.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = rows.get(i).getId();
+            }
+            deleteChunked(ids);
+            cleaned = segment;
+            written++;
+        }
+        return written;
+    }
+
+    // Короткие запросы не держат блокировки подолгу и не дают разового всплеска WAL
+    private void deleteChunked(long[] ids) {
+        long deleted = 0;
+        List<Long> chunk = new ArrayList<>(deleteChunk);
+        for (long id : ids) {
+            chunk.add(id);
+            if (chunk.size() == deleteChunk) {
+                deleted += otpDao.deleteFinished(chunk);
+                chunk.clear();
+            }
+        }
+        deleted += otpDao.deleteFinished(chunk);
+        logger.info("Deleted {} archived OTP codes from the database", deleted);
+    }
+}
@@ -0,0 +1,106 @@
+package otp.service;
+
+import otp.archive.OtpArchive;
+import otp.dao.OtpDao;
+import otp.model.Otp;
+import otp.model.OtpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+/**
+ * Постраничный просмотр истории OTP-кодов пользователя.
+ * <p>
+ * Страница продолжается по непрозрачному курсору — закодированной паре (created_at, id)
+ * последней отданной записи. Клиент не разбирает курсор, а передаёт его обратно как есть.
+ * Если включён архив, история, закончившаяся в БД, продолжается записями из архива —
+ * для клиента это одна лента с тем же курсором.
+ * </p>
+ */
+public class OtpHistoryService {
+    private static final Base64.Encoder CURSOR_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder CURSOR_DECODER = Base64.getUrlDecoder();
+
+    private final OtpDao otpDao;
+    private final OtpArchive archive;
+
+    public OtpHistoryService(OtpDao otpDao) {
+        this(otpDao, null);
+    }
+
+    /**
+     * @param otpDao  DAO кодов
+     * @param archive архив старой истории (null — архив отключён)
+     */
+    public OtpHistoryService(OtpDao otpDao, OtpArchive archive) {
+        this.otpDao = otpDao;
+        this.archive = archive;
+    }
+
+    /**
+     * Передаёт в consumer страницу истории кодов пользователя, от новых к старым.
+     *
+     * @param userId      идентификатор пользователя
+     * @param status      фильтр по статусу (null — любой)
+     * @param operationId фильтр по операции (null — любая)
+     * @param cursor      курсор предыдущей страницы (null — первая страница)
+     * @param limit       максимальный размер страницы
+     * @param consumer    получатель кодов
+     * @return курсор следующей страницы или null, если страница последняя
+     * @throws IllegalArgumentException если курсор некорректен
+     */
+    public String forEachPage(Long userId, OtpStatus status, String operationId,
+                              String cursor, int limit, Consumer<Otp> consumer) {
+        LocalDateTime beforeCreatedAt = null;
+        Long beforeId = null;
+        if (cursor != null) {
+            String[] parts = decode(cursor);
+            try {
+                beforeCreatedAt = LocalDateTime.parse(parts[0]);
+                beforeId = Long.valueOf(parts[1]);
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+
+        Otp[] last = new Otp[1];
+        int[] count = {0};
+        Consumer<Otp> page = otp -> {
+            consumer.accept(otp);
+            last[0] = otp;
+            count[0]++;
+        };
+        otpDao.forEachHistoryPage(userId, status, operationId, beforeCreatedAt, beforeId, limit, page);
+
+        // Всё, что старше записей в БД, лежит в архиве: продолжаем после последней отданной записи
+        if (count[0] < limit && archive != null) {
+            LocalDateTime archiveBeforeCreatedAt = last[0] != null ? last[0].getCreatedAt() : beforeCreatedAt;
+            Long archiveBeforeId = last[0] != null ? last[0].getId() : beforeId;
+            archive.forEachHistoryPage(userId, status, operationId, archiveBeforeCreatedAt, archiveBeforeId,
+                    limit - count[0], page);
+        }
+
+        // Неполная страница — дальше записей нет
+        if (count[0] < limit) {
+            return null;
+        }
+        String position = last[0].getCreatedAt() + "|" + last[0].getId();
+        return CURSOR_ENCODER.encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(String cursor) {
+        String[] parts;
+        try {
+            parts = new String(CURSOR_DECODER.decode(cursor), StandardCharsets.UTF_8).split("\\|");
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return parts;
+    }
+}
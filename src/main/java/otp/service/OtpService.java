@@ -3,65 +3,98 @@ package otp.service;
 import otp.dao.OtpDao;
 import otp.dao.OtpConfigDao;
 import otp.dao.UserDao;
+import otp.jfr.OtpGeneratedEvent;
+import otp.jfr.OtpValidatedEvent;
 import otp.model.Otp;
 import otp.model.OtpConfig;
 import otp.model.OtpStatus;
 import otp.model.User;
 import otp.service.notification.NotificationChannel;
-import otp.service.notification.NotificationService;
+import otp.service.notification.NotificationDispatcher;
 import otp.service.notification.NotificationServiceFactory;
+import otp.trace.Span;
+import otp.trace.Tracer;
+import otp.util.Deadline;
+import otp.util.IdGenerator;
+import otp.util.OtpCodeGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.SecureRandom;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 public class OtpService {
     private static final Logger logger = LoggerFactory.getLogger(OtpService.class);
-    private static final SecureRandom random = new SecureRandom();
 
     private final OtpDao otpDao;
     private final OtpConfigDao otpConfigDao;
     private final UserDao userDao;
     private final NotificationServiceFactory notificationFactory;
+    private final NotificationDispatcher notificationDispatcher;
+    private final ActiveOtpStore activeStore;
 
+    /**
+     * @param notificationDispatcher асинхронная отправка по каналам (пакетная выдача кодов)
+     * @param activeStore            хранилище живых кодов в памяти (null — коды проверяются по БД)
+     */
     public OtpService(OtpDao otpDao,
                       OtpConfigDao otpConfigDao,
                       UserDao userDao,
-                      NotificationServiceFactory notificationFactory) {
+                      NotificationServiceFactory notificationFactory,
+                      NotificationDispatcher notificationDispatcher,
+                      ActiveOtpStore activeStore) {
         this.otpDao = otpDao;
         this.otpConfigDao = otpConfigDao;
         this.userDao = userDao;
         this.notificationFactory = notificationFactory;
+        this.notificationDispatcher = notificationDispatcher;
+        this.activeStore = activeStore;
     }
 
     /**
      * Генерирует новый OTP-код, сохраняет его в БД и возвращает строку.
      */
     public String generateOtp(Long userId, String operationId) {
-        OtpConfig config = otpConfigDao.getConfig();
-        int length = config.getLength();
-
-        // Генерация случайного цифрового кода нужной длины
-        StringBuilder sb = new StringBuilder(length);
-        for (int i = 0; i < length; i++) {
-            sb.append(random.nextInt(10));
-        }
-        String code = sb.toString();
-
-        // Сохраняем в БД
-        Otp otp = new Otp(
-                null,
-                userId,
-                operationId,
-                code,
-                OtpStatus.ACTIVE,
-                LocalDateTime.now()
-        );
-        otpDao.save(otp);
-        logger.info("Generated OTP {} for userId={}, operationId={}", code, userId, operationId);
-        return code;
+        try (Span span = Tracer.startSpan("OtpService.generateOtp")) {
+            span.setAttribute("otp.user_id", userId);
+            OtpGeneratedEvent event = new OtpGeneratedEvent();
+            event.begin();
+            OtpConfig config = otpConfigDao.getConfig();
+            int length = config.getLength();
+
+            // Генерация случайного цифрового кода нужной длины
+            String code = OtpCodeGenerator.generate(length);
+
+            // Сохраняем в памяти (с отложенной записью в БД) или сразу в БД
+            Otp otp = new Otp(
+                    IdGenerator.next(),
+                    userId,
+                    operationId,
+                    code,
+                    OtpStatus.ACTIVE,
+                    LocalDateTime.now()
+            );
+            if (activeStore != null) {
+                activeStore.add(otp, System.currentTimeMillis() + config.getTtlSeconds() * 1000L);
+            } else {
+                otpDao.save(otp);
+            }
+            logger.info("Generated OTP for userId={}, operationId={}", userId, operationId);
+            if (event.shouldCommit()) {
+                event.userId = userId;
+                event.operationId = operationId;
+                event.length = length;
+                event.commit();
+            }
+            return code;
+        }
     }
 
     /**
@@ -75,47 +108,236 @@ public class OtpService {
      * Сгенерировать и отправить код указанным каналом.
      */
     public void sendOtpToUser(Long userId, String operationId, NotificationChannel channel) {
-        String code = generateOtp(userId, operationId);
-        User user = userDao.getById(userId);
-        if (user == null) {
-            logger.error("sendOtpToUser: user not found, id={}", userId);
-            throw new IllegalArgumentException("User not found");
-        }
-
-        // Для простоты используем username как адресат (email, sms, chatId)
-        String recipient = user.getUsername();
-        NotificationService svc = notificationFactory.getService(channel);
-        svc.sendCode(recipient, code);
-        logger.info("Sent OTP code for userId={} via {}", userId, channel);
+        try (Span span = Tracer.startSpan("OtpService.sendOtpToUser")) {
+            span.setAttribute("otp.user_id", userId);
+            span.setAttribute("otp.channel", channel.name());
+            User user = userDao.getById(userId);
+            if (user == null) {
+                logger.error("sendOtpToUser: user not found, id={}", userId);
+                throw new IllegalArgumentException("User not found");
+            }
+            String code = generateOtp(userId, operationId);
+
+            // Для простоты используем username как адресат (email, sms, chatId)
+            String recipient = user.getUsername();
+            if (Deadline.isSet()) {
+                // Отправка ограничена оставшимся бюджетом запроса и прерывается по его истечении
+                String stage = "notify." + channel;
+                Deadline.check(stage);
+                try {
+                    notificationDispatcher.sendAndWait(channel, recipient, code, Deadline.remainingMillis());
+                } catch (TimeoutException e) {
+                    throw Deadline.expired(stage);
+                }
+            } else {
+                NotificationDispatcher.deliver(notificationFactory, channel, recipient, code);
+            }
+            logger.info("Sent OTP code for userId={} via {}", userId, channel);
+        }
     }
 
     /**
-     * Проверяет введённый код: активность и срок жизни, и переключает статус на USED.
+     * Пакетная выдача кодов: одна загрузка конфигурации, один запрос пользователей,
+     * одна пакетная вставка и параллельная асинхронная отправка по каналам.
+     * <p>
+     * Элементы, уже отклонённые вызывающим кодом (с заполненной ошибкой), пропускаются.
+     * Метод возвращается после того, как коды сохранены и отправки поставлены в очередь;
+     * ошибки самой доставки только журналируются.
+     * </p>
+     *
+     * @param items элементы пакета; результат приёма записывается в каждый элемент
      */
-    public boolean validateOtp(String inputCode) {
-        Otp otp = otpDao.getByCode(inputCode);
-        if (otp == null) {
-            logger.warn("validateOtp: code not found {}", inputCode);
-            return false;
+    public void sendOtpBatch(List<BatchItem> items) {
+        try (Span span = Tracer.startSpan("OtpService.sendOtpBatch")) {
+            span.setAttribute("otp.batch.size", items.size());
+            OtpConfig config = otpConfigDao.getConfig();
+
+            // Загружаем всех пользователей пакета одним запросом
+            Set<Long> userIds = new HashSet<>();
+            for (BatchItem item : items) {
+                if (item.isAccepted()) {
+                    userIds.add(item.getUserId());
+                }
+            }
+            Map<Long, User> users = userDao.getByIds(userIds);
+
+            // Генерируем коды за один проход
+            LocalDateTime now = LocalDateTime.now();
+            long expiresAt = System.currentTimeMillis() + config.getTtlSeconds() * 1000L;
+            List<Otp> codes = new ArrayList<>(items.size());
+            List<BatchItem> accepted = new ArrayList<>(items.size());
+            for (BatchItem item : items) {
+                if (!item.isAccepted()) {
+                    continue;
+                }
+                if (!users.containsKey(item.getUserId())) {
+                    item.reject("User not found");
+                    continue;
+                }
+                String code = OtpCodeGenerator.generate(config.getLength());
+                codes.add(new Otp(IdGenerator.next(), item.getUserId(), item.getOperationId(), code, OtpStatus.ACTIVE, now));
+                accepted.add(item);
+            }
+
+            // Сохраняем одной пакетной вставкой (или в хранилище живых кодов)
+            if (activeStore != null) {
+                for (Otp otp : codes) {
+                    activeStore.add(otp, expiresAt);
+                }
+            } else {
+                otpDao.saveAll(codes);
+            }
+
+            // Отправляем параллельно, каждый канал — своим пулом
+            List<Otp> undelivered = new ArrayList<>();
+            for (int i = 0; i < accepted.size(); i++) {
+                BatchItem item = accepted.get(i);
+                Otp otp = codes.get(i);
+                String recipient = users.get(item.getUserId()).getUsername();
+                CompletableFuture<Void> delivery = notificationDispatcher.send(item.getChannel(), recipient, otp.getCode());
+                if (delivery.isCompletedExceptionally()) {
+                    item.reject("Delivery queue is full");
+                    undelivered.add(otp);
+                    continue;
+                }
+                delivery.whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        logger.error("Batch OTP delivery failed for userId={} via {}", item.getUserId(), item.getChannel(), e);
+                    }
+                });
+            }
+
+            // Код, о котором клиенту сказано «не отправлен», не должен оставаться действующим
+            if (!undelivered.isEmpty()) {
+                expireUndelivered(undelivered);
+            }
+            logger.info("Batch OTP: {} of {} items accepted", accepted.size() - undelivered.size(), items.size());
         }
-        // Проверка статуса
-        if (otp.getStatus() != OtpStatus.ACTIVE) {
-            logger.warn("validateOtp: code {} is not active (status={})", inputCode, otp.getStatus());
-            return false;
+    }
+
+    private void expireUndelivered(List<Otp> undelivered) {
+        if (activeStore != null) {
+            for (Otp otp : undelivered) {
+                activeStore.expire(otp);
+            }
+        } else {
+            List<Long> ids = new ArrayList<>(undelivered.size());
+            for (Otp otp : undelivered) {
+                ids.add(otp.getId());
+            }
+            otpDao.markAllAsExpired(ids);
+        }
+        logger.warn("Batch OTP: {} codes expired because their delivery queue was full", undelivered.size());
+    }
+
+    /**
+     * Проверяет введённый код пользователя: активность и срок жизни, и переключает статус на USED.
+     * При включённом хранилище живых кодов проверка выполняется в памяти без обращения к БД.
+     *
+     * @param userId    идентификатор пользователя, которому принадлежит код
+     * @param inputCode введённый код
+     */
+    public boolean validateOtp(Long userId, String inputCode) {
+        OtpValidatedEvent event = new OtpValidatedEvent();
+        event.begin();
+        String outcome;
+        try (Span span = Tracer.startSpan("OtpService.validateOtp")) {
+            outcome = consumeOtp(userId, inputCode);
+            span.setAttribute("otp.user_id", userId).setAttribute("otp.outcome", outcome);
+        }
+        boolean valid = outcome.equals("VALID");
+        if (event.shouldCommit()) {
+            event.userId = userId;
+            event.outcome = outcome;
+            event.items = 1;
+            event.accepted = valid ? 1 : 0;
+            event.commit();
+        }
+        return valid;
+    }
+
+    /**
+     * Проверяет и гасит код.
+     *
+     * @return VALID или причина отказа: NOT_FOUND, EXPIRED (или результат хранилища живых кодов)
+     */
+    private String consumeOtp(Long userId, String inputCode) {
+        if (activeStore != null) {
+            ActiveOtpStore.Result result = activeStore.consume(userId, inputCode, null);
+            if (result != ActiveOtpStore.Result.VALID) {
+                logger.warn("validateOtp: code rejected for userId={} ({})", userId, result);
+                return result.name();
+            }
+            logger.info("validateOtp: code of userId={} validated and marked USED", userId);
+            return "VALID";
+        }
+
+        Otp otp = otpDao.getByUserAndCode(userId, inputCode);
+        if (otp == null) {
+            logger.warn("validateOtp: code not found for userId={}", userId);
+            return "NOT_FOUND";
         }
         // Проверка истечения по времени
         OtpConfig config = otpConfigDao.getConfig();
         LocalDateTime expiry = otp.getCreatedAt().plusSeconds(config.getTtlSeconds());
         if (LocalDateTime.now().isAfter(expiry)) {
             otpDao.markAsExpired(Duration.ofSeconds(config.getTtlSeconds()));
-            logger.warn("validateOtp: code {} expired at {}", inputCode, expiry);
-            return false;
+            logger.warn("validateOtp: code id={} expired at {}", otp.getId(), expiry);
+            return "EXPIRED";
         }
 
-        // Всё ок — помечаем как USED
-        otpDao.markAsUsed(otp.getId());
-        logger.info("validateOtp: code {} validated and marked USED", inputCode);
-        return true;
+        // Всё ок — помечаем как USED; одновременная проверка того же кода могла погасить его раньше
+        if (!otpDao.markAsUsed(otp.getId())) {
+            logger.warn("validateOtp: code id={} was already consumed", otp.getId());
+            return "NOT_FOUND";
+        }
+        logger.info("validateOtp: code id={} validated and marked USED", otp.getId());
+        return "VALID";
+    }
+
+    /**
+     * Проверяет пачку кодов пользователя за один запрос к БД (или без него, если включено хранилище живых кодов).
+     * <p>
+     * Каждый найденный живой код помечается USED; просроченные и уже использованные коды
+     * считаются неверными.
+     * </p>
+     *
+     * @param userId       идентификатор пользователя
+     * @param operationIds операции элементов (null — код любой операции)
+     * @param codes        введённые коды
+     * @return флаги по элементам: true — код верен и погашен
+     */
+    public boolean[] validateOtpBatch(Long userId, List<String> operationIds, List<String> codes) {
+        try (Span span = Tracer.startSpan("OtpService.validateOtpBatch")) {
+            span.setAttribute("otp.user_id", userId);
+            span.setAttribute("otp.batch.size", codes.size());
+            OtpValidatedEvent event = new OtpValidatedEvent();
+            event.begin();
+            boolean[] valid;
+            if (activeStore != null) {
+                valid = new boolean[codes.size()];
+                for (int i = 0; i < codes.size(); i++) {
+                    valid[i] = activeStore.consume(userId, codes.get(i), operationIds.get(i)) == ActiveOtpStore.Result.VALID;
+                }
+            } else {
+                OtpConfig config = otpConfigDao.getConfig();
+                LocalDateTime createdAfter = LocalDateTime.now().minusSeconds(config.getTtlSeconds());
+                valid = otpDao.consumeAll(userId, operationIds, codes, createdAfter);
+            }
+            int accepted = 0;
+            for (boolean v : valid) {
+                accepted += v ? 1 : 0;
+            }
+            logger.info("validateOtpBatch: {} of {} codes validated for userId={}", accepted, codes.size(), userId);
+            if (event.shouldCommit()) {
+                event.userId = userId;
+                event.outcome = "BATCH";
+                event.items = codes.size();
+                event.accepted = accepted;
+                event.commit();
+            }
+            return valid;
+        }
     }
 
     /**
@@ -127,5 +349,50 @@ public class OtpService {
         otpDao.markAsExpired(ttl);
         logger.info("markExpiredOtps: expired codes older than {} seconds", config.getTtlSeconds());
     }
-}
 
+    /**
+     * Элемент пакетной выдачи кодов: входные данные и результат приёма.
+     */
+    public static final class BatchItem {
+        private final Long userId;
+        private final String operationId;
+        private final NotificationChannel channel;
+        private String error;
+
+        public BatchItem(Long userId, String operationId, NotificationChannel channel) {
+            this.userId = userId;
+            this.operationId = operationId;
+            this.channel = channel;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public String getOperationId() {
+            return operationId;
+        }
+
+        public NotificationChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * @return причина отказа или null, если элемент принят
+         */
+        public String getError() {
+            return error;
+        }
+
+        public boolean isAccepted() {
+            return error == null;
+        }
+
+        /**
+         * Отклоняет элемент с указанной причиной.
+         */
+        public void reject(String error) {
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package otp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.dao.OtpDao;
+import otp.model.Otp;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Журнал отложенной записи изменений OTP-кодов в таблицы otp_active и otp_history.
+ * <p>
+ * Переходы (создание, USED, EXPIRED) ставятся в ограниченную очередь и записываются
+ * одним потоком пачками в порядке поступления, поэтому вставка кода попадает в БД раньше
+ * его перехода в USED или EXPIRED. Идентификатор у кода есть с момента создания ({@link otp.util.IdGenerator}).
+ * При переполнении очереди вызывающий поток ждёт освобождения места.
+ * </p>
+ * <p>
+ * Если БД недоступна, пачка повторяется с экспоненциальной задержкой до успеха (или до остановки),
+ * не теряя порядка: новые переходы тем временем копятся в очереди. Если пачку отвергла сама БД
+ * из-за данных (нарушение ограничения, неверное значение), она записывается по одной, и теряются
+ * только отвергнутые переходы; их число доступно через {@link #getDropped()} и пишется в журнал.
+ * </p>
+ */
+public class OtpWriteBehind {
+    private static final Logger logger = LoggerFactory.getLogger(OtpWriteBehind.class);
+
+    /** Тип записываемого перехода */
+    enum Type { INSERT, USED, EXPIRED }
+
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final OtpDao otpDao;
+    private final BlockingQueue<Transition> queue;
+    private final int batchSize;
+    private final long flushMillis;
+    private final Thread worker;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * @param otpDao        DAO OTP-кодов
+     * @param queueCapacity максимальное число незаписанных переходов
+     * @param batchSize     максимальный размер пачки
+     * @param flushMillis   максимальная задержка записи в миллисекундах
+     */
+    public OtpWriteBehind(OtpDao otpDao, int queueCapacity, int batchSize, long flushMillis) {
+        this.otpDao = otpDao;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.worker = new Thread(this::run, "otp-write-behind");
+        this.worker.setDaemon(true);
+    }
+
+    /** Запускает поток записи */
+    public void start() {
+        logger.info("Starting OTP write-behind, batchSize={}, flush={} ms", batchSize, flushMillis);
+        worker.start();
+    }
+
+    /**
+     * Ставит переход в очередь на запись.
+     */
+    void enqueue(Type type, Otp otp) {
+        try {
+            queue.put(new Transition(type, otp));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing OTP transition", e);
+        }
+    }
+
+    /** @return сколько переходов потеряно: БД отвергла их или не успела принять до остановки */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /** Останавливает поток записи, дописав всё, что осталось в очереди */
+    public void stop() {
+        logger.info("Stopping OTP write-behind, {} transitions pending", queue.size());
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (getDropped() > 0) {
+            logger.warn("OTP write-behind stopped with {} dropped transitions in total", getDropped());
+        }
+    }
+
+    private void run() {
+        List<Transition> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Transition first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException e) {
+                // Остановка: дописываем остаток очереди и выходим
+                queue.drainTo(batch);
+                running = false;
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Записывает пачку, объединяя подряд идущие переходы одного типа в один запрос.
+     */
+    private void flush(List<Transition> batch) {
+        int start = 0;
+        while (start < batch.size()) {
+            Type type = batch.get(start).type;
+            int end = start;
+            while (end < batch.size() && batch.get(end).type == type) {
+                end++;
+            }
+            write(type, batch.subList(start, end));
+            start = end;
+        }
+    }
+
+    private void write(Type type, List<Transition> run) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                writeRun(type, run);
+                return;
+            } catch (RuntimeException e) {
+                if (isRejectedData(e)) {
+                    if (run.size() == 1) {
+                        drop(type, run, e);
+                        return;
+                    }
+                    // Пачку отвергла конкретная запись — пишем по одной, чтобы потерять только её
+                    logger.warn("OTP write-behind batch of {} {} rejected, retrying one by one: {}",
+                            run.size(), type, e.getMessage());
+                    for (Transition t : run) {
+                        write(type, List.of(t));
+                    }
+                    return;
+                }
+                if (!running) {
+                    // Остановка: ждать восстановления БД некогда
+                    drop(type, run, e);
+                    return;
+                }
+                logger.warn("OTP write-behind batch of {} {} failed, retrying in {} ms: {}",
+                        run.size(), type, backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    // stop(): ещё одна попытка, затем выход
+                    running = false;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void drop(Type type, List<Transition> run, RuntimeException e) {
+        dropped.add(run.size());
+        for (Transition t : run) {
+            logger.error("OTP write-behind dropped {} for id={}, userId={} (dropped in total: {}): {}",
+                    type, t.otp.getId(), t.otp.getUserId(), dropped.sum(), e.getMessage());
+        }
+    }
+
+    /**
+     * Отличает ошибки в данных (повтор не поможет) от недоступности БД (стоит повторить):
+     * классы SQLSTATE 22 и 23, а также ошибки не из JDBC считаются ошибками в данных.
+     */
+    private static boolean isRejectedData(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sql) {
+                String state = sql.getSQLState();
+                return state != null && (state.startsWith("22") || state.startsWith("23"));
+            }
+        }
+        return true;
+    }
+
+    private void writeRun(Type type, List<Transition> run) {
+        if (type == Type.INSERT) {
+            List<Otp> codes = new ArrayList<>(run.size());
+            for (Transition t : run) {
+                codes.add(t.otp);
+            }
+            otpDao.saveAll(codes);
+            return;
+        }
+        List<Long> ids = new ArrayList<>(run.size());
+        for (Transition t : run) {
+            // id присваивается при создании кода; без него переход записать нечем
+            if (t.otp.getId() != null) {
+                ids.add(t.otp.getId());
+            }
+        }
+        if (type == Type.USED) {
+            otpDao.markAllAsUsed(ids);
+        } else {
+            otpDao.markAllAsExpired(ids);
+        }
+    }
+
+    /** Переход OTP-кода, ожидающий записи */
+    private static final class Transition {
+        final Type type;
+        final Otp otp;
+
+        Transition(Type type, Otp otp) {
+            this.type = type;
+            this.otp = otp;
+        }
+    }
+}
@@ -2,20 +2,29 @@ package otp.service;
 
 import otp.dao.UserDao;
 import otp.model.User;
+import otp.config.AppConfig;
 import otp.model.UserRole;
 import otp.util.PasswordEncoder;
 import otp.util.TokenManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 
 public class UserService {
     private static final Logger logger = LoggerFactory.getLogger(UserService.class);
     private final UserDao userDao;
+    private final UsernameFilter usernameFilter;
 
-    public UserService(UserDao userDao) {
+    /** Проверять занятость логина запросом до вставки (иначе полагаемся на UNIQUE в БД) */
+    private final boolean signUpPrecheck = AppConfig.getBoolean("users.signup.precheck", true);
+
+    /**
+     * @param userDao        DAO пользователей
+     * @param usernameFilter фильтр существующих логинов (может быть null — тогда не используется)
+     */
+    public UserService(UserDao userDao, UsernameFilter usernameFilter) {
         this.userDao = userDao;
+        this.usernameFilter = usernameFilter;
     }
 
     /**
@@ -23,7 +32,7 @@ public class UserService {
      * @throws IllegalArgumentException если логин уже занят или если пытаются создать второго администратора.
      */
     public void signUp(String username, String password, UserRole role) {
-        if (userDao.getByUsername(username) != null) {
+        if (signUpPrecheck && userDao.getByUsername(username) != null) {
             logger.warn("Attempt to register with existing username: {}", username);
             throw new IllegalArgumentException("Username already exists");
         }
@@ -35,6 +44,9 @@ public class UserService {
         String hashed = PasswordEncoder.hash(password);
         User user = new User(null, username, hashed, role);
         userDao.create(user);
+        if (usernameFilter != null) {
+            usernameFilter.add(username);
+        }
         logger.info("Registered new user: {} with role {}", username, role);
     }
 
@@ -51,6 +63,11 @@ public class UserService {
      * @throws IllegalArgumentException если пользователь не найден или пароль неверен.
      */
     public String login(String username, String password) {
+        // Логина точно нет — отвечаем без обращения к БД
+        if (usernameFilter != null && !usernameFilter.mightExist(username)) {
+            logger.warn("Login failed: user not found {} (filter)", username);
+            throw new IllegalArgumentException("Invalid username or password");
+        }
         User user = userDao.getByUsername(username);
         if (user == null) {
             logger.warn("Login failed: user not found {}", username);
@@ -60,17 +77,32 @@ public class UserService {
             logger.warn("Login failed: wrong password for {}", username);
             throw new IllegalArgumentException("Invalid username or password");
         }
+        rehashIfNeeded(user, password);
         String token = TokenManager.generateToken(user);
         logger.info("User {} logged in, token generated", username);
         return token;
     }
 
-    public User findById(Long id) {
-        return userDao.getById(id);
+    /**
+     * Прозрачно переводит хеш пароля на текущий формат и стоимость после успешного входа.
+     * Ошибка обновления не мешает входу: хеш будет пересчитан при следующей попытке.
+     */
+    private void rehashIfNeeded(User user, String password) {
+        if (!PasswordEncoder.needsRehash(user.getPasswordHash())) {
+            return;
+        }
+        try {
+            String hashed = PasswordEncoder.hash(password);
+            userDao.updatePasswordHash(user.getId(), hashed);
+            user.setPasswordHash(hashed);
+            logger.info("Password hash of user {} upgraded", user.getUsername());
+        } catch (RuntimeException e) {
+            logger.warn("Password rehash for user {} failed: {}", user.getUsername(), e.getMessage());
+        }
     }
 
-    public List<User> findAllWithoutAdmins() {
-        return userDao.findAllUsersWithoutAdmins();
+    public User findById(Long id) {
+        return userDao.getById(id);
     }
 
     public void deleteUser(Long id) {
@@ -0,0 +1,118 @@
+package otp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.dao.UserDao;
+import otp.util.BloomFilter;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фильтр Блума по логинам из таблицы users.
+ * <p>
+ * Позволяет отвечать на попытки входа под несуществующими логинами без обращения к БД.
+ * Фильтр периодически перестраивается целиком (удалённые пользователи перестают давать
+ * ложноположительные ответы) и пополняется при каждой регистрации через {@link #add(String)}.
+ * Пока первая сборка не завершена, {@link #mightExist(String)} всегда возвращает true.
+ * </p>
+ * <p>
+ * Фильтр локален для процесса: пользователь, зарегистрированный на другом узле,
+ * станет виден здесь только после ближайшей перестройки.
+ * </p>
+ */
+public class UsernameFilter {
+    private static final Logger logger = LoggerFactory.getLogger(UsernameFilter.class);
+
+    private final UserDao userDao;
+    private final double fpp;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "username-filter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Интервал в минутах между полными перестройками */
+    private final long rebuildMinutes;
+
+    /** Ожидаемое число логинов для следующей сборки */
+    private final AtomicLong expectedInsertions;
+
+    /** Текущий фильтр (null — ещё не построен) */
+    private volatile BloomFilter current;
+
+    /** Фильтр, который строится прямо сейчас (null — сборки нет) */
+    private volatile BloomFilter building;
+
+    public UsernameFilter(UserDao userDao, long expectedInsertions, double fpp, long rebuildMinutes) {
+        this.userDao = userDao;
+        this.expectedInsertions = new AtomicLong(expectedInsertions);
+        this.fpp = fpp;
+        this.rebuildMinutes = rebuildMinutes;
+    }
+
+    /**
+     * Запускает первую сборку фильтра и периодическую перестройку.
+     */
+    public void start() {
+        logger.info("Starting username filter, rebuild interval={} min", rebuildMinutes);
+        scheduler.scheduleWithFixedDelay(this::rebuild, 0, rebuildMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Полностью перестраивает фильтр по текущему содержимому таблицы users.
+     */
+    public void rebuild() {
+        try {
+            BloomFilter next = new BloomFilter(expectedInsertions.get(), fpp);
+            // Регистрации, пришедшие во время сборки, попадут и в новый фильтр
+            building = next;
+            long[] count = {0};
+            userDao.forEachUsername(username -> {
+                next.put(username);
+                count[0]++;
+            });
+            current = next;
+            building = null;
+
+            // Держим запас вдвое, чтобы рост таблицы не ухудшал точность
+            expectedInsertions.accumulateAndGet(count[0] * 2, Math::max);
+            logger.info("Username filter rebuilt: {} usernames", count[0]);
+        } catch (Exception e) {
+            building = null;
+            logger.error("Error rebuilding username filter", e);
+        }
+    }
+
+    /**
+     * Добавляет логин нового пользователя в фильтр.
+     * @param username логин
+     */
+    public void add(String username) {
+        BloomFilter pending = building;
+        if (pending != null) {
+            pending.put(username);
+        }
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(username);
+        }
+    }
+
+    /**
+     * @param username логин
+     * @return false, если пользователя с таким логином точно нет
+     */
+    public boolean mightExist(String username) {
+        BloomFilter filter = current;
+        return filter == null || filter.mightContain(username);
+    }
+
+    /** Останавливает перестройку фильтра */
+    public void stop() {
+        logger.info("Stopping username filter");
+        scheduler.shutdownNow();
+    }
+}
@@ -2,6 +2,7 @@ package otp.service.notification;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
 
 import javax.mail.*;
 import javax.mail.internet.*;
@@ -48,6 +49,12 @@ public class EmailNotificationService implements NotificationService {
             }
             Properties props = new Properties();
             props.load(is);
+
+            // Предельное время соединения, чтения и записи SMTP, если оно не задано в email.properties
+            String timeout = String.valueOf(AppConfig.getLong("notification.sendTimeoutMillis", 10_000));
+            props.putIfAbsent("mail.smtp.connectiontimeout", timeout);
+            props.putIfAbsent("mail.smtp.timeout", timeout);
+            props.putIfAbsent("mail.smtp.writetimeout", timeout);
             return props;
         } catch (IOException e) {
             logger.error("Failed to load email.properties", e);
@@ -0,0 +1,146 @@
+package otp.service.notification;
+
+import otp.jfr.OtpDeliveredEvent;
+import otp.trace.Span;
+import otp.trace.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Асинхронная отправка OTP-кодов с отдельным пулом потоков на каждый канал.
+ * <p>
+ * Медленный канал (например, SMPP) не задерживает отправку по остальным каналам.
+ * Очередь каждого пула ограничена; если она переполнена, возвращаемый future
+ * завершается с {@link java.util.concurrent.RejectedExecutionException}.
+ * </p>
+ */
+public class NotificationDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    private final NotificationServiceFactory factory;
+    private final Map<NotificationChannel, ExecutorService> executors = new EnumMap<>(NotificationChannel.class);
+
+    /**
+     * @param factory       фабрика сервисов отправки
+     * @param threads       количество потоков на канал
+     * @param queueCapacity максимальное количество ожидающих отправок на канал
+     */
+    public NotificationDispatcher(NotificationServiceFactory factory, int threads, int queueCapacity) {
+        this.factory = factory;
+        for (NotificationChannel channel : NotificationChannel.values()) {
+            AtomicInteger counter = new AtomicInteger();
+            String prefix = "notify-" + channel.name().toLowerCase() + "-";
+            executors.put(channel, new ThreadPoolExecutor(
+                    threads, threads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread t = new Thread(r, prefix + counter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy()
+            ));
+        }
+        logger.info("Notification dispatcher: {} threads and queue {} per channel", threads, queueCapacity);
+    }
+
+    /**
+     * Ставит отправку кода в очередь канала.
+     *
+     * @param channel   канал отправки
+     * @param recipient адресат
+     * @param code      OTP-код
+     * @return future, завершающийся после отправки (или с ошибкой отправки)
+     */
+    public CompletableFuture<Void> send(NotificationChannel channel, String recipient, String code) {
+        try {
+            return CompletableFuture.runAsync(
+                    Tracer.wrap(() -> deliver(factory, channel, recipient, code)),
+                    executors.get(channel));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Отправляет код через пул канала и ждёт результата не дольше указанного времени.
+     * По истечении времени отправка прерывается.
+     *
+     * @param channel       канал отправки
+     * @param recipient     адресат
+     * @param code          OTP-код
+     * @param timeoutMillis сколько ждать отправки
+     * @throws TimeoutException если отправка не завершилась вовремя
+     * @throws java.util.concurrent.RejectedExecutionException если очередь канала переполнена
+     */
+    public void sendAndWait(NotificationChannel channel, String recipient, String code, long timeoutMillis)
+            throws TimeoutException {
+        Future<?> future = executors.get(channel).submit(Tracer.wrap(() -> deliver(factory, channel, recipient, code)));
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending OTP via " + channel, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("OTP sending via " + channel + " failed", cause);
+        }
+    }
+
+    /**
+     * Отправляет код в текущем потоке и отмечает доставку событием JFR {@link OtpDeliveredEvent}
+     * и участком трассы текущего запроса.
+     *
+     * @param factory   фабрика сервисов отправки
+     * @param channel   канал отправки
+     * @param recipient адресат
+     * @param code      OTP-код
+     */
+    public static void deliver(NotificationServiceFactory factory, NotificationChannel channel,
+                               String recipient, String code) {
+        OtpDeliveredEvent event = new OtpDeliveredEvent();
+        event.begin();
+        Span span = Tracer.startSpan("notify " + channel, Span.Kind.CLIENT);
+        boolean success = false;
+        try {
+            factory.getService(channel).sendCode(recipient, code);
+            success = true;
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            throw e;
+        } finally {
+            span.setAttribute("otp.channel", channel.name());
+            span.close();
+            if (event.shouldCommit()) {
+                event.channel = channel.name();
+                event.success = success;
+                event.commit();
+            }
+        }
+    }
+
+    /** Останавливает пулы отправки */
+    public void shutdown() {
+        executors.values().forEach(ExecutorService::shutdown);
+    }
+}
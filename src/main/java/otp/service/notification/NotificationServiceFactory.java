@@ -7,15 +7,24 @@ import otp.service.notification.SmsNotificationService;
 import otp.service.notification.TelegramNotificationService;
 import otp.service.notification.FileNotificationService;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Фабрика для получения нужной реализации NotificationService по каналу.
+ * Сервис каждого канала создаётся (и читает свою конфигурацию) один раз и затем переиспользуется.
  */
 public class NotificationServiceFactory {
+    private final Map<NotificationChannel, NotificationService> services = new ConcurrentHashMap<>();
 
     /**
      * Возвращает реализацию NotificationService под указанный канал.
      */
     public NotificationService getService(NotificationChannel channel) {
+        return services.computeIfAbsent(channel, NotificationServiceFactory::create);
+    }
+
+    private static NotificationService create(NotificationChannel channel) {
         switch (channel) {
             case EMAIL:
                 return new EmailNotificationService();
@@ -30,4 +39,3 @@ public class NotificationServiceFactory {
         }
     }
 }
-
@@ -7,6 +7,7 @@ import org.smpp.pdu.BindTransmitter;
 import org.smpp.pdu.SubmitSM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,6 +27,9 @@ public class SmsNotificationService implements NotificationService {
     private final String systemType;
     private final String sourceAddr;
 
+    // Предельное время ожидания ответа SMSC: поток отправки не зависает на недоступном шлюзе
+    private final long receiveTimeoutMillis = AppConfig.getLong("notification.sendTimeoutMillis", 10_000);
+
     public SmsNotificationService() {
         Properties props = loadConfig();
         this.host = props.getProperty("smpp.host");
@@ -54,6 +58,7 @@ public class SmsNotificationService implements NotificationService {
         Session session = null;
         try {
             connection = new TCPIPConnection(host, port);
+            connection.setReceiveTimeout(receiveTimeoutMillis);
             session = new Session(connection);
 
             BindTransmitter bindReq = new BindTransmitter();
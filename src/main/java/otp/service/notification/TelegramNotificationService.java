@@ -1,5 +1,6 @@
 package otp.service.notification;
 
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -7,6 +8,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
 
 import java.io.InputStream;
 import java.net.URI;
@@ -25,11 +27,20 @@ public class TelegramNotificationService implements NotificationService {
     private final String token;        // токен бота
     private final String defaultChatId;// chatId по умолчанию
 
+    // Предельное время соединения и ожидания ответа: поток отправки не зависает на недоступном API
+    private final RequestConfig requestConfig;
+
     public TelegramNotificationService() {
         Properties props = loadConfig();
         this.apiBaseUrl    = props.getProperty("telegram.apiUrl");
         this.token         = props.getProperty("telegram.token");
         this.defaultChatId = props.getProperty("telegram.chatId");
+        int timeout = AppConfig.getInt("notification.sendTimeoutMillis", 10_000);
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build();
     }
 
     private Properties loadConfig() {
@@ -57,7 +68,7 @@ public class TelegramNotificationService implements NotificationService {
                 : recipientChatId;
         String text = "Your one-time confirmation code is: " + code;
 
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+        try (CloseableHttpClient httpClient = HttpClients.custom().setDefaultRequestConfig(requestConfig).build()) {
             // Составляем URL вида: https://api.telegram.org/bot<TOKEN>/sendMessage?chat_id=<ID>&text=<TEXT>
             URI uri = new URIBuilder(apiBaseUrl + token + "/sendMessage")
                     .addParameter("chat_id", chatId)
@@ -68,7 +79,7 @@ public class TelegramNotificationService implements NotificationService {
             try (CloseableHttpResponse response = httpClient.execute(request)) {
                 int status = response.getStatusLine().getStatusCode();
                 if (status != 200) {
-                    logger.error("Telegram API error. Status code: {}", status);
+                    logger.error("Telegram API error, HTTP status {}", status);
                     throw new RuntimeException("Telegram API returned " + status);
                 }
                 logger.info("OTP code sent via Telegram to chatId {}", chatId);
@@ -0,0 +1,119 @@
+package otp.trace;
+
+/**
+ * Участок трассы: этап обработки запроса с временем начала и конца, атрибутами и статусом.
+ * <p>
+ * Создаётся через {@link Tracer} и закрывается в try-with-resources; при закрытии текущим
+ * для потока снова становится родитель, а записываемый участок уходит в экспорт.
+ * Если трасса не попала в выборку, участки не записываются: вместо них возвращается
+ * {@link #NOOP}, а все методы ничего не делают.
+ * </p>
+ */
+public final class Span implements AutoCloseable {
+    /** Вид участка в терминах OTLP */
+    public enum Kind {
+        INTERNAL(1), SERVER(2), CLIENT(3);
+
+        final int otlpCode;
+
+        Kind(int otlpCode) {
+            this.otlpCode = otlpCode;
+        }
+    }
+
+    /** Незаписываемый участок: выборка его не взяла или трассировка выключена */
+    public static final Span NOOP = new Span(null, null, Kind.INTERNAL, 0, 0, 0, 0, false);
+
+    private static final int MAX_ATTRIBUTES = 8;
+
+    final String name;
+    final Kind kind;
+    final long traceIdHigh;
+    final long traceIdLow;
+    final long spanId;
+    final long parentSpanId;
+    final boolean sampled;
+    /** Участок, который был текущим до этого; восстанавливается при закрытии */
+    final Span previous;
+
+    final long startEpochNanos;
+    long endEpochNanos;
+    Object[] attributes;
+    int attributeCount;
+    String error;
+    private boolean ended;
+
+    Span(Span previous, String name, Kind kind, long traceIdHigh, long traceIdLow, long spanId, long parentSpanId,
+         boolean sampled) {
+        this.previous = previous;
+        this.name = name;
+        this.kind = kind;
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.sampled = sampled;
+        this.startEpochNanos = sampled ? Tracer.epochNanos() : 0;
+    }
+
+    /** @return записывается ли участок; атрибуты стоит вычислять, только если да */
+    public boolean isRecording() {
+        return sampled;
+    }
+
+    /**
+     * Добавляет атрибут; сверх восьми атрибуты отбрасываются.
+     *
+     * @param value строка, число или boolean
+     */
+    public Span setAttribute(String key, Object value) {
+        if (!sampled || value == null) {
+            return this;
+        }
+        if (attributes == null) {
+            attributes = new Object[MAX_ATTRIBUTES * 2];
+        }
+        if (attributeCount < MAX_ATTRIBUTES) {
+            attributes[attributeCount * 2] = key;
+            attributes[attributeCount * 2 + 1] = value;
+            attributeCount++;
+        }
+        return this;
+    }
+
+    /** Отмечает участок как завершившийся ошибкой */
+    public void setError(String message) {
+        if (sampled) {
+            error = message == null ? "" : message;
+        }
+    }
+
+    /** Отмечает участок как завершившийся исключением */
+    public void recordException(Throwable e) {
+        setError(e.getClass().getSimpleName() + (e.getMessage() == null ? "" : ": " + e.getMessage()));
+    }
+
+    /** @return идентификатор трассы в hex или null у {@link #NOOP} */
+    public String traceId() {
+        return name == null ? null : hex(traceIdHigh) + hex(traceIdLow);
+    }
+
+    /** @return заголовок traceparent для передачи этого участка как родителя */
+    public String traceparent() {
+        return name == null ? null : "00-" + traceId() + "-" + hex(spanId) + (sampled ? "-01" : "-00");
+    }
+
+    @Override
+    public void close() {
+        if (this == NOOP || ended) {
+            return;
+        }
+        ended = true;
+        Tracer.end(this);
+    }
+
+    static String hex(long value) {
+        String s = Long.toHexString(value);
+        return s.length() == 16 ? s : "0".repeat(16 - s.length()) + s;
+    }
+}
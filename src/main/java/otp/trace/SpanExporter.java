@@ -0,0 +1,264 @@
+package otp.trace;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.util.JsonUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пакетная выгрузка участков трассы в файл.
+ * <p>
+ * Закрытые участки кладутся в ограниченную очередь без ожидания (при переполнении отбрасываются
+ * и считаются), отдельный поток забирает их пачками до batchSize или раз в flushMillis и пишет
+ * каждую пачку одной строкой ExportTraceServiceRequest в кодировке OTLP/JSON — в таком виде
+ * файл читает файловый приёмник OpenTelemetry Collector. Файл больше maxFileBytes переименовывается
+ * в &lt;файл&gt;.1 (предыдущий .1 удаляется), и запись начинается заново.
+ * </p>
+ */
+final class SpanExporter {
+    private static final Logger logger = LoggerFactory.getLogger(SpanExporter.class);
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final String serviceName;
+    private final BlockingQueue<Span> queue;
+    private final int batchSize;
+    private final long flushMillis;
+    private final Thread worker;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    private OutputStream out;
+    private long written;
+
+    /**
+     * @param file          файл выгрузки
+     * @param maxFileBytes  размер файла, после которого он ротируется
+     * @param serviceName   значение service.name ресурса
+     * @param queueCapacity максимальное число невыгруженных участков
+     * @param batchSize     максимальный размер пачки
+     * @param flushMillis   максимальная задержка выгрузки в миллисекундах
+     */
+    SpanExporter(Path file, long maxFileBytes, String serviceName, int queueCapacity, int batchSize, long flushMillis) {
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.serviceName = serviceName;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.worker = new Thread(this::run, "trace-export");
+        this.worker.setDaemon(true);
+    }
+
+    void start() {
+        logger.info("Exporting spans to {}, batchSize={}, flush={} ms", file.toAbsolutePath(), batchSize, flushMillis);
+        worker.start();
+    }
+
+    /** Ставит участок в очередь выгрузки; поток запроса не ждёт */
+    void export(Span span) {
+        if (!queue.offer(span)) {
+            dropped.increment();
+        }
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /** Останавливает поток выгрузки, дописав то, что осталось в очереди */
+    void stop() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Span> batch = new ArrayList<>(batchSize);
+        long reportedDropped = 0;
+        while (running || !queue.isEmpty()) {
+            try {
+                Span first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+            } catch (InterruptedException e) {
+                // Остановка: дописываем остаток очереди
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+            long total = dropped.sum();
+            if (total > reportedDropped) {
+                logger.warn("Span export queue full: dropped {} spans (total {})", total - reportedDropped, total);
+                reportedDropped = total;
+            }
+        }
+        closeFile();
+    }
+
+    private void write(List<Span> batch) {
+        try {
+            if (out == null) {
+                open();
+            }
+            CountingStream counting = new CountingStream(out);
+            try (JsonGenerator json = JsonUtil.createGenerator(counting)) {
+                writeRequest(json, batch);
+            }
+            out.write('\n');
+            out.flush();
+            written += counting.count + 1;
+            if (written >= maxFileBytes) {
+                rotate();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to export {} spans to {}: {}", batch.size(), file, e.getMessage());
+            closeFile();
+        }
+    }
+
+    private void writeRequest(JsonGenerator json, List<Span> batch) throws IOException {
+        json.writeStartObject();
+        json.writeArrayFieldStart("resourceSpans");
+        json.writeStartObject();
+        json.writeObjectFieldStart("resource");
+        json.writeArrayFieldStart("attributes");
+        writeAttribute(json, "service.name", serviceName);
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeArrayFieldStart("scopeSpans");
+        json.writeStartObject();
+        json.writeObjectFieldStart("scope");
+        json.writeStringField("name", "otp");
+        json.writeEndObject();
+        json.writeArrayFieldStart("spans");
+        for (Span span : batch) {
+            writeSpan(json, span);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private static void writeSpan(JsonGenerator json, Span span) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("traceId", Span.hex(span.traceIdHigh) + Span.hex(span.traceIdLow));
+        json.writeStringField("spanId", Span.hex(span.spanId));
+        if (span.parentSpanId != 0) {
+            json.writeStringField("parentSpanId", Span.hex(span.parentSpanId));
+        }
+        json.writeStringField("name", span.name);
+        json.writeNumberField("kind", span.kind.otlpCode);
+        // В OTLP/JSON 64-битные числа передаются строками
+        json.writeStringField("startTimeUnixNano", Long.toString(span.startEpochNanos));
+        json.writeStringField("endTimeUnixNano", Long.toString(span.endEpochNanos));
+        if (span.attributeCount > 0) {
+            json.writeArrayFieldStart("attributes");
+            for (int i = 0; i < span.attributeCount; i++) {
+                writeAttribute(json, (String) span.attributes[i * 2], span.attributes[i * 2 + 1]);
+            }
+            json.writeEndArray();
+        }
+        if (span.error != null) {
+            json.writeObjectFieldStart("status");
+            json.writeNumberField("code", 2);
+            json.writeStringField("message", span.error);
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    private static void writeAttribute(JsonGenerator json, String key, Object value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("key", key);
+        json.writeObjectFieldStart("value");
+        if (value instanceof Boolean b) {
+            json.writeBooleanField("boolValue", b);
+        } else if (value instanceof Integer || value instanceof Long) {
+            json.writeStringField("intValue", value.toString());
+        } else {
+            json.writeStringField("stringValue", value.toString());
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        written = Files.exists(file) ? Files.size(file) : 0;
+        // FileOutputStream, а не канал: прерывание потока при остановке не должно закрывать файл
+        out = new BufferedOutputStream(new FileOutputStream(file.toFile(), true), 64 * 1024);
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Span file {} rotated after {} bytes", file, maxFileBytes);
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close span file {}: {}", file, e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    /** Считает записанные байты, чтобы не спрашивать размер файла после каждой пачки */
+    private static final class CountingStream extends OutputStream {
+        private final OutputStream target;
+        long count;
+
+        CountingStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+}
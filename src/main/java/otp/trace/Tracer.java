@@ -0,0 +1,227 @@
+package otp.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Встроенная трассировка запросов в формате W3C Trace Context.
+ * <p>
+ * Корневой участок открывается при входе запроса: из заголовка traceparent берутся трасса
+ * и родитель, иначе начинается новая трасса. Текущий участок хранится в ThreadLocal потока
+ * обработки (как {@link otp.util.Deadline}), поэтому сервисы и DAO открывают дочерние участки
+ * через {@link #startSpan}, ничего не передавая явно; в пулы потоков контекст переносит {@link #wrap}.
+ * </p>
+ * <p>
+ * Решение о записи принимается один раз на трассу (head sampling): если у входящего traceparent
+ * есть флаг sampled, трасса записывается, если флага нет — нет, а новые трассы берутся в долю
+ * trace.sampleRatio по идентификатору трассы. В незаписываемых трассах дочерние участки не создаются
+ * вовсе ({@link Span#NOOP}). Записанные участки выгружаются пачками в файл OTLP/JSON ({@link SpanExporter}).
+ * </p>
+ */
+public final class Tracer {
+    private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    private static final boolean ENABLED = AppConfig.getBoolean("trace.enabled", true);
+    private static final double SAMPLE_RATIO = Math.max(0, Math.min(1, AppConfig.getDouble("trace.sampleRatio", 0.05)));
+    /** Трасса записывается, если младшие 63 бита её идентификатора меньше порога */
+    private static final long SAMPLE_THRESHOLD = SAMPLE_RATIO >= 1 ? Long.MAX_VALUE : (long) (SAMPLE_RATIO * Long.MAX_VALUE);
+
+    // Точка отсчёта для перевода System.nanoTime() во время эпохи
+    private static final long EPOCH_BASE_NANOS = System.currentTimeMillis() * 1_000_000L;
+    private static final long NANO_BASE = System.nanoTime();
+
+    private static final SpanExporter EXPORTER = ENABLED ? createExporter() : null;
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private Tracer() {}
+
+    /**
+     * Открывает корневой участок запроса и делает его текущим.
+     *
+     * @param traceparent значение заголовка traceparent или null
+     * @param name        имя участка, например "POST /otp/new"
+     * @return участок; у выключенной трассировки — {@link Span#NOOP}
+     */
+    public static Span startRequest(String traceparent, String name) {
+        if (!ENABLED) {
+            return Span.NOOP;
+        }
+        Span parent = parse(traceparent);
+        Span span;
+        if (parent != null) {
+            span = new Span(CURRENT.get(), name, Span.Kind.SERVER, parent.traceIdHigh, parent.traceIdLow,
+                    newId(), parent.spanId, parent.sampled);
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long high = random.nextLong();
+            long low = newId();
+            span = new Span(CURRENT.get(), name, Span.Kind.SERVER, high, low, newId(), 0,
+                    (low & Long.MAX_VALUE) < SAMPLE_THRESHOLD);
+        }
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Открывает дочерний участок текущего и делает его текущим.
+     *
+     * @return участок или {@link Span#NOOP}, если текущая трасса не записывается
+     */
+    public static Span startSpan(String name, Span.Kind kind) {
+        Span parent = CURRENT.get();
+        if (parent == null || !parent.sampled) {
+            return Span.NOOP;
+        }
+        Span span = new Span(parent, name, kind, parent.traceIdHigh, parent.traceIdLow, newId(), parent.spanId, true);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /** Открывает внутренний дочерний участок текущего */
+    public static Span startSpan(String name) {
+        return startSpan(name, Span.Kind.INTERNAL);
+    }
+
+    /** @return записывается ли текущая трасса потока */
+    public static boolean isRecording() {
+        Span span = CURRENT.get();
+        return span != null && span.sampled;
+    }
+
+    /** @return текущий участок потока или {@link Span#NOOP} */
+    public static Span current() {
+        Span span = CURRENT.get();
+        return span == null ? Span.NOOP : span;
+    }
+
+    /**
+     * Переносит текущий участок в задачу для другого потока: участки задачи станут его дочерними.
+     * Если трасса не записывается, задача возвращается как есть.
+     */
+    public static Runnable wrap(Runnable task) {
+        Span parent = CURRENT.get();
+        if (parent == null || !parent.sampled) {
+            return task;
+        }
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(parent);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /** @return сколько участков отброшено из-за переполнения очереди экспорта */
+    public static long droppedSpans() {
+        return EXPORTER == null ? 0 : EXPORTER.dropped();
+    }
+
+    /** Выгружает оставшиеся участки и останавливает экспорт */
+    public static void shutdown() {
+        if (EXPORTER != null) {
+            EXPORTER.stop();
+        }
+    }
+
+    static long epochNanos() {
+        return EPOCH_BASE_NANOS + (System.nanoTime() - NANO_BASE);
+    }
+
+    /**
+     * Закрывает участок: текущим снова становится предыдущий, записываемый участок уходит в экспорт.
+     */
+    static void end(Span span) {
+        if (CURRENT.get() == span) {
+            restore(span.previous);
+        }
+        if (span.sampled) {
+            span.endEpochNanos = epochNanos();
+            EXPORTER.export(span);
+        }
+    }
+
+    private static void restore(Span previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Разбирает traceparent: {@code версия-trace-id-parent-id-флаги}, только строчные hex.
+     * Версия ff и нулевые идентификаторы недопустимы; у будущих версий читаются первые четыре поля.
+     *
+     * @return родитель (без имени, не текущий) или null, если заголовка нет или он некорректен
+     */
+    static Span parse(String header) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (value.length() < 55 || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-'
+                || (value.length() > 55 && (value.startsWith("00") || value.charAt(55) != '-'))) {
+            return null;
+        }
+        try {
+            long version = hex(value, 0, 2);
+            long high = hex(value, 3, 16);
+            long low = hex(value, 19, 16);
+            long parentId = hex(value, 36, 16);
+            long flags = hex(value, 53, 2);
+            if (version == 0xff || (high == 0 && low == 0) || parentId == 0) {
+                return null;
+            }
+            return new Span(null, null, Span.Kind.SERVER, high, low, parentId, 0, (flags & 1) != 0);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long hex(String s, int from, int length) {
+        long value = 0;
+        for (int i = from; i < from + length; i++) {
+            char c = s.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                throw new IllegalArgumentException("Invalid hex digit in traceparent");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    private static SpanExporter createExporter() {
+        SpanExporter exporter = new SpanExporter(
+                Path.of(AppConfig.get("trace.file", "traces/spans.jsonl")),
+                AppConfig.getLong("trace.maxFileMb", 100) * 1024 * 1024,
+                AppConfig.get("trace.serviceName", "otp-service"),
+                AppConfig.getInt("trace.queueCapacity", 8192),
+                AppConfig.getInt("trace.batchSize", 512),
+                AppConfig.getLong("trace.flushMillis", 1000));
+        exporter.start();
+        logger.info("Tracing enabled: sampleRatio={}", SAMPLE_RATIO);
+        return exporter;
+    }
+}
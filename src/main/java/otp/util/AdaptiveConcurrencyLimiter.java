@@ -0,0 +1,129 @@
+package otp.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Адаптивный ограничитель числа одновременно выполняемых запросов (градиентный алгоритм).
+ * <p>
+ * Лимит подстраивается по наблюдаемой задержке: средняя задержка окна из 50 запросов сравнивается
+ * с задержкой без нагрузки (минимумом наблюдений). Пока задержка укладывается в tolerance,
+ * лимит увеличивается на √limit; когда растёт — уменьшается пропорционально их отношению
+ * (не более чем вдвое за шаг). Изменения сглаживаются, лимит держится в [min, max].
+ * </p>
+ * <p>
+ * Запросы сверх лимита не ждут, а сразу отклоняются. Приоритет определяет, какую долю лимита
+ * может занять запрос: при росте нагрузки первыми отклоняются запросы с низким приоритетом.
+ * </p>
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    /** Приоритет запроса и доля лимита, доступная ему */
+    public enum Priority {
+        CRITICAL(1.0), NORMAL(0.9), LOW(0.5);
+
+        private final double share;
+
+        Priority(double share) {
+            this.share = share;
+        }
+    }
+
+    /** Сколько завершённых запросов усредняется перед пересчётом лимита */
+    private static final int WINDOW_SAMPLES = 50;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+    private double noLoadRtt;
+    private long windowRtt;
+    private int windowCount;
+    private int windowMaxInFlight;
+
+    /**
+     * @param initialLimit начальный лимит
+     * @param minLimit     минимальный лимит
+     * @param maxLimit     максимальный лимит
+     * @param tolerance    во сколько раз задержка может превысить задержку без нагрузки без снижения лимита
+     * @param smoothing    доля нового значения при пересчёте лимита (0..1]
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Пытается занять место под запрос.
+     *
+     * @param priority приоритет запроса
+     * @return число выполняющихся запросов до входа этого (передаётся в {@link #release}), или -1, если запрос отклонён
+     */
+    public int tryAcquire(Priority priority) {
+        int allowed = Math.max(1, (int) (limit * priority.share));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Освобождает место и учитывает задержку запроса.
+     *
+     * @param inFlightAtStart значение, полученное из {@link #tryAcquire}
+     * @param rttNanos        время выполнения запроса
+     */
+    public void release(int inFlightAtStart, long rttNanos) {
+        inFlight.decrementAndGet();
+        onSample(inFlightAtStart, rttNanos);
+    }
+
+    /** @return текущий лимит */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /** @return число выполняющихся запросов */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void onSample(int inFlightAtStart, long rttNanos) {
+        windowRtt += rttNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtStart + 1);
+        if (++windowCount < WINDOW_SAMPLES) {
+            return;
+        }
+
+        // Окно набрано: лимит пересчитывается по средней задержке окна
+        double rtt = Math.max(1.0, (double) windowRtt / windowCount);
+        int maxInFlight = windowMaxInFlight;
+        windowRtt = 0;
+        windowCount = 0;
+        windowMaxInFlight = 0;
+
+        // Задержка без нагрузки: минимум по окнам, медленно дрейфующий вверх, чтобы учесть рост базовой задержки
+        noLoadRtt = noLoadRtt == 0 ? rtt : Math.min(noLoadRtt * 1.0005, rtt);
+
+        // Нагрузка далеко от лимита — задержка ничего не говорит о пропускной способности
+        double current = limit;
+        if (maxInFlight < current / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * noLoadRtt / rtt));
+        double target = current * gradient + Math.sqrt(current);
+        double next = current * (1 - smoothing) + target * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
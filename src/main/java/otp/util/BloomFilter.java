@@ -0,0 +1,87 @@
+package otp.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Потокобезопасный фильтр Блума для строк.
+ * <p>
+ * Отвечает на вопрос «строка точно отсутствует» без ложноотрицательных ответов;
+ * положительный ответ может оказаться ложным с вероятностью около заданной fpp.
+ * Добавление и проверка не блокируют друг друга: биты хранятся в {@link AtomicLongArray}.
+ * </p>
+ */
+public final class BloomFilter {
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions ожидаемое количество элементов
+     * @param fpp                допустимая вероятность ложноположительного ответа (0 &lt; fpp &lt; 1)
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters");
+        }
+        // Классические формулы: m = -n*ln(p)/ln(2)^2, k = m/n*ln(2)
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) >>> 6);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = (long) wordCount << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * Добавляет строку в фильтр.
+     * @param value строка
+     */
+    public void put(String value) {
+        long h1 = hash64(value);
+        long h2 = Long.rotateLeft(h1, 32) | 1;
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    /**
+     * @param value строка
+     * @return false, если строка точно не добавлялась; true — если возможно добавлялась
+     */
+    public boolean mightContain(String value) {
+        long h1 = hash64(value);
+        long h2 = Long.rotateLeft(h1, 32) | 1;
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long index(long combined) {
+        // Двойное хеширование (Kirsch–Mitzenmacher): g_i = h1 + i*h2
+        return (combined & Long.MAX_VALUE) % bitCount;
+    }
+
+    // 64-битный хеш строки: FNV-1a по символам с финальным перемешиванием из MurmurHash3
+    private static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
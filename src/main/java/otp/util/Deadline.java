@@ -0,0 +1,89 @@
+package otp.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Крайний срок обработки текущего запроса.
+ * <p>
+ * Устанавливается при входе запроса и хранится в ThreadLocal потока обработки, поэтому
+ * сервисам и DAO не нужно передавать его явно: каждый этап (JDBC-запрос, отправка кода,
+ * хеширование пароля) берёт оставшийся бюджет через {@link #remainingMillis()} и прекращает
+ * работу с {@link DeadlineExceededException}, когда бюджет исчерпан. Истечения считаются по этапам.
+ * Вне запроса срок не установлен, и ограничений нет.
+ * </p>
+ */
+public final class Deadline {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+    private static final Map<String, LongAdder> TIMEOUTS = new ConcurrentHashMap<>();
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private Deadline() {}
+
+    /**
+     * Устанавливает срок для текущего потока.
+     *
+     * @param budgetMillis бюджет времени в миллисекундах
+     */
+    public static void start(long budgetMillis) {
+        DEADLINE.set(System.nanoTime() + budgetMillis * 1_000_000L);
+    }
+
+    /** Снимает срок с текущего потока */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /** @return true, если для текущего потока установлен срок */
+    public static boolean isSet() {
+        return DEADLINE.get() != null;
+    }
+
+    /** @return true, если срок установлен и уже прошёл */
+    public static boolean isExpired() {
+        Long deadline = DEADLINE.get();
+        return deadline != null && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return оставшийся бюджет в миллисекундах (0 — истёк) или Long.MAX_VALUE, если срок не установлен
+     */
+    public static long remainingMillis() {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (deadline - System.nanoTime()) / 1_000_000L);
+    }
+
+    /**
+     * Проверяет, что бюджет ещё не исчерпан.
+     *
+     * @param stage этап, от имени которого выполняется проверка
+     * @throws DeadlineExceededException если срок прошёл
+     */
+    public static void check(String stage) {
+        if (isExpired()) {
+            throw expired(stage);
+        }
+    }
+
+    /**
+     * Учитывает истечение срока на этапе и возвращает исключение для выброса.
+     */
+    public static DeadlineExceededException expired(String stage) {
+        TIMEOUTS.computeIfAbsent(stage, s -> new LongAdder()).increment();
+        return new DeadlineExceededException(stage);
+    }
+
+    /**
+     * @return количество истечений срока по этапам
+     */
+    public static Map<String, Long> timeouts() {
+        Map<String, Long> result = new TreeMap<>();
+        TIMEOUTS.forEach((stage, count) -> result.put(stage, count.sum()));
+        return result;
+    }
+}
@@ -0,0 +1,15 @@
+package otp.util;
+
+/**
+ * Бюджет времени запроса исчерпан; работа по запросу прекращается.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param stage этап, на котором истёк бюджет (jdbc, notify.EMAIL и т.п.)
+     */
+    public DeadlineExceededException(String stage) {
+        super("Deadline exceeded at " + stage);
+    }
+}
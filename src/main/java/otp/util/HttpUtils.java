@@ -4,17 +4,71 @@ import com.sun.net.httpserver.HttpExchange;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Отправка HTTP-ответов.
+ * <p>
+ * Тела ошибок с постоянными сообщениями закодированы заранее; остальные сообщения кодируются
+ * с экранированием JSON прямо в UTF-8 в буфер потока обработки. Ответ с телом отправляется
+ * с известной Content-Length одной записью, заголовок Content-Type — общим неизменяемым списком,
+ * поэтому типичные ответы об ошибках и ответы без тела почти не выделяют памяти.
+ * </p>
+ */
 public class HttpUtils {
+    private static final String CONTENT_TYPE = "Content-Type";
+
+    // Общее неизменяемое значение заголовка: Headers.set создавал бы новый список на каждый ответ
+    private static final List<String> JSON_CONTENT_TYPE = List.of("application/json");
+
+    private static final byte[] ERROR_PREFIX = "{\"error\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String DEADLINE_EXCEEDED = "Request deadline exceeded";
+
+    // Заранее закодированные тела ошибок с постоянными сообщениями
+    private static final Map<String, byte[]> FIXED_ERRORS = fixedErrors(
+            "Internal server error",
+            DEADLINE_EXCEEDED,
+            "Unauthorized",
+            "Forbidden",
+            "Missing or invalid Authorization header",
+            "Invalid or expired token",
+            "Too many requests",
+            "Server overloaded, retry later",
+            "Service busy, retry later",
+            "Request with this key is in progress",
+            "Admin already exists",
+            "Invalid or expired code",
+            "Batch is empty",
+            "Each item must contain code",
+            "Invalid user_id",
+            "Invalid after_id or limit",
+            "Invalid status or limit",
+            "Malformed JSON"
+    );
+
+    private static final int BUFFER_SIZE = 512;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
 
     // Отправить JSON-ответ с указанным статусом
     public static void sendJsonResponse(HttpExchange exch, int status, String json) throws IOException {
-        exch.getResponseHeaders().set("Content-Type", "application/json");
         byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
-        exch.sendResponseHeaders(status, bytes.length);
+        sendJson(exch, status, bytes, bytes.length);
+    }
+
+    // Отправить JSON-тело из первых length байт массива: длина известна, тело пишется одним вызовом
+    public static void sendJson(HttpExchange exch, int status, byte[] body, int length) throws IOException {
+        exch.getResponseHeaders().put(CONTENT_TYPE, JSON_CONTENT_TYPE);
+        exch.sendResponseHeaders(status, length);
         try (OutputStream os = exch.getResponseBody()) {
-            os.write(bytes);
+            os.write(body, 0, length);
         }
     }
 
@@ -23,11 +77,112 @@ public class HttpUtils {
         exch.sendResponseHeaders(status, -1);
     }
 
-    // Отправить JSON-ошибку с сообщением
+    // Отправить JSON-ошибку {"error":"..."} с сообщением.
+    // Внутренняя ошибка после истечения срока запроса отдаётся как 504: причина — исчерпанный бюджет
     public static void sendError(HttpExchange exch, int status, String message) throws IOException {
-        String errorJson = String.format("{\"error\":\"%s\"}", message);
-        sendJsonResponse(exch, status, errorJson);
+        if (status == 500 && Deadline.isExpired()) {
+            status = 504;
+            message = DEADLINE_EXCEEDED;
+        }
+        byte[] fixed = message == null ? null : FIXED_ERRORS.get(message);
+        if (fixed != null) {
+            sendJson(exch, status, fixed, fixed.length);
+            return;
+        }
+        String text = message == null ? "null" : message;
+        // Худший случай — шесть байт на символ: управляющий символ пишется как escape-последовательность
+        int maxLength = ERROR_PREFIX.length + text.length() * 6 + ERROR_SUFFIX.length;
+        byte[] buffer = maxLength <= BUFFER_SIZE ? BUFFER.get() : new byte[maxLength];
+        int length = encodeError(text, buffer);
+        sendJson(exch, status, buffer, length);
+    }
+
+    // Начать потоковый JSON-ответ: длина неизвестна, тело передаётся chunked
+    public static OutputStream startJsonStream(HttpExchange exch, int status) throws IOException {
+        exch.getResponseHeaders().put(CONTENT_TYPE, JSON_CONTENT_TYPE);
+        exch.sendResponseHeaders(status, 0);
+        return exch.getResponseBody();
+    }
+
+    // Прочитать тело запроса не длиннее maxBytes; null — тело больше лимита, остаток не читается
+    public static byte[] readBody(HttpExchange exch, int maxBytes) throws IOException {
+        byte[] body = exch.getRequestBody().readNBytes(maxBytes + 1);
+        return body.length > maxBytes ? null : body;
     }
-}
 
+    // Разобрать параметры строки запроса (при повторе параметра берётся первое значение)
+    public static Map<String, String> queryParams(HttpExchange exch) {
+        Map<String, String> params = new HashMap<>();
+        String query = exch.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.putIfAbsent(name, value);
+        }
+        return params;
+    }
+
+    // Размер страницы из параметра limit: по умолчанию defaultLimit, не больше maxLimit
+    public static int pageLimit(Map<String, String> params, int defaultLimit, int maxLimit) {
+        String value = params.get("limit");
+        int limit = value == null ? defaultLimit : Integer.parseInt(value);
+        if (limit <= 0) {
+            throw new NumberFormatException("limit must be positive");
+        }
+        return Math.min(limit, maxLimit);
+    }
 
+    // Кодирует {"error":"<message>"} в UTF-8 с экранированием строки JSON; возвращает длину
+    private static int encodeError(String message, byte[] out) {
+        System.arraycopy(ERROR_PREFIX, 0, out, 0, ERROR_PREFIX.length);
+        int pos = ERROR_PREFIX.length;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '"' || c == '\\') {
+                out[pos++] = '\\';
+                out[pos++] = (byte) c;
+            } else if (c < 0x20) {
+                out[pos++] = '\\';
+                out[pos++] = 'u';
+                out[pos++] = '0';
+                out[pos++] = '0';
+                out[pos++] = HEX[c >> 4];
+                out[pos++] = HEX[c & 0xF];
+            } else if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < message.length()
+                    && Character.isLowSurrogate(message.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, message.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Непарный суррогат в UTF-8 не кодируется: заменяем на '?'
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        System.arraycopy(ERROR_SUFFIX, 0, out, pos, ERROR_SUFFIX.length);
+        return pos + ERROR_SUFFIX.length;
+    }
+
+    private static Map<String, byte[]> fixedErrors(String... messages) {
+        Map<String, byte[]> bodies = new HashMap<>();
+        for (String message : messages) {
+            byte[] buffer = new byte[ERROR_PREFIX.length + message.length() * 6 + ERROR_SUFFIX.length];
+            bodies.put(message, Arrays.copyOf(buffer, encodeError(message, buffer)));
+        }
+        return Map.copyOf(bodies);
+    }
+}
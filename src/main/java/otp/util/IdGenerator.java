@@ -0,0 +1,95 @@
+package otp.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Генератор 64-битных идентификаторов на стороне приложения (в духе Snowflake).
+ * <p>
+ * Идентификатор складывается из 41 бита миллисекунд от 2024-01-01 UTC, 10 бит номера узла
+ * (id.nodeId, у каждого узла свой) и 12 бит порядкового номера в миллисекунде. Поэтому
+ * идентификаторы, выданные разными узлами, не совпадают и примерно упорядочены по времени,
+ * а идентификаторы одного узла строго возрастают. Сущности получают id до вставки,
+ * и вставки не ждут ключей от БД.
+ * </p>
+ * <p>
+ * Генерация без блокировок: состояние (миллисекунда и номер) меняется одним CAS. Если номера
+ * в миллисекунде кончились или часы ушли назад, генератор не ждёт, а продолжает со следующей
+ * миллисекунды после последней выданной — идентификаторы остаются уникальными и возрастающими,
+ * их время лишь немного опережает часы, пока те не догонят. Состояние не сохраняется между
+ * запусками, поэтому узел нельзя перезапускать с часами, отставшими от момента остановки.
+ * </p>
+ */
+public final class IdGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(IdGenerator.class);
+
+    /** 2024-01-01T00:00:00Z */
+    private static final long EPOCH_MILLIS = 1_704_067_200_000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    /** Насколько время выданных идентификаторов может опережать часы, прежде чем об этом предупредить */
+    private static final long AHEAD_WARN_MILLIS = 1000;
+
+    private static final IdGenerator DEFAULT = new IdGenerator(AppConfig.getInt("id.nodeId", 0));
+
+    private final long nodeBits;
+    /** Последнее выданное значение: миллисекунда от EPOCH_MILLIS, сдвинутая на SEQUENCE_BITS, плюс номер */
+    private final AtomicLong last = new AtomicLong();
+    private volatile long warnedAt;
+
+    /**
+     * @param nodeId номер узла, от 0 до {@link #MAX_NODE_ID}
+     */
+    public IdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("id.nodeId must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    /** @return следующий идентификатор генератора узла (id.nodeId) */
+    public static long next() {
+        return DEFAULT.nextId();
+    }
+
+    /** @return следующий идентификатор этого генератора */
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long prev;
+        long value;
+        do {
+            prev = last.get();
+            // Новая миллисекунда — номер с нуля; иначе следующий номер, при переполнении — следующая миллисекунда
+            value = Math.max(now, prev + 1);
+        } while (!last.compareAndSet(prev, value));
+
+        if (value - now > AHEAD_WARN_MILLIS << SEQUENCE_BITS) {
+            warnAhead((value - now) >> SEQUENCE_BITS);
+        }
+        return ((value >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (value & SEQUENCE_MASK);
+    }
+
+    /** @return момент выдачи идентификатора, миллисекунды epoch */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    /** @return номер узла, выдавшего идентификатор */
+    public static int nodeOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+
+    private void warnAhead(long aheadMillis) {
+        long second = System.currentTimeMillis() / 1000;
+        if (warnedAt != second) {
+            warnedAt = second;
+            logger.warn("Id generator runs {} ms ahead of the clock: clock moved back or ids exhausted", aheadMillis);
+        }
+    }
+}
@@ -1,19 +1,28 @@
 package otp.util;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 
 public class JsonUtil {
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
-    // Парсит JSON-тело запроса в объект указанного класса
-    public static <T> T fromJson(InputStream is, Class<T> clazz) throws IOException {
-        return MAPPER.readValue(is, clazz);
+    // Парсит JSON в дерево узлов (для выборочного чтения полей)
+    public static JsonNode readTree(byte[] json) throws IOException {
+        return MAPPER.readTree(json);
     }
 
-    // Маршалим объект в JSON-строку
-    public static String toJson(Object obj) throws IOException {
-        return MAPPER.writeValueAsString(obj);
+    // Создаёт потоковый парсер JSON над частью массива байт
+    public static JsonParser createParser(byte[] json, int offset, int length) throws IOException {
+        return MAPPER.getFactory().createParser(json, offset, length);
     }
-}
\ No newline at end of file
+
+    // Создаёт потоковый генератор JSON поверх выходного потока (поток закрывается вместе с генератором)
+    public static JsonGenerator createGenerator(OutputStream os) throws IOException {
+        return MAPPER.getFactory().createGenerator(os, JsonEncoding.UTF8);
+    }
+}
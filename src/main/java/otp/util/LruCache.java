@@ -0,0 +1,169 @@
+package otp.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Потокобезопасный LRU-кеш с ограничением размера и временем жизни записей.
+ * <p>
+ * Ключи распределяются по независимым сегментам (каждый — LinkedHashMap в порядке доступа
+ * со своей блокировкой), поэтому параллельные обращения к разным ключам почти не конкурируют.
+ * Лимит размера соблюдается по каждому сегменту, вытесняется наиболее давно использованная запись.
+ * </p>
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public final class LruCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long ttlNanos;
+
+    /**
+     * @param maxSize    максимальное количество записей
+     * @param ttlSeconds время жизни записи в секундах
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(int maxSize, long ttlSeconds) {
+        int perSegment = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(perSegment);
+        }
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+    }
+
+    /**
+     * @param key ключ
+     * @return значение или null, если записи нет или она устарела
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.createdAt > ttlNanos) {
+                segment.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    /**
+     * Кладёт значение в кеш, вытесняя при необходимости самую старую по использованию запись.
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new Entry<>(value, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Кладёт значение, только если живой записи с этим ключом нет.
+     *
+     * @return текущее значение, если запись уже есть, иначе null (значение добавлено)
+     */
+    public V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            long now = System.nanoTime();
+            Entry<V> entry = segment.get(key);
+            if (entry != null && now - entry.createdAt <= ttlNanos) {
+                return entry.value;
+            }
+            segment.put(key, new Entry<>(value, now));
+            return null;
+        }
+    }
+
+    /**
+     * Удаляет запись по ключу.
+     */
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Удаляет все записи, для которых предикат вернул true.
+     * Проходит по всему кешу, поэтому предназначен для редких операций.
+     */
+    public void removeIf(BiPredicate<K, V> predicate) {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                Iterator<Map.Entry<K, Entry<V>>> it = segment.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<K, Entry<V>> e = it.next();
+                    if (predicate.test(e.getKey(), e.getValue().value)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Очищает кеш */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return текущее количество записей (включая ещё не вычищенные устаревшие)
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /** Сегмент кеша: LinkedHashMap в порядке доступа с ограничением размера */
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /** Запись кеша со временем создания */
+    private static final class Entry<V> {
+        final V value;
+        final long createdAt;
+
+        Entry(V value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
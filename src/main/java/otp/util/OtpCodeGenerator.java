@@ -0,0 +1,112 @@
+package otp.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
+
+/**
+ * Генератор цифровых OTP-кодов для высокой нагрузки.
+ * <p>
+ * У каждого потока свой экземпляр DRBG (Hash_DRBG, 256 бит), поэтому потоки не конкурируют
+ * за общий synchronized SecureRandom. Строка персонализации каждого экземпляра берётся
+ * из неблокирующего системного источника (/dev/urandom), экземпляры создаются лениво
+ * при первом обращении потока, а не при старте приложения.
+ * </p>
+ * <p>
+ * Случайные байты запрашиваются пачками; цифра получается выборкой с отклонением:
+ * байты 250..255 отбрасываются, остальные берутся по модулю 10, поэтому распределение цифр
+ * равномерное. Код собирается в переиспользуемом буфере символов потока.
+ * </p>
+ */
+public final class OtpCodeGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(OtpCodeGenerator.class);
+
+    /** Сколько случайных байт запрашивать за раз */
+    private static final int RANDOM_BATCH = 64;
+
+    /** Граница выборки: 250 — наибольшее кратное 10, не превышающее 256; байты от неё и выше отбрасываются */
+    private static final int REJECT_THRESHOLD = 250;
+
+    private static final SecureRandom SEED_SOURCE = createSeedSource();
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private OtpCodeGenerator() {}
+
+    /**
+     * Генерирует случайный цифровой код.
+     *
+     * @param length количество цифр
+     * @return строка из length цифр
+     */
+    public static String generate(int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("OTP length must be positive");
+        }
+        State state = STATE.get();
+        char[] chars = state.chars(length);
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('0' + state.nextDigit());
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static SecureRandom createSeedSource() {
+        try {
+            return SecureRandom.getInstance("NativePRNGNonBlocking");
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("NativePRNGNonBlocking is not available, falling back to default SecureRandom");
+            return new SecureRandom();
+        }
+    }
+
+    private static SecureRandom createDrbg() {
+        // Персонализация: случайные байты плюс идентификатор потока, чтобы экземпляры гарантированно различались
+        byte[] personalization = ByteBuffer.allocate(40)
+                .put(SEED_SOURCE.generateSeed(32))
+                .putLong(Thread.currentThread().threadId())
+                .array();
+        try {
+            return SecureRandom.getInstance("DRBG",
+                    DrbgParameters.instantiation(256, RESEED_ONLY, personalization));
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("DRBG is not available, falling back to default SecureRandom");
+            return new SecureRandom(personalization);
+        }
+    }
+
+    /** Состояние генератора, принадлежащее одному потоку */
+    private static final class State {
+        private final SecureRandom random = createDrbg();
+        private final byte[] bytes = new byte[RANDOM_BATCH];
+        private int position = RANDOM_BATCH;
+        private char[] chars = new char[16];
+
+        char[] chars(int length) {
+            if (chars.length < length) {
+                chars = new char[length];
+            }
+            return chars;
+        }
+
+        int nextDigit() {
+            while (true) {
+                if (position == RANDOM_BATCH) {
+                    random.nextBytes(bytes);
+                    position = 0;
+                }
+                int b = bytes[position++] & 0xFF;
+                if (b < REJECT_THRESHOLD) {
+                    return b % 10;
+                }
+            }
+        }
+    }
+}
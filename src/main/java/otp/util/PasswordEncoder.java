@@ -3,56 +3,239 @@ package otp.util;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import otp.config.AppConfig;
 
 /**
  * Утиль для хеширования паролей и проверки совпадения raw-пароля с сохранённым хешем.
+ * <p>
+ * Хеш хранится в версионированном формате {@code pbkdf2-sha256$<итерации>$<соль hex>$<хеш hex>}.
+ * Старые хеши (несолёный SHA-256 в hex) по-прежнему принимаются, но {@link #needsRehash(String)}
+ * сообщает, что их нужно пересчитать при ближайшем успешном входе.
+ * </p>
+ * <p>
+ * Вычисление PBKDF2 выполняется на выделенном ограниченном пуле потоков
+ * (password.hash.threads, password.hash.queue), чтобы всплеск логинов не отнимал
+ * все ядра у обработки OTP. При переполнении очереди бросается {@link RejectedExecutionException}.
+ * </p>
  */
 public final class PasswordEncoder {
     private static final Logger logger = LoggerFactory.getLogger(PasswordEncoder.class);
 
+    private static final String PBKDF2_PREFIX = "pbkdf2-sha256";
+    private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    private static final int LEGACY_HEX_LENGTH = 64;
+
+    /** Стоимость PBKDF2 (число итераций) для новых хешей */
+    private static final int ITERATIONS = AppConfig.getInt("password.pbkdf2.iterations", 210_000);
+
+    private static final SecureRandom SALT_RANDOM = new SecureRandom();
+
+    // Таблицы для перевода байтов в hex и обратно без String.format
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    /** Выделенный пул для вычисления хешей */
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
     // Закрытый конструктор, чтобы нельзя было создать экземпляр
     private PasswordEncoder() {}
 
     /**
-     * Хеширует переданный пароль алгоритмом SHA-256 и возвращает HEX-представление.
+     * Хеширует переданный пароль алгоритмом PBKDF2 со случайной солью и возвращает строку в версионированном формате.
      *
      * @param rawPassword исходный пароль
-     * @return hex-строка хеша
+     * @return строка хеша
      */
     public static String hash(String rawPassword) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashBytes = digest.digest(rawPassword.getBytes(StandardCharsets.UTF_8));
-            return bytesToHex(hashBytes);
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("Не удалось получить алгоритм SHA-256 для хеширования пароля", e);
-            throw new IllegalStateException("SHA-256 algorithm not available", e);
-        }
+        return await(() -> hashNow(rawPassword));
     }
 
     /**
      * Проверяет, что rawPassword после хеширования совпадает с уже сохранённым хешем.
      *
      * @param rawPassword  сырой пароль
-     * @param storedHash   сохранённый хеш (hex-строка)
+     * @param storedHash   сохранённый хеш (PBKDF2 или старый hex SHA-256)
      * @return true, если совпадают
      */
     public static boolean matches(String rawPassword, String storedHash) {
         if (storedHash == null || rawPassword == null) {
             return false;
         }
-        return hash(rawPassword).equalsIgnoreCase(storedHash);
+        return await(() -> matchesNow(rawPassword, storedHash));
+    }
+
+    /**
+     * Проверяет, нужно ли пересчитать сохранённый хеш: старый формат или стоимость ниже текущей.
+     *
+     * @param storedHash сохранённый хеш
+     * @return true, если хеш следует обновить
+     */
+    public static boolean needsRehash(String storedHash) {
+        if (storedHash == null || !storedHash.startsWith(PBKDF2_PREFIX + "$")) {
+            return true;
+        }
+        String[] parts = storedHash.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < ITERATIONS;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static String hashNow(String rawPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        SALT_RANDOM.nextBytes(salt);
+        byte[] key = pbkdf2(rawPassword, salt, ITERATIONS);
+        return PBKDF2_PREFIX + '$' + ITERATIONS + '$' + bytesToHex(salt) + '$' + bytesToHex(key);
+    }
+
+    private static boolean matchesNow(String rawPassword, String storedHash) {
+        try {
+            // Старый формат: несолёный SHA-256 в hex
+            if (!storedHash.startsWith(PBKDF2_PREFIX + "$")) {
+                return storedHash.length() == LEGACY_HEX_LENGTH
+                        && MessageDigest.isEqual(sha256(rawPassword), hexToBytes(storedHash));
+            }
+
+            String[] parts = storedHash.split("\\$");
+            if (parts.length != 4) {
+                logger.warn("Malformed password hash, {} parts", parts.length);
+                return false;
+            }
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = hexToBytes(parts[2]);
+            byte[] expected = hexToBytes(parts[3]);
+            return MessageDigest.isEqual(pbkdf2(rawPassword, salt, iterations), expected);
+        } catch (IllegalArgumentException e) {
+            // Повреждённый хеш в БД не должен превращаться в сообщение об ошибке для клиента
+            logger.warn("Malformed password hash: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] pbkdf2(String rawPassword, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            logger.error("Не удалось получить алгоритм {} для хеширования пароля", PBKDF2_ALGORITHM, e);
+            throw new IllegalStateException(PBKDF2_ALGORITHM + " algorithm not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] sha256(String rawPassword) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return digest.digest(rawPassword.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Не удалось получить алгоритм SHA-256 для хеширования пароля", e);
+            throw new IllegalStateException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    // Выполняет задачу на пуле хеширования и дожидается результата в пределах срока запроса
+    private static <T> T await(Callable<T> task) {
+        Deadline.check("password.hash");
+        Future<T> future = EXECUTOR.submit(task);
+        try {
+            return future.get(Deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Результат уже никому не нужен — снимаем задачу, если она ещё в очереди
+            future.cancel(true);
+            throw Deadline.expired("password.hash");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Password hashing failed", cause);
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = AppConfig.getInt("password.hash.threads", Math.max(1, cores / 2));
+        int queue = AppConfig.getInt("password.hash.queue", 256);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue),
+                r -> {
+                    Thread t = new Thread(r, "password-hash-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        logger.info("Password hashing pool: threads={}, queue={}, iterations={}", threads, queue, ITERATIONS);
+        return executor;
     }
 
     // Помощник: перевод массива байт в hex
     private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            chars[i * 2] = HEX_DIGITS[v >>> 4];
+            chars[i * 2 + 1] = HEX_DIGITS[v & 0x0F];
         }
-        return sb.toString();
+        return new String(chars);
     }
-}
 
+    // Помощник: перевод hex-строки в массив байт
+    private static byte[] hexToBytes(String hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("Invalid hex length");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = hexValue(hex.charAt(i * 2));
+            int lo = hexValue(hex.charAt(i * 2 + 1));
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
+    private static int hexValue(char c) {
+        int v = c < 128 ? HEX_VALUES[c] : -1;
+        if (v < 0) {
+            throw new IllegalArgumentException("Invalid hex character: " + c);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,204 @@
+package otp.util;
+
+/**
+ * Ограничитель частоты на основе token bucket с блокировкой нарушителей.
+ * <p>
+ * Ключ — произвольное 64-битное значение (например, идентификатор пользователя или хеш пары
+ * «пользователь, операция»). Корзины хранятся в параллельных примитивных массивах таблиц
+ * с открытой адресацией, разбитых на независимо блокируемые сегменты, поэтому проверка
+ * не создаёт объектов и потоки с разными ключами почти не конкурируют.
+ * </p>
+ * <p>
+ * Если запрос отклонён и задано время блокировки, ключ блокируется целиком на это время.
+ * Простаивающие корзины (полные и не заблокированные) не хранят полезного состояния
+ * и вычищаются, когда сегменту нужно расти.
+ * </p>
+ */
+public final class RateLimiter {
+    private final double capacity;
+    private final double refillPerNano;
+    private final long lockoutNanos;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * @param capacity        ёмкость корзины (допустимый всплеск)
+     * @param refillPerMinute сколько разрешений восстанавливается за минуту
+     * @param lockoutSeconds  время блокировки ключа после отказа (0 — без блокировки)
+     * @param stripeCount     количество сегментов (округляется вверх до степени двойки)
+     */
+    public RateLimiter(int capacity, double refillPerMinute, long lockoutSeconds, int stripeCount) {
+        if (capacity <= 0 || refillPerMinute <= 0) {
+            throw new IllegalArgumentException("capacity and refillPerMinute must be positive");
+        }
+        this.capacity = capacity;
+        this.refillPerNano = refillPerMinute / 60_000_000_000.0;
+        this.lockoutNanos = lockoutSeconds * 1_000_000_000L;
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeMask = size - 1;
+    }
+
+    /**
+     * @return ёмкость корзины: больше разрешений за один раз получить нельзя
+     */
+    public int capacity() {
+        return (int) capacity;
+    }
+
+    /**
+     * Пытается забрать разрешения из корзины ключа.
+     *
+     * @param key     ключ корзины
+     * @param permits количество разрешений
+     * @return 0, если разрешено; иначе через сколько миллисекунд стоит повторить
+     */
+    public long tryAcquire(long key, int permits) {
+        long now = System.nanoTime();
+        Stripe stripe = stripes[(int) (mix(key) >>> 32) & stripeMask];
+        synchronized (stripe) {
+            int i = stripe.slotFor(key, now, this);
+
+            // Ключ заблокирован после предыдущего нарушения
+            long locked = stripe.lockedUntil[i] - now;
+            if (locked > 0) {
+                return toMillis(locked);
+            }
+
+            double tokens = Math.min(capacity, stripe.tokens[i] + (now - stripe.updatedAt[i]) * refillPerNano);
+            stripe.updatedAt[i] = now;
+            if (tokens >= permits) {
+                stripe.tokens[i] = tokens - permits;
+                return 0;
+            }
+            stripe.tokens[i] = tokens;
+            if (lockoutNanos > 0) {
+                stripe.lockedUntil[i] = now + lockoutNanos;
+                return toMillis(lockoutNanos);
+            }
+            return toMillis((long) Math.ceil((permits - tokens) / refillPerNano));
+        }
+    }
+
+    /**
+     * @return количество отслеживаемых ключей
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Объединяет два значения в ключ корзины.
+     */
+    public static long key(long first, long second) {
+        return mix(first) * 31 + second;
+    }
+
+    // Простаивающая корзина: полностью восстановилась и не заблокирована
+    private boolean isIdle(double tokens, long updatedAt, long lockedUntil, long now) {
+        return lockedUntil - now <= 0 && tokens + (now - updatedAt) * refillPerNano >= capacity;
+    }
+
+    private static long toMillis(long nanos) {
+        return Math.max(1, (nanos + 999_999) / 1_000_000);
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Сегмент: таблица с открытой адресацией и линейным пробированием, состояние корзин — в параллельных массивах.
+     * Все методы вызываются под монитором сегмента.
+     */
+    private static final class Stripe {
+        private long[] keys = new long[16];
+        private boolean[] used = new boolean[16];
+        private double[] tokens = new double[16];
+        private long[] updatedAt = new long[16];
+        private long[] lockedUntil = new long[16];
+        private int size;
+
+        /**
+         * Находит корзину ключа или создаёт полную.
+         */
+        int slotFor(long key, long now, RateLimiter limiter) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (used[i]) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                rebuild(now, limiter);
+                return slotFor(key, now, limiter);
+            }
+            used[i] = true;
+            keys[i] = key;
+            tokens[i] = limiter.capacity;
+            updatedAt[i] = now;
+            lockedUntil[i] = now;
+            size++;
+            return i;
+        }
+
+        /**
+         * Перестраивает таблицу без простаивающих корзин; если занятых всё ещё много — вдвое большего размера.
+         */
+        private void rebuild(long now, RateLimiter limiter) {
+            int live = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i] && !limiter.isIdle(tokens[i], updatedAt[i], lockedUntil[i], now)) {
+                    live++;
+                }
+            }
+            int capacity = (live + 1) * 2 > keys.length ? keys.length * 2 : keys.length;
+
+            long[] oldKeys = keys;
+            boolean[] oldUsed = used;
+            double[] oldTokens = tokens;
+            long[] oldUpdatedAt = updatedAt;
+            long[] oldLockedUntil = lockedUntil;
+            keys = new long[capacity];
+            used = new boolean[capacity];
+            tokens = new double[capacity];
+            updatedAt = new long[capacity];
+            lockedUntil = new long[capacity];
+            size = 0;
+
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (!oldUsed[j] || limiter.isIdle(oldTokens[j], oldUpdatedAt[j], oldLockedUntil[j], now)) {
+                    continue;
+                }
+                int i = slot(oldKeys[j], mask);
+                while (used[i]) {
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = oldKeys[j];
+                tokens[i] = oldTokens[j];
+                updatedAt[i] = oldUpdatedAt[j];
+                lockedUntil[i] = oldLockedUntil[j];
+                size++;
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0xC2B2AE3D27D4EB4FL;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
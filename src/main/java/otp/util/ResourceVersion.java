@@ -0,0 +1,34 @@
+package otp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Монотонно растущая версия ресурса в памяти узла.
+ * <p>
+ * DAO повышают версию после каждого изменения данных ресурса, а обработчики GET сравнивают
+ * её с версией сохранённого представления, чтобы не обращаться к БД, пока данные не менялись.
+ * Изменения, сделанные другими узлами, версию не повышают: сохранённые представления
+ * для этого ограничены по времени жизни.
+ * </p>
+ */
+public final class ResourceVersion {
+    /** Список пользователей: создание и удаление */
+    public static final ResourceVersion USERS = new ResourceVersion();
+
+    /** Конфигурация OTP-кодов */
+    public static final ResourceVersion OTP_CONFIG = new ResourceVersion();
+
+    private final AtomicLong version = new AtomicLong();
+
+    private ResourceVersion() {}
+
+    /** @return текущая версия */
+    public long get() {
+        return version.get();
+    }
+
+    /** Отмечает изменение ресурса */
+    public void bump() {
+        version.incrementAndGet();
+    }
+}
@@ -33,7 +33,7 @@ public final class TokenManager {
         String token = UUID.randomUUID().toString();
         Instant expiry = Instant.now().plus(TTL_MINUTES, ChronoUnit.MINUTES);
         tokens.put(token, new TokenInfo(user, expiry));
-        logger.info("Generated token {} for user {} (expires at {})", token, user.getUsername(), expiry);
+        logger.info("Generated token for user {} (expires at {})", user.getUsername(), expiry);
         return token;
     }
 
@@ -50,7 +50,7 @@ public final class TokenManager {
         }
         if (Instant.now().isAfter(info.expiry)) {
             tokens.remove(token);
-            logger.warn("Token {} expired at {}, removed from store", token, info.expiry);
+            logger.warn("Token of user {} expired at {}, removed from store", info.user.getUsername(), info.expiry);
             return false;
         }
         return true;
@@ -74,7 +74,7 @@ public final class TokenManager {
      */
     public static void revoke(String token) {
         if (tokens.remove(token) != null) {
-            logger.info("Token {} revoked", token);
+            logger.info("Token revoked");
         }
     }
 
@@ -1,8 +1,9 @@
 -- Описание схемы для сервиса OTP
 
 -- Таблица пользователей
+-- id пользователей и кодов присваивает приложение (IdGenerator): 64-битные, упорядоченные по времени
 CREATE TABLE IF NOT EXISTS users (
-    id            BIGSERIAL PRIMARY KEY,
+    id            BIGINT PRIMARY KEY,
     username      VARCHAR(50) NOT NULL UNIQUE,
     password_hash VARCHAR(255) NOT NULL,
     role          VARCHAR(10) NOT NULL CHECK (role IN ('ADMIN','USER'))
@@ -15,15 +16,74 @@ CREATE TABLE IF NOT EXISTS otp_config (
     ttl_seconds INT NOT NULL CHECK (ttl_seconds > 0)
 );
 
--- Таблица OTP-кодов
-CREATE TABLE IF NOT EXISTS otp_codes (
-    id           BIGSERIAL PRIMARY KEY,
+-- Живые (ACTIVE) OTP-коды. Строки только вставляются и удаляются: при использовании или истечении
+-- код переносится в otp_history. Таблица остаётся маленькой и целиком помещается в shared_buffers,
+-- а частый autovacuum не даёт ей разрастаться от удалённых строк.
+CREATE TABLE IF NOT EXISTS otp_active (
+    id           BIGINT PRIMARY KEY,
     user_id      BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
     operation_id VARCHAR(100),  -- можно привязать к операции/транзакции
     code         VARCHAR(20) NOT NULL,
-    status       VARCHAR(10) NOT NULL CHECK (status IN ('ACTIVE','USED','EXPIRED')),
     created_at   TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW()
+) WITH (
+    autovacuum_vacuum_scale_factor = 0.0,
+    autovacuum_vacuum_threshold = 1000,
+    autovacuum_analyze_scale_factor = 0.02
 );
 
--- Индекс по полю code для быстрого поиска
-CREATE INDEX IF NOT EXISTS idx_otp_codes_code ON otp_codes(code);
+-- Живые коды теряют ценность через ttl_seconds, поэтому таблицу можно сделать нежурналируемой:
+-- записи дешевле, но после аварийного перезапуска PostgreSQL она окажется пустой
+-- (пользователи запросят коды заново). На репликах UNLOGGED-таблицы недоступны.
+-- ALTER TABLE otp_active SET UNLOGGED;
+
+-- Индекс по полю code для проверки кода
+CREATE INDEX IF NOT EXISTS idx_otp_active_code ON otp_active(code);
+
+-- Индекс для пакетной проверки и истории кодов пользователя
+CREATE INDEX IF NOT EXISTS idx_otp_active_user_created ON otp_active(user_id, created_at DESC, id DESC);
+
+-- Индекс для перевода просроченных кодов в историю
+CREATE INDEX IF NOT EXISTS idx_otp_active_created ON otp_active(created_at);
+
+-- История OTP-кодов (USED и EXPIRED): только дописывается
+CREATE TABLE IF NOT EXISTS otp_history (
+    id           BIGINT PRIMARY KEY,
+    user_id      BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    operation_id VARCHAR(100),
+    code         VARCHAR(20) NOT NULL,
+    status       VARCHAR(10) NOT NULL CHECK (status IN ('USED','EXPIRED')),
+    created_at   TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    finished_at  TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW()  -- момент перехода в USED или EXPIRED
+);
+
+-- Индекс для истории кодов пользователя (keyset-пагинация от новых к старым)
+CREATE INDEX IF NOT EXISTS idx_otp_history_user_created ON otp_history(user_id, created_at DESC, id DESC);
+
+-- Индекс для выгрузки старых записей в архив (archive.enabled) по возрастанию времени создания
+CREATE INDEX IF NOT EXISTS idx_otp_history_created ON otp_history(created_at, id);
+
+-- Перенос кодов из прежней общей таблицы otp_codes, если она есть
+DO $$
+BEGIN
+    IF to_regclass('otp_codes') IS NOT NULL THEN
+        INSERT INTO otp_active (id, user_id, operation_id, code, created_at)
+        SELECT id, user_id, operation_id, code, created_at FROM otp_codes WHERE status = 'ACTIVE'
+        ON CONFLICT DO NOTHING;
+        INSERT INTO otp_history (id, user_id, operation_id, code, status, created_at, finished_at)
+        SELECT id, user_id, operation_id, code, status, created_at, created_at FROM otp_codes WHERE status <> 'ACTIVE'
+        ON CONFLICT DO NOTHING;
+        DROP TABLE otp_codes;
+    END IF;
+END $$;
+
+-- Ответы на запросы с заголовком Idempotency-Key (idempotency.store=jdbc)
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    idem_key     VARCHAR(300) PRIMARY KEY,  -- идентификатор пользователя и значение заголовка
+    fingerprint  VARCHAR(64) NOT NULL,      -- SHA-256 метода, пути и тела запроса
+    status       INT NOT NULL DEFAULT 0,    -- 0 — запрос ещё выполняется
+    content_type VARCHAR(100),
+    body         BYTEA,
+    created_at   TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created ON idempotency_keys(created_at);
@@ -0,0 +1,176 @@
+package otp.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import otp.model.Otp;
+import otp.model.OtpStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Запись сегмента и чтение его обратно: заголовок после open, строки пользователя, курсор и фильтры.
+ */
+class ArchiveSegmentTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 3, 1, 12, 0);
+
+    /** Пользователь, чьи строки занимают несколько групп (в группе 4096 строк) */
+    private static final long BIG_USER = 20;
+    private static final int BIG_USER_ROWS = 9_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void headerSurvivesReopen() throws IOException {
+        List<Otp> rows = rows();
+        ArchiveSegment written = ArchiveSegment.write(dir.resolve("s" + ArchiveSegment.EXTENSION), rows);
+        ArchiveSegment opened = ArchiveSegment.open(written.file());
+
+        Otp last = rows.get(rows.size() - 1);
+        assertEquals(rows.size(), opened.rowCount());
+        assertEquals(last.getCreatedAt(), opened.lastCreatedAt());
+        assertEquals((long) last.getId(), opened.lastId());
+        assertEquals(last.getCreatedAt(), opened.maxCreatedAt());
+
+        long[] expected = rows.stream().mapToLong(Otp::getId).sorted().toArray();
+        long[] ids = opened.ids().clone();
+        Arrays.sort(ids);
+        assertArrayEquals(expected, ids);
+    }
+
+    @Test
+    void userRowsSpanningGroupsComeBackNewestFirst() throws IOException {
+        List<Otp> rows = rows();
+        ArchiveSegment segment = open(rows);
+
+        for (long user : new long[]{10, BIG_USER, 30}) {
+            List<Otp> expected = newestFirst(rows, user);
+            List<Otp> actual = read(segment, user, null, null, null, null, Integer.MAX_VALUE);
+            assertEquals(expected.size(), actual.size(), "rows of user " + user);
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameRow(expected.get(i), actual.get(i));
+            }
+        }
+        assertEquals(0, read(segment, 25, null, null, null, null, 100).size());
+    }
+
+    @Test
+    void cursorContinuesStrictlyAfterLastRow() throws IOException {
+        List<Otp> rows = rows();
+        ArchiveSegment segment = open(rows);
+        List<Otp> expected = newestFirst(rows, BIG_USER);
+
+        // Страницы по 1000 строк через курсор (created_at, id) дают ту же последовательность без пропусков и повторов
+        List<Otp> paged = new ArrayList<>();
+        Otp cursor = null;
+        while (true) {
+            List<Otp> page = read(segment, BIG_USER, null, null,
+                    cursor == null ? null : cursor.getCreatedAt(), cursor == null ? null : cursor.getId(), 1000);
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(page);
+            cursor = page.get(page.size() - 1);
+        }
+        assertEquals(expected.size(), paged.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameRow(expected.get(i), paged.get(i));
+        }
+
+        // Строки с одинаковым created_at различаются по id: после первой из пары идёт вторая,
+        // затем первая строка следующей группы (строки пользователя 10 занимают начало первой группы)
+        int groupEnd = 4096 - 20;
+        Otp tied = expected.get(groupEnd - 2);
+        assertEquals(tied.getCreatedAt(), expected.get(groupEnd - 1).getCreatedAt());
+        List<Otp> afterTied = read(segment, BIG_USER, null, null, tied.getCreatedAt(), tied.getId(), 2);
+        assertSameRow(expected.get(groupEnd - 1), afterTied.get(0));
+        assertSameRow(expected.get(groupEnd), afterTied.get(1));
+    }
+
+    @Test
+    void nullOperationIdAndFilters() throws IOException {
+        List<Otp> rows = rows();
+        ArchiveSegment segment = open(rows);
+
+        List<Otp> all = read(segment, 10, null, null, null, null, Integer.MAX_VALUE);
+        assertNull(all.stream().filter(o -> o.getId() == 10_000).findFirst().orElseThrow().getOperationId());
+
+        List<Otp> expired = read(segment, 10, OtpStatus.EXPIRED, null, null, null, Integer.MAX_VALUE);
+        assertEquals(newestFirst(rows, 10).stream().filter(o -> o.getStatus() == OtpStatus.EXPIRED).count(),
+                (long) expired.size());
+
+        List<Otp> byOperation = read(segment, 10, null, "op-3", null, null, Integer.MAX_VALUE);
+        assertEquals(1, byOperation.size());
+        assertEquals("op-3", byOperation.get(0).getOperationId());
+    }
+
+    /**
+     * Строки по возрастанию (created_at, id), как их выгружает архиватор: пользователь 10 с null operation_id
+     * в одной строке, пользователь BIG_USER на несколько групп с парами строк на одну микросекунду, пользователь 30.
+     */
+    private static List<Otp> rows() {
+        List<Otp> rows = new ArrayList<>();
+        long id = 10_000;
+        for (int i = 0; i < 20; i++) {
+            String operation = i == 0 ? null : "op-" + i;
+            OtpStatus status = i % 3 == 0 ? OtpStatus.EXPIRED : OtpStatus.USED;
+            rows.add(new Otp(id++, 10L, operation, String.format("%06d", i), status, BASE.plusSeconds(i)));
+        }
+        for (int i = 0; i < BIG_USER_ROWS; i++) {
+            // Две строки на каждый момент времени: порядок внутри момента задаёт id
+            LocalDateTime created = BASE.plusMinutes(1).plusNanos((i / 2) * 1_000L);
+            rows.add(new Otp(id++, BIG_USER, "big-" + i, String.format("%06d", i % 1_000_000), OtpStatus.USED, created));
+        }
+        for (int i = 0; i < 5; i++) {
+            rows.add(new Otp(id++, 30L, "op-" + i, "000000", OtpStatus.USED, BASE.plusMinutes(2).plusSeconds(i)));
+        }
+        rows.sort(Comparator.comparing(Otp::getCreatedAt).thenComparing(Otp::getId));
+        return rows;
+    }
+
+    private ArchiveSegment open(List<Otp> rows) throws IOException {
+        Path file = dir.resolve("s" + ArchiveSegment.EXTENSION);
+        ArchiveSegment.write(file, rows);
+        return ArchiveSegment.open(file);
+    }
+
+    private static List<Otp> newestFirst(List<Otp> rows, long userId) {
+        List<Otp> user = new ArrayList<>();
+        for (Otp otp : rows) {
+            if (otp.getUserId() == userId) {
+                user.add(otp);
+            }
+        }
+        user.sort(Comparator.comparing(Otp::getCreatedAt).thenComparing(Otp::getId));
+        Collections.reverse(user);
+        return user;
+    }
+
+    private static List<Otp> read(ArchiveSegment segment, long userId, OtpStatus status, String operationId,
+                                  LocalDateTime beforeCreatedAt, Long beforeId, int limit) throws IOException {
+        List<Otp> result = new ArrayList<>();
+        int count = segment.forEachUserRow(userId, status, operationId, beforeCreatedAt, beforeId, limit, result::add);
+        assertEquals(result.size(), count);
+        return result;
+    }
+
+    private static void assertSameRow(Otp expected, Otp actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getOperationId(), actual.getOperationId());
+        assertEquals(expected.getCode(), actual.getCode());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+    }
+}
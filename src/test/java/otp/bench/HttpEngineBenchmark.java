@@ -0,0 +1,252 @@
+package otp.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import otp.http.HttpEngine;
+import otp.http.JdkHttpEngine;
+import otp.http.NioHttpEngine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нагрузочное сравнение HTTP-движков: HttpServer из JDK ({@link JdkHttpEngine}) против {@link NioHttpEngine}.
+ * <p>
+ * Движок поднимается на свободном порту с обработчиком, который читает тело запроса и отвечает
+ * коротким JSON, так что измеряется сам движок, а не БД. Клиенты — потоки с постоянным
+ * keep-alive соединением на голых сокетах: запрос POST с телом, ответ читается по Content-Length.
+ * После прогрева печатаются запросы в секунду и задержки p50, p99, p99.9.
+ * Это не JMH: замер идёт по сети через loopback, на одном процессе с сервером, поэтому сравнивать
+ * имеет смысл только движки между собой на одной машине.
+ * </p>
+ * <p>
+ * Аргументы — пары key=value: engine (jdk, nio или both), connections, seconds, warmup, threads:
+ * {@code mvn -Pbench test-compile exec:exec -Dbench.main=otp.bench.HttpEngineBenchmark -Dbench.args="engine=both connections=64"}.
+ * </p>
+ */
+public final class HttpEngineBenchmark {
+    private static final byte[] REQUEST_BODY = "{\"operationId\":\"op-1\",\"code\":\"123456\"}"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESPONSE_BODY = "{\"status\":\"VALID\"}".getBytes(StandardCharsets.US_ASCII);
+
+    /** Предел числа замеров на соединение; дальше задержки не пишутся, запросы считаются */
+    private static final int MAX_SAMPLES = 200_000;
+
+    private HttpEngineBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        String engine = "both";
+        int connections = 64;
+        int seconds = 10;
+        int warmup = 3;
+        int threads = 64;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(0, eq)) {
+                case "engine" -> engine = value;
+                case "connections" -> connections = Integer.parseInt(value);
+                case "seconds" -> seconds = Integer.parseInt(value);
+                case "warmup" -> warmup = Integer.parseInt(value);
+                case "threads" -> threads = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        List<String> engines = engine.equals("both") ? List.of("jdk", "nio") : List.of(engine);
+        for (String name : engines) {
+            run(name, connections, warmup, seconds, threads);
+        }
+    }
+
+    private static void run(String name, int connections, int warmup, int seconds, int threads) throws Exception {
+        int port = freePort();
+        HttpEngine server = switch (name) {
+            case "jdk" -> new JdkHttpEngine(port, 1, threads);
+            case "nio" -> new NioHttpEngine(port, Runtime.getRuntime().availableProcessors(), threads,
+                    16_384, 1_048_576, 60);
+            default -> throw new IllegalArgumentException("Unknown engine " + name);
+        };
+        server.createContext("/", HttpEngineBenchmark::handle, List.of());
+        server.start();
+        try {
+            Client[] clients = new Client[connections];
+            for (int i = 0; i < connections; i++) {
+                clients[i] = new Client(port);
+                clients[i].start();
+            }
+            TimeUnit.SECONDS.sleep(warmup);
+            for (Client client : clients) {
+                client.measuring = true;
+            }
+            long start = System.nanoTime();
+            TimeUnit.SECONDS.sleep(seconds);
+            for (Client client : clients) {
+                client.running = false;
+            }
+            for (Client client : clients) {
+                client.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            report(name, connections, elapsed, clients);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, RESPONSE_BODY.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(RESPONSE_BODY);
+        }
+    }
+
+    private static void report(String name, int connections, long elapsedNanos, Client[] clients) {
+        long requests = 0;
+        long errors = 0;
+        int total = 0;
+        for (Client client : clients) {
+            requests += client.requests;
+            errors += client.errors;
+            total += client.count;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (Client client : clients) {
+            System.arraycopy(client.samples, 0, all, pos, client.count);
+            pos += client.count;
+        }
+        Arrays.sort(all);
+        double rps = requests * 1e9 / elapsedNanos;
+        System.out.printf("%-4s connections=%d requests=%d errors=%d rps=%.0f p50=%dus p99=%dus p99.9=%dus%n",
+                name, connections, requests, errors, rps,
+                percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1000;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Клиент с одним keep-alive соединением: отправляет следующий запрос, как только прочитан ответ.
+     */
+    private static final class Client extends Thread {
+        private final int port;
+        private final long[] samples = new long[MAX_SAMPLES];
+        private final byte[] buffer = new byte[8192];
+        volatile boolean running = true;
+        volatile boolean measuring;
+        int count;
+        long requests;
+        long errors;
+
+        Client(int port) {
+            super("bench-client");
+            this.port = port;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            byte[] request = ("POST /otp/check HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + REQUEST_BODY.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            while (running) {
+                try (Socket socket = new Socket()) {
+                    socket.setTcpNoDelay(true);
+                    socket.connect(new InetSocketAddress("127.0.0.1", port));
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = socket.getInputStream();
+                    while (running) {
+                        long start = System.nanoTime();
+                        out.write(request);
+                        out.write(REQUEST_BODY);
+                        out.flush();
+                        readResponse(in);
+                        long nanos = System.nanoTime() - start;
+                        if (measuring) {
+                            record(nanos);
+                        }
+                    }
+                } catch (IOException e) {
+                    if (measuring) {
+                        errors++;
+                    }
+                }
+            }
+        }
+
+        private void record(long nanos) {
+            requests++;
+            if (count < samples.length) {
+                samples[count++] = nanos;
+            }
+        }
+
+        /** Читает заголовок ответа до пустой строки и тело по Content-Length */
+        private void readResponse(InputStream in) throws IOException {
+            int length = 0;
+            int contentLength = -1;
+            while (true) {
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    throw new IOException("Connection closed by server");
+                }
+                length += n;
+                int end = headerEnd(buffer, length);
+                if (end < 0) {
+                    continue;
+                }
+                String head = new String(buffer, 0, end, StandardCharsets.US_ASCII);
+                if (!head.startsWith("HTTP/1.1 200")) {
+                    throw new IOException("Unexpected response: " + head.lines().findFirst().orElse(""));
+                }
+                for (String line : head.split("\r\n")) {
+                    if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                        contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                int remaining = contentLength - (length - end - 4);
+                while (remaining > 0) {
+                    n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("Connection closed by server");
+                    }
+                    remaining -= n;
+                }
+                return;
+            }
+        }
+
+        private static int headerEnd(byte[] data, int length) {
+            for (int i = 3; i < length; i++) {
+                if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                    return i - 3;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package otp.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import otp.util.OtpCodeGenerator;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение генерации кодов: прежний общий SecureRandom с nextInt(10) на каждую цифру
+ * против {@link OtpCodeGenerator} (DRBG на поток, выборка с отклонением из пачки байт).
+ * <p>
+ * Результат — коды в секунду на поток при разном числе потоков. {@link #main} прогоняет оба варианта
+ * на 1, 2, 4 ... потоках до числа ядер; остальные аргументы передаются JMH как есть:
+ * {@code mvn -Pbench test-compile exec:exec -Dbench.main=otp.bench.OtpCodeGeneratorBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OtpCodeGeneratorBenchmark {
+    // Прежняя реализация OtpService: один SecureRandom на все потоки
+    private static final SecureRandom SHARED = new SecureRandom();
+
+    @Param({"6"})
+    public int length;
+
+    @Benchmark
+    public String sharedSecureRandom() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(SHARED.nextInt(10));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String perThreadDrbg() {
+        return OtpCodeGenerator.generate(length);
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions parent = new CommandLineOptions(args);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            new Runner(new OptionsBuilder()
+                    .parent(parent)
+                    .include(OtpCodeGeneratorBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}